@@ -0,0 +1,46 @@
+package com.example.blockchain.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.blockchain.util.Sha256Util;
+
+/**
+ * Measures double SHA-256 at the sizes hashed most often: a merkle node (64
+ * bytes), a block header (77 bytes) and a typical transaction (250 bytes).
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+
+	@Param({ "64", "77", "250" })
+	private int dataSize;
+
+	private byte[] data;
+
+	@Setup
+	public void setUp() {
+		data = new SyntheticData().randomBytes(dataSize);
+	}
+
+	@Benchmark
+	public byte[] doubleHash() {
+		return Sha256Util.doubleHash(data);
+	}
+}
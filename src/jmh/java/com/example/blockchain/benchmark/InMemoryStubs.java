@@ -0,0 +1,92 @@
+package com.example.blockchain.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.example.blockchain.dao.UnconfirmedTransactionsDao;
+import com.example.blockchain.domain.transaction.pool.TransactionsPool.PoolTransaction;
+import com.example.blockchain.network.NetworkInterface;
+
+/**
+ * In-memory stand-ins for the collaborators which the benchmarked classes need
+ * but which are not measured (network and storage).
+ *
+ */
+public final class InMemoryStubs {
+
+	// Non usable constructor
+	private InMemoryStubs() {
+
+	}
+
+	/**
+	 * Creates a network interface which is never connected: every request
+	 * returns false (not enough nodes) and nothing is ever called back.
+	 *
+	 */
+	public static NetworkInterface createDisconnectedNetworkInterface() {
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				Class<?> returnType = method.getReturnType();
+				if (returnType == boolean.class) {
+					return false;
+				} else if (returnType == int.class) {
+					return 0;
+				} else if (returnType == long.class) {
+					return 0L;
+				}
+				return null;
+			}
+		};
+		return (NetworkInterface) Proxy.newProxyInstance(NetworkInterface.class.getClassLoader(), new Class<?>[] { NetworkInterface.class }, handler);
+	}
+
+	/**
+	 * Creates an unconfirmed transactions DAO which keeps the transactions in an
+	 * insertion ordered set.
+	 *
+	 */
+	public static UnconfirmedTransactionsDao createUnconfirmedTransactionsDao() {
+		return new UnconfirmedTransactionsDao() {
+
+			private Set<PoolTransaction> poolTransactions = new LinkedHashSet<>();
+
+			@Override
+			public List<PoolTransaction> findAll() {
+				return new ArrayList<>(poolTransactions);
+			}
+
+			@Override
+			public void save(PoolTransaction poolTransaction) {
+				poolTransactions.add(poolTransaction);
+			}
+
+			@Override
+			public void save(List<PoolTransaction> poolTransactions) {
+				this.poolTransactions.addAll(poolTransactions);
+			}
+
+			@Override
+			public boolean delete(PoolTransaction poolTransaction) {
+				return poolTransactions.remove(poolTransaction);
+			}
+
+			@Override
+			public int delete(List<PoolTransaction> poolTransactions) {
+				int count = 0;
+				for (PoolTransaction poolTransaction : poolTransactions) {
+					if (delete(poolTransaction)) {
+						count++;
+					}
+				}
+				return count;
+			}
+		};
+	}
+}
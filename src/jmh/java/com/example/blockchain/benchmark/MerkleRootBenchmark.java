@@ -0,0 +1,52 @@
+package com.example.blockchain.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.GenesisBlock;
+import com.example.blockchain.domain.block.builder.BuildBlockForm;
+import com.example.blockchain.domain.transaction.Transaction;
+
+/**
+ * Measures building a candidate block, which is dominated by the construction
+ * of the merkle root for the larger transaction counts.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MerkleRootBenchmark {
+
+	@Param({ "1", "100", "2000" })
+	private int numberOfTransactions;
+
+	private BuildBlockForm buildBlockForm;
+
+	@Setup
+	public void setUp() {
+		Transaction[] transactions = new SyntheticData().createTransactionsWithIdsOnly(numberOfTransactions);
+		buildBlockForm = new BuildBlockForm(GenesisBlock.getInstance(), transactions, new Date(1617033110386L));
+	}
+
+	@Benchmark
+	public byte[] buildMerkleRoot() {
+		Block block = Block.createCandidateBlock(buildBlockForm);
+		return block.getMerkleRoot();
+	}
+}
@@ -0,0 +1,140 @@
+package com.example.blockchain.benchmark;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.blockchain.domain.address.Address;
+import com.example.blockchain.domain.script.ScriptCode;
+import com.example.blockchain.domain.script.operation.ScriptOperation;
+import com.example.blockchain.domain.script.operation.ScriptOperationFactory;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.TransactionInput;
+import com.example.blockchain.domain.transaction.TransactionOutput;
+import com.example.blockchain.domain.transaction.builder.BuildTransactionForm;
+import com.example.blockchain.domain.transaction.script.PayToPublicKeyHashScriptsBuilder;
+import com.example.blockchain.domain.transaction.script.PayToPublicKeyScriptsBuilder;
+import com.example.blockchain.domain.transaction.script.TransactionScriptsType;
+import com.example.blockchain.util.PublicPrivateKeysUtil;
+
+/**
+ * Measures the verification of pay-to-public-key and pay-to-public-key-hash
+ * inputs of signed transactions.
+ *
+ * ScriptRunner.run() does not decode data pushes yet (the scripts built by the
+ * transaction builder start with raw signature and key bytes), so the benchmark
+ * runs the same script operations ScriptRunner would run, in the same order,
+ * over the stack which the unlocking script leaves behind.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScriptBenchmark {
+
+	private static final byte[] TRUE = new byte[] { 1 };
+
+	private ScriptOperation dup;
+	private ScriptOperation hash160;
+	private ScriptOperation equalVerify;
+	private ScriptOperation checkSig;
+
+	private Transaction payToPublicKeyTransaction;
+	private byte[] payToPublicKeySignature;
+	private Transaction payToPublicKeyHashTransaction;
+	private byte[] payToPublicKeyHashSignature;
+	private byte[] encodedPublicKey;
+	private byte[] publicKeyHash;
+
+	@Setup
+	public void setUp() {
+		ScriptOperationFactory factory = new ScriptOperationFactory();
+		dup = factory.createScriptOperation(ScriptCode.DUP);
+		hash160 = factory.createScriptOperation(ScriptCode.HASH160);
+		equalVerify = factory.createScriptOperation(ScriptCode.EQUALVERIFY);
+		checkSig = factory.createScriptOperation(ScriptCode.CHECKSIG);
+
+		KeyPair keyPair = PublicPrivateKeysUtil.generateNewKeyPair();
+		PublicKey publicKey = keyPair.getPublic();
+		Address address = new Address(publicKey);
+		encodedPublicKey = publicKey.getEncoded();
+		publicKeyHash = address.getRipeMD160Hash();
+
+		byte[] payToPublicKeyScriptPubKey = new PayToPublicKeyScriptsBuilder().buildScriptPubKey(publicKey);
+		payToPublicKeyTransaction = createSpendingTransaction(TransactionScriptsType.PAY_TO_PUBLIC_KEY, payToPublicKeyScriptPubKey, keyPair, address);
+		payToPublicKeySignature = payToPublicKeyTransaction.getInputs().get(0).getScriptSig();
+
+		byte[] payToPublicKeyHashScriptPubKey = new PayToPublicKeyHashScriptsBuilder().buildScriptPubKey(address);
+		payToPublicKeyHashTransaction = createSpendingTransaction(TransactionScriptsType.PAY_TO_PUBLIC_KEY_HASH, payToPublicKeyHashScriptPubKey, keyPair,
+				address);
+		byte[] scriptSig = payToPublicKeyHashTransaction.getInputs().get(0).getScriptSig();
+		payToPublicKeyHashSignature = Arrays.copyOf(scriptSig, scriptSig.length - encodedPublicKey.length);
+
+		if (!payToPublicKey() || !payToPublicKeyHash()) {
+			throw new IllegalStateException("The synthetic signatures do not verify");
+		}
+	}
+
+	@Benchmark
+	public boolean payToPublicKey() {
+		Stack<byte[]> stack = new Stack<>();
+		stack.push(payToPublicKeySignature);
+		stack.push(encodedPublicKey);
+		return checkSig.run(stack, payToPublicKeyTransaction, 0) && Arrays.equals(stack.pop(), TRUE);
+	}
+
+	@Benchmark
+	public boolean payToPublicKeyHash() {
+		Stack<byte[]> stack = new Stack<>();
+		stack.push(payToPublicKeyHashSignature);
+		stack.push(encodedPublicKey);
+		dup.run(stack, payToPublicKeyHashTransaction, 0);
+		hash160.run(stack, payToPublicKeyHashTransaction, 0);
+		stack.push(publicKeyHash);
+		if (!equalVerify.run(stack, payToPublicKeyHashTransaction, 0)) {
+			return false;
+		}
+		// HASH160 currently leaves its operand on the stack; the extra copy is dropped
+		// so that CHECKSIG receives the signature and key as in a correct run
+		stack.pop();
+		return checkSig.run(stack, payToPublicKeyHashTransaction, 0) && Arrays.equals(stack.pop(), TRUE);
+	}
+
+	/**
+	 * Creates a signed transaction which spends an output locked with the given
+	 * script.
+	 *
+	 */
+	private Transaction createSpendingTransaction(TransactionScriptsType scriptsType, byte[] lockingScriptPubKey, KeyPair keyPair, Address address) {
+		SyntheticData syntheticData = new SyntheticData();
+		List<TransactionInput> inputs = new ArrayList<>(1);
+		inputs.add(new TransactionInput(new Transaction(syntheticData.randomBytes(32)), 0, new byte[0], TransactionInput.MAX_SEQUENCE_VALUE));
+		List<TransactionOutput> outputs = new ArrayList<>(1);
+		outputs.add(new TransactionOutput(BigInteger.valueOf(100000000L), lockingScriptPubKey));
+		Transaction fundingTransaction = new Transaction((short) 1, inputs, outputs, 0);
+
+		BuildTransactionForm form = new BuildTransactionForm(scriptsType, new Transaction[] { fundingTransaction }, new int[] { 0 },
+				new KeyPair[] { keyPair }, new BigInteger[] { BigInteger.valueOf(99990000L) }, new PublicKey[] { keyPair.getPublic() },
+				new Address[] { address }, 0);
+		return Transaction.createTransaction(form);
+	}
+}
@@ -0,0 +1,87 @@
+package com.example.blockchain.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.builder.BlockBuilderV1;
+import com.example.blockchain.domain.block.builder.ByteBufferBlockBuilder;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.builder.ByteBufferTransactionBuilder;
+import com.example.blockchain.domain.transaction.builder.TransactionBuilderV1;
+import com.example.blockchain.domain.transaction.script.PayToPublicKeyHashScriptsBuilder;
+import com.example.blockchain.domain.transaction.script.PayToPublicKeyScriptsBuilder;
+
+/**
+ * Measures the serialization and deserialization of blocks and transactions
+ * through the version 1 builders and the ByteBuffer builders.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+	@Param({ "100", "1000" })
+	private int numberOfTransactions;
+
+	@Param({ "V1", "BYTE_BUFFER" })
+	private String codec;
+
+	private Block block;
+	private byte[] blockData;
+	private Transaction transaction;
+	private byte[] transactionData;
+
+	@Setup
+	public void setUp() {
+		if (codec.equals("BYTE_BUFFER")) {
+			Transaction.setTransactionBuilder(new ByteBufferTransactionBuilder(new PayToPublicKeyScriptsBuilder(), new PayToPublicKeyHashScriptsBuilder(),
+					Transaction.getVoidTransaction()));
+			Block.setBlockBuilder(new ByteBufferBlockBuilder());
+		} else {
+			Transaction.setTransactionBuilder(new TransactionBuilderV1(new PayToPublicKeyScriptsBuilder(), new PayToPublicKeyHashScriptsBuilder(),
+					Transaction.getVoidTransaction()));
+			Block.setBlockBuilder(new BlockBuilderV1());
+		}
+		SyntheticData syntheticData = new SyntheticData();
+		block = syntheticData.createBlock(numberOfTransactions);
+		blockData = block.serialize(true);
+		transaction = syntheticData.createTransaction(2, 2);
+		transactionData = transaction.serialize();
+	}
+
+	@Benchmark
+	public byte[] serializeBlock() {
+		return block.serialize(true);
+	}
+
+	@Benchmark
+	public Block deserializeBlock() {
+		return Block.buildBlock(blockData, true);
+	}
+
+	@Benchmark
+	public byte[] serializeTransaction() {
+		return transaction.serialize();
+	}
+
+	@Benchmark
+	public Transaction deserializeTransaction() {
+		return Transaction.buildTransaction(transactionData);
+	}
+}
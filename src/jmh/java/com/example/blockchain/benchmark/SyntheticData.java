@@ -0,0 +1,160 @@
+package com.example.blockchain.benchmark;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.GenesisBlock;
+import com.example.blockchain.domain.block.builder.BuildBlockForm;
+import com.example.blockchain.domain.script.ScriptCode;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.TransactionInput;
+import com.example.blockchain.domain.transaction.TransactionOutput;
+import com.example.blockchain.domain.transaction.builder.BuildCoinbaseTransactionForm;
+import com.example.blockchain.domain.transaction.script.TransactionScriptsType;
+import com.example.blockchain.util.PublicPrivateKeysUtil;
+
+/**
+ * Generates synthetic blocks and transactions for the benchmarks. The shapes
+ * follow the wire format of version 1: pay-to-public-key-hash outputs, script
+ * sigs made of a DER signature followed by an encoded public key, one to three
+ * inputs and two outputs per transaction. The same seed always yields the same
+ * data, apart from the keys of coinbase transactions.
+ *
+ */
+public final class SyntheticData {
+
+	public static final long DEFAULT_SEED = 20210329L;
+
+	private static final int TRANSACTION_ID_SIZE = 32; // In bytes
+	private static final int SIGNATURE_SIZE = 72; // In bytes; a DER encoded secp256k1 signature
+	private static final int ENCODED_PUBLIC_KEY_SIZE = 88; // In bytes; an X.509 encoded secp256k1 public key
+	private static final int PUBLIC_KEY_HASH_SIZE = 20; // In bytes
+	private static final long MIN_OUTPUT_AMOUNT = 10000; // In satoshis
+	private static final long MAX_OUTPUT_AMOUNT = 100000000L * 50; // In satoshis
+	private static final long MAX_FEES = 100000; // In satoshis
+
+	private Random random;
+
+	public SyntheticData() {
+		this(DEFAULT_SEED);
+	}
+
+	public SyntheticData(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Creates the given number of transactions which spend outputs of funding
+	 * transactions. The funding transactions are fully loaded, so the fees of
+	 * the created transactions can be computed.
+	 *
+	 */
+	public List<Transaction> createTransactions(int count) {
+		List<Transaction> transactions = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			transactions.add(createTransaction(1 + random.nextInt(3), 2));
+		}
+		return transactions;
+	}
+
+	/**
+	 * Creates a transaction with the given number of inputs and outputs.
+	 *
+	 */
+	public Transaction createTransaction(int numberOfInputs, int numberOfOutputs) {
+		List<TransactionInput> inputs = new ArrayList<>(numberOfInputs);
+		long inputsAmount = 0;
+		for (int i = 0; i < numberOfInputs; i++) {
+			Transaction fundingTransaction = createFundingTransaction(2);
+			int outputIndex = random.nextInt(2);
+			inputsAmount += fundingTransaction.getOutputs().get(outputIndex).getAmount().longValue();
+			inputs.add(new TransactionInput(fundingTransaction, outputIndex, createScriptSig(), TransactionInput.MAX_SEQUENCE_VALUE));
+		}
+
+		long fees = 1 + (long) (random.nextDouble() * Math.min(MAX_FEES, inputsAmount / 2));
+		long remainingAmount = inputsAmount - fees;
+		List<TransactionOutput> outputs = new ArrayList<>(numberOfOutputs);
+		for (int i = 0; i < numberOfOutputs; i++) {
+			long amount = remainingAmount / (numberOfOutputs - i);
+			remainingAmount -= amount;
+			outputs.add(new TransactionOutput(BigInteger.valueOf(amount), createPayToPublicKeyHashScriptPubKey()));
+		}
+		return new Transaction((short) 1, inputs, outputs, 0);
+	}
+
+	/**
+	 * Creates a transaction whose outputs can be spent by the other generated
+	 * transactions. Its own input points to a random (unknown) transaction.
+	 *
+	 */
+	public Transaction createFundingTransaction(int numberOfOutputs) {
+		List<TransactionInput> inputs = new ArrayList<>(1);
+		inputs.add(new TransactionInput(new Transaction(randomBytes(TRANSACTION_ID_SIZE)), 0, createScriptSig(), TransactionInput.MAX_SEQUENCE_VALUE));
+		List<TransactionOutput> outputs = new ArrayList<>(numberOfOutputs);
+		for (int i = 0; i < numberOfOutputs; i++) {
+			long amount = MIN_OUTPUT_AMOUNT + (long) (random.nextDouble() * (MAX_OUTPUT_AMOUNT - MIN_OUTPUT_AMOUNT));
+			outputs.add(new TransactionOutput(BigInteger.valueOf(amount), createPayToPublicKeyHashScriptPubKey()));
+		}
+		return new Transaction((short) 1, inputs, outputs, 0);
+	}
+
+	/**
+	 * Creates a block on top of the genesis block with a coinbase transaction
+	 * followed by the given number of transactions.
+	 *
+	 */
+	public Block createBlock(int numberOfTransactions) {
+		KeyPair keyPair = PublicPrivateKeysUtil.generateNewKeyPair();
+		BuildCoinbaseTransactionForm coinbaseForm = new BuildCoinbaseTransactionForm(TransactionScriptsType.PAY_TO_PUBLIC_KEY, 1, null,
+				BigInteger.valueOf(MAX_OUTPUT_AMOUNT), keyPair.getPublic(), null);
+		Transaction[] transactions = new Transaction[numberOfTransactions + 1];
+		transactions[0] = Transaction.createCoinbaseTransaction(coinbaseForm);
+		List<Transaction> otherTransactions = createTransactions(numberOfTransactions);
+		for (int i = 0; i < numberOfTransactions; i++) {
+			transactions[i + 1] = otherTransactions.get(i);
+		}
+		return Block.createCandidateBlock(new BuildBlockForm(GenesisBlock.getInstance(), transactions, new Date(1617033110386L)));
+	}
+
+	/**
+	 * Creates the given number of transactions which only have IDs. Useful where
+	 * nothing but the IDs is read (e.g. the merkle root).
+	 *
+	 */
+	public Transaction[] createTransactionsWithIdsOnly(int count) {
+		Transaction[] transactions = new Transaction[count];
+		for (int i = 0; i < count; i++) {
+			transactions[i] = new Transaction(randomBytes(TRANSACTION_ID_SIZE));
+		}
+		return transactions;
+	}
+
+	/**
+	 * Returns random bytes of the given length.
+	 *
+	 */
+	public byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private byte[] createScriptSig() {
+		return randomBytes(SIGNATURE_SIZE + ENCODED_PUBLIC_KEY_SIZE);
+	}
+
+	private byte[] createPayToPublicKeyHashScriptPubKey() {
+		byte[] scriptPubKey = new byte[PUBLIC_KEY_HASH_SIZE + 4];
+		scriptPubKey[0] = ScriptCode.DUP.getValue();
+		scriptPubKey[1] = ScriptCode.HASH160.getValue();
+		System.arraycopy(randomBytes(PUBLIC_KEY_HASH_SIZE), 0, scriptPubKey, 2, PUBLIC_KEY_HASH_SIZE);
+		scriptPubKey[scriptPubKey.length - 2] = ScriptCode.EQUALVERIFY.getValue();
+		scriptPubKey[scriptPubKey.length - 1] = ScriptCode.CHECKSIG.getValue();
+		return scriptPubKey;
+	}
+}
@@ -0,0 +1,108 @@
+package com.example.blockchain.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.clock.NetworkClock;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.pool.FifoTransactionsPool;
+import com.example.blockchain.domain.transaction.pool.ProfitAwareTransactionsPool;
+import com.example.blockchain.domain.transaction.pool.TransactionsPool;
+
+/**
+ * Measures inserting transactions into the pool and selecting the candidate
+ * transactions of a block, for both pool implementations.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionsPoolBenchmark {
+
+	/**
+	 * A pool with the transactions to be inserted. The pool is emptied before
+	 * each invocation (outside of the measured time).
+	 *
+	 */
+	@State(Scope.Benchmark)
+	public static class InsertState {
+
+		@Param({ "fifo", "profitAware" })
+		String poolType;
+
+		@Param({ "1000", "5000" })
+		int poolSize;
+
+		TransactionsPool pool;
+		Transaction[] transactions;
+
+		@Setup(Level.Trial)
+		public void setUpTrial() {
+			pool = createPool(poolType);
+			transactions = new SyntheticData().createTransactions(poolSize).toArray(new Transaction[0]);
+		}
+
+		@Setup(Level.Invocation)
+		public void setUpInvocation() {
+			pool.removeTransactions(transactions);
+		}
+	}
+
+	/**
+	 * A pool which is filled once.
+	 *
+	 */
+	@State(Scope.Benchmark)
+	public static class SelectState {
+
+		@Param({ "fifo", "profitAware" })
+		String poolType;
+
+		@Param({ "1000", "5000" })
+		int poolSize;
+
+		TransactionsPool pool;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			pool = createPool(poolType);
+			pool.addTransactions(new SyntheticData().createTransactions(poolSize).toArray(new Transaction[0]));
+		}
+	}
+
+	@Benchmark
+	public int insert(InsertState state) {
+		return state.pool.addTransactions(state.transactions);
+	}
+
+	@Benchmark
+	public List<Transaction> select(SelectState state) {
+		return state.pool.getCandidateTransactions(Block.DEFAULT_MAX_SIZE);
+	}
+
+	private static TransactionsPool createPool(String poolType) {
+		if ("fifo".equals(poolType)) {
+			return new FifoTransactionsPool(new NetworkClock(), InMemoryStubs.createDisconnectedNetworkInterface(),
+					InMemoryStubs.createUnconfirmedTransactionsDao());
+		} else {
+			return new ProfitAwareTransactionsPool(new NetworkClock(), InMemoryStubs.createDisconnectedNetworkInterface(),
+					InMemoryStubs.createUnconfirmedTransactionsDao());
+		}
+	}
+}
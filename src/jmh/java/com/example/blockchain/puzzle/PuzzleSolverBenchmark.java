@@ -0,0 +1,62 @@
+package com.example.blockchain.puzzle;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.blockchain.benchmark.SyntheticData;
+import com.example.blockchain.difficulty.Target;
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.GenesisBlock;
+import com.example.blockchain.domain.block.builder.BuildBlockForm;
+
+/**
+ * Measures the hash rate of one solver thread: the cost of trying one nonce
+ * through the mining header template (as the solvers do) and through a full
+ * header serialization and hash of the block.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PuzzleSolverBenchmark {
+
+	private Block candidateBlock;
+	private MiningHeaderTemplate headerTemplate;
+	private long nonce;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		BuildBlockForm form = new BuildBlockForm(GenesisBlock.getInstance(), new SyntheticData().createTransactionsWithIdsOnly(100),
+				new Date(1617033110386L), Target.MAX_TARGET_VALUE);
+		candidateBlock = Block.createCandidateBlock(form);
+		headerTemplate = new MiningHeaderTemplate(candidateBlock, BigInteger.ONE); // The lowest valid target, which no nonce is expected to satisfy
+	}
+
+	@Benchmark
+	public boolean tryNonceWithTemplate() {
+		return headerTemplate.tryNonce(nonce++);
+	}
+
+	@Benchmark
+	public byte[] tryNonceWithBlockHash() {
+		candidateBlock.setNonce(nonce++);
+		candidateBlock.setHash(true);
+		return candidateBlock.getHash();
+	}
+}
@@ -0,0 +1,25 @@
+package com.example.blockchain.dao;
+
+import com.example.blockchain.domain.block.BlockUndo;
+
+public interface BlockUndoDao {
+
+	/**
+	 * Finds the undo data of the block with the given hash, or returns null if
+	 * there is none.
+	 *
+	 */
+	BlockUndo find(byte[] blockHash);
+
+	/**
+	 * Saves the undo data of the block with the given hash, replacing any.
+	 *
+	 */
+	void save(byte[] blockHash, BlockUndo blockUndo);
+
+	/**
+	 * Deletes the undo data of the block with the given hash.
+	 *
+	 */
+	boolean delete(byte[] blockHash);
+}
@@ -0,0 +1,296 @@
+package com.example.blockchain.dao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.blockchain.domain.address.Address;
+import com.example.blockchain.domain.transaction.Outpoint;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.utxo.UnspentTransactionOutput;
+import com.example.blockchain.util.ByteUtil;
+
+/**
+ * An unspent transaction outputs DAO which caches another one in memory. The
+ * outputs are keyed by outpoint and cached as their amount and scriptPubKey
+ * only. Saves and deletes go to the cache, which tracks for each output
+ * whether it differs from the other DAO (dirty) and whether the other DAO has
+ * never had it (fresh). A fresh output which is spent is dropped, so outputs
+ * created and spent between two flushes never reach the other DAO.
+ *
+ * Once the estimated memory used by the cache exceeds its maximum, the dirty
+ * outputs are written to the other DAO in one batch of saves and one of deletes,
+ * and the cache is emptied. The outputs found by address are read from the other
+ * DAO, so the cache is flushed before.
+ *
+ * The outputs returned by find() do not have their transaction loaded; their
+ * amount and scriptPubKey are read from the output itself.
+ *
+ */
+public class CachingUnspentTransactionOutputDao implements UnspentTransactionOutputDao {
+
+	private static final Logger log = LoggerFactory.getLogger(CachingUnspentTransactionOutputDao.class);
+
+	public static final long DEFAULT_MAX_MEMORY_USAGE = 300L * 1000 * 1000; // In bytes
+
+	// The estimated memory used by a cached output besides its scriptPubKey: the
+	// map entry, the outpoint with the transaction ID, and the cached output
+	private static final int CACHED_OUTPUT_OVERHEAD = 160; // In bytes
+
+	private static final byte DIRTY = 1; // Differs from the other DAO
+	private static final byte FRESH = 2; // The other DAO does not have it
+
+	private UnspentTransactionOutputDao unspentTransactionOutputDao;
+	private long maxMemoryUsage;
+	private Map<Outpoint, CachedOutput> cachedOutputs = new HashMap<>();
+	private long memoryUsage = 0; // Estimated, in bytes
+
+	public CachingUnspentTransactionOutputDao(UnspentTransactionOutputDao unspentTransactionOutputDao) {
+		this(unspentTransactionOutputDao, DEFAULT_MAX_MEMORY_USAGE);
+	}
+
+	public CachingUnspentTransactionOutputDao(UnspentTransactionOutputDao unspentTransactionOutputDao, long maxMemoryUsage) {
+		if (maxMemoryUsage < 1) {
+			throw new IllegalArgumentException("The maximum memory usage must be positive");
+		}
+		this.unspentTransactionOutputDao = unspentTransactionOutputDao;
+		this.maxMemoryUsage = maxMemoryUsage;
+	}
+
+	/**
+	 * Finds the given output in the cache, or in the other DAO then caches it.
+	 *
+	 */
+	@Override
+	public synchronized UnspentTransactionOutput find(byte[] txId, int outputIndex) {
+		Outpoint outpoint = new Outpoint(txId, outputIndex);
+		CachedOutput cachedOutput = cachedOutputs.get(outpoint);
+		if (cachedOutput != null) {
+			return cachedOutput.isSpent() ? null : cachedOutput.toUnspentTransactionOutput(outpoint);
+		}
+
+		UnspentTransactionOutput unspentTransactionOutput = unspentTransactionOutputDao.find(txId, outputIndex);
+		if (unspentTransactionOutput != null) {
+			put(outpoint, new CachedOutput(unspentTransactionOutput.getAmount().longValue(), unspentTransactionOutput.getScriptPubKey(), (byte) 0));
+			flushIfFull();
+		}
+		return unspentTransactionOutput;
+	}
+
+	@Override
+	public synchronized UnspentTransactionOutput findForAddress(byte[] txId, int outputIndex, Address address) {
+		flush();
+		return unspentTransactionOutputDao.findForAddress(txId, outputIndex, address);
+	}
+
+	@Override
+	public synchronized List<UnspentTransactionOutput> findAllForAddress(Address address) {
+		flush();
+		return unspentTransactionOutputDao.findAllForAddress(address);
+	}
+
+	@Override
+	public synchronized void save(UnspentTransactionOutput unspentTransactionOutput) {
+		addOutput(unspentTransactionOutput);
+		flushIfFull();
+	}
+
+	@Override
+	public synchronized void save(List<UnspentTransactionOutput> unspentTransactionOutputs) {
+		for (UnspentTransactionOutput unspentTransactionOutput : unspentTransactionOutputs) {
+			addOutput(unspentTransactionOutput);
+		}
+		flushIfFull();
+	}
+
+	@Override
+	public synchronized void saveForAddress(UnspentTransactionOutput unspentTransactionOutput, Address address) {
+		unspentTransactionOutputDao.saveForAddress(unspentTransactionOutput, address);
+	}
+
+	@Override
+	public synchronized void saveForAddress(List<UnspentTransactionOutput> unspentTransactionOutputs, Address address) {
+		unspentTransactionOutputDao.saveForAddress(unspentTransactionOutputs, address);
+	}
+
+	/**
+	 * Spends the given output in the cache. Always returns true, as whether the
+	 * other DAO has it is not known.
+	 *
+	 */
+	@Override
+	public synchronized boolean delete(UnspentTransactionOutput unspentTransactionOutput) {
+		spendOutput(unspentTransactionOutput);
+		flushIfFull();
+		return true;
+	}
+
+	/**
+	 * Spends the given outputs in the cache. Returns their count, as how many of
+	 * them the other DAO has is not known.
+	 *
+	 */
+	@Override
+	public synchronized int delete(List<UnspentTransactionOutput> unspentTransactionOutputs) {
+		for (UnspentTransactionOutput unspentTransactionOutput : unspentTransactionOutputs) {
+			spendOutput(unspentTransactionOutput);
+		}
+		flushIfFull();
+		return unspentTransactionOutputs.size();
+	}
+
+	@Override
+	public synchronized boolean deleteForAddress(UnspentTransactionOutput unspentTransactionOutput, Address address) {
+		return unspentTransactionOutputDao.deleteForAddress(unspentTransactionOutput, address);
+	}
+
+	@Override
+	public synchronized int deleteForAddress(List<UnspentTransactionOutput> unspentTransactionOutputs, Address address) {
+		return unspentTransactionOutputDao.deleteForAddress(unspentTransactionOutputs, address);
+	}
+
+	/**
+	 * Adds the given output to the cache as dirty. It is fresh if it is not
+	 * cached: a new output, or a spent one being restored whose delete was
+	 * flushed. Otherwise it keeps whether it was fresh (e.g. it is cached as spent
+	 * by a delete which was not flushed, so the other DAO still has it).
+	 *
+	 */
+	private void addOutput(UnspentTransactionOutput unspentTransactionOutput) {
+		Outpoint outpoint = toOutpoint(unspentTransactionOutput);
+		CachedOutput cachedOutput = cachedOutputs.get(outpoint);
+		byte flags = (byte) (DIRTY | (cachedOutput == null ? FRESH : cachedOutput.flags & FRESH));
+		put(outpoint, new CachedOutput(unspentTransactionOutput.getAmount().longValue(), unspentTransactionOutput.getScriptPubKey(), flags));
+	}
+
+	/**
+	 * Spends the given output in the cache: a fresh output is dropped; any other
+	 * is kept as spent and dirty, to be deleted from the other DAO.
+	 *
+	 */
+	private void spendOutput(UnspentTransactionOutput unspentTransactionOutput) {
+		Outpoint outpoint = toOutpoint(unspentTransactionOutput);
+		CachedOutput cachedOutput = cachedOutputs.get(outpoint);
+		if (cachedOutput != null && cachedOutput.isFresh()) {
+			remove(outpoint);
+		} else {
+			put(outpoint, new CachedOutput(0, null, DIRTY));
+		}
+	}
+
+	private void put(Outpoint outpoint, CachedOutput cachedOutput) {
+		CachedOutput replacedOutput = cachedOutputs.put(outpoint, cachedOutput);
+		if (replacedOutput != null) {
+			memoryUsage -= replacedOutput.getMemoryUsage();
+		}
+		memoryUsage += cachedOutput.getMemoryUsage();
+	}
+
+	private void remove(Outpoint outpoint) {
+		CachedOutput removedOutput = cachedOutputs.remove(outpoint);
+		if (removedOutput != null) {
+			memoryUsage -= removedOutput.getMemoryUsage();
+		}
+	}
+
+	private static Outpoint toOutpoint(UnspentTransactionOutput unspentTransactionOutput) {
+		return new Outpoint(unspentTransactionOutput.getTransaction().getId(), unspentTransactionOutput.getOutputIndex());
+	}
+
+	private void flushIfFull() {
+		if (memoryUsage > maxMemoryUsage) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the dirty outputs to the other DAO in one batch of saves and one of
+	 * deletes, then empties the cache.
+	 *
+	 */
+	public synchronized void flush() {
+		if (cachedOutputs.isEmpty()) {
+			return;
+		}
+
+		List<UnspentTransactionOutput> savedOutputs = new ArrayList<>();
+		List<UnspentTransactionOutput> deletedOutputs = new ArrayList<>();
+		for (Map.Entry<Outpoint, CachedOutput> entry : cachedOutputs.entrySet()) {
+			CachedOutput cachedOutput = entry.getValue();
+			if (!cachedOutput.isDirty()) {
+				continue;
+			}
+			if (cachedOutput.isSpent()) {
+				deletedOutputs.add(cachedOutput.toUnspentTransactionOutput(entry.getKey()));
+			} else {
+				savedOutputs.add(cachedOutput.toUnspentTransactionOutput(entry.getKey()));
+			}
+		}
+		if (!deletedOutputs.isEmpty()) {
+			unspentTransactionOutputDao.delete(deletedOutputs);
+		}
+		if (!savedOutputs.isEmpty()) {
+			unspentTransactionOutputDao.save(savedOutputs);
+		}
+		cachedOutputs.clear();
+		memoryUsage = 0;
+		log.debug("Flushed {} saved and {} deleted unspent transaction outputs", savedOutputs.size(), deletedOutputs.size());
+	}
+
+	// GETTERS & SETTERS // -----------------------------------------
+
+	public synchronized int getNumberOfCachedOutputs() {
+		return cachedOutputs.size();
+	}
+
+	public synchronized long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	public long getMaxMemoryUsage() {
+		return maxMemoryUsage;
+	}
+
+	/**
+	 * An output as cached: its amount and scriptPubKey, or no scriptPubKey if it
+	 * is spent, with its flags.
+	 *
+	 */
+	private static class CachedOutput {
+
+		private long amount; // In satoshis, unsigned as an amount may exceed Long.MAX_VALUE
+		private byte[] scriptPubKey; // Null if spent
+		private byte flags;
+
+		private CachedOutput(long amount, byte[] scriptPubKey, byte flags) {
+			this.amount = amount;
+			this.scriptPubKey = scriptPubKey;
+			this.flags = flags;
+		}
+
+		private boolean isSpent() {
+			return scriptPubKey == null;
+		}
+
+		private boolean isDirty() {
+			return (flags & DIRTY) != 0;
+		}
+
+		private boolean isFresh() {
+			return (flags & FRESH) != 0;
+		}
+
+		private long getMemoryUsage() {
+			return CACHED_OUTPUT_OVERHEAD + (scriptPubKey != null ? scriptPubKey.length : 0);
+		}
+
+		private UnspentTransactionOutput toUnspentTransactionOutput(Outpoint outpoint) {
+			return new UnspentTransactionOutput(new Transaction(outpoint.getTransactionId()), outpoint.getOutputIndex(), ByteUtil.toUnsignedBigInteger(amount),
+					scriptPubKey);
+		}
+	}
+}
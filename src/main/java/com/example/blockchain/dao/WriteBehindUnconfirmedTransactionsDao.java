@@ -0,0 +1,303 @@
+package com.example.blockchain.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.pool.TransactionsPool.PoolTransaction;
+import com.example.blockchain.util.ByteArrayKey;
+
+/**
+ * An unconfirmed transactions DAO which writes behind another one. Saves and
+ * deletes are held in memory and written to the other DAO in batches, once
+ * enough of them are pending or periodically. A delete cancels a pending save
+ * of a transaction the other DAO has not seen, so transactions which come and
+ * go between flushes are never written.
+ *
+ * Every pending operation is also appended to a journal file, which is cleared
+ * after each flush. On creation, the operations left in the journal (those not
+ * flushed before a crash) are replayed to the other DAO.
+ *
+ */
+public class WriteBehindUnconfirmedTransactionsDao implements UnconfirmedTransactionsDao {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteBehindUnconfirmedTransactionsDao.class);
+
+	public static final int DEFAULT_MAX_PENDING_OPERATIONS = 1000;
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000 * 5; // Five seconds
+
+	private static final byte SAVE_OPERATION = 1;
+	private static final byte DELETE_OPERATION = 2;
+
+	private UnconfirmedTransactionsDao unconfirmedTransactionsDao;
+	private Path journalFile;
+	private int maxPendingOperations;
+	private Map<ByteArrayKey, PendingOperation> pendingOperations = new LinkedHashMap<>(); // By transaction ID, in order
+	private DataOutputStream journal;
+	private Timer timer = new Timer(true);
+
+	public WriteBehindUnconfirmedTransactionsDao(UnconfirmedTransactionsDao unconfirmedTransactionsDao, Path journalFile) {
+		this(unconfirmedTransactionsDao, journalFile, DEFAULT_MAX_PENDING_OPERATIONS, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	public WriteBehindUnconfirmedTransactionsDao(UnconfirmedTransactionsDao unconfirmedTransactionsDao, Path journalFile, int maxPendingOperations,
+			long flushInterval) {
+		if (maxPendingOperations < 1 || flushInterval < 1) {
+			throw new IllegalArgumentException("The maximum pending operations and the flush interval must be positive");
+		}
+		this.unconfirmedTransactionsDao = unconfirmedTransactionsDao;
+		this.journalFile = journalFile;
+		this.maxPendingOperations = maxPendingOperations;
+
+		replayJournal();
+		openJournal();
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (RuntimeException e) {
+					log.error("Could not flush the unconfirmed transactions", e);
+				}
+			}
+		}, flushInterval, flushInterval);
+	}
+
+	/**
+	 * Flushes the pending operations before reading, so the other DAO is up to
+	 * date.
+	 *
+	 */
+	@Override
+	public synchronized List<PoolTransaction> findAll() {
+		flush();
+		return unconfirmedTransactionsDao.findAll();
+	}
+
+	@Override
+	public synchronized void save(PoolTransaction poolTransaction) {
+		addOperation(SAVE_OPERATION, poolTransaction, true);
+		flushIfFull();
+	}
+
+	@Override
+	public synchronized void save(List<PoolTransaction> poolTransactions) {
+		for (PoolTransaction poolTransaction : poolTransactions) {
+			addOperation(SAVE_OPERATION, poolTransaction, true);
+		}
+		flushIfFull();
+	}
+
+	/**
+	 * Deletes the given pool transaction once flushed. Always returns true, as
+	 * whether the other DAO has it is not known yet.
+	 *
+	 */
+	@Override
+	public synchronized boolean delete(PoolTransaction poolTransaction) {
+		addOperation(DELETE_OPERATION, poolTransaction, true);
+		flushIfFull();
+		return true;
+	}
+
+	/**
+	 * Deletes the given pool transactions once flushed. Returns their count, as
+	 * how many of them the other DAO has is not known yet.
+	 *
+	 */
+	@Override
+	public synchronized int delete(List<PoolTransaction> poolTransactions) {
+		for (PoolTransaction poolTransaction : poolTransactions) {
+			addOperation(DELETE_OPERATION, poolTransaction, true);
+		}
+		flushIfFull();
+		return poolTransactions.size();
+	}
+
+	private void flushIfFull() {
+		if (pendingOperations.size() >= maxPendingOperations) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the pending operations to the other DAO in one batch of saves and one
+	 * of deletes, then clears the journal.
+	 *
+	 */
+	public synchronized void flush() {
+		if (pendingOperations.isEmpty()) {
+			return;
+		}
+
+		writePendingOperations();
+		clearJournal();
+	}
+
+	private void writePendingOperations() {
+		List<PoolTransaction> savedTransactions = new ArrayList<>();
+		List<PoolTransaction> deletedTransactions = new ArrayList<>();
+		for (PendingOperation pendingOperation : pendingOperations.values()) {
+			if (pendingOperation.type == SAVE_OPERATION) {
+				savedTransactions.add(pendingOperation.poolTransaction);
+			} else {
+				deletedTransactions.add(pendingOperation.poolTransaction);
+			}
+		}
+		if (!deletedTransactions.isEmpty()) {
+			unconfirmedTransactionsDao.delete(deletedTransactions);
+		}
+		if (!savedTransactions.isEmpty()) {
+			unconfirmedTransactionsDao.save(savedTransactions);
+		}
+		pendingOperations.clear();
+		log.debug("Flushed {} saved and {} deleted unconfirmed transactions", savedTransactions.size(), deletedTransactions.size());
+	}
+
+	/**
+	 * Flushes the pending operations and stops flushing periodically.
+	 *
+	 */
+	public synchronized void close() {
+		timer.cancel();
+		flush();
+		try {
+			journal.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not close the unconfirmed transactions journal", e);
+		}
+	}
+
+	/**
+	 * Opens the journal emptied.
+	 *
+	 */
+	private void openJournal() {
+		try {
+			journal = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open the unconfirmed transactions journal", e);
+		}
+	}
+
+	private void clearJournal() {
+		try {
+			journal.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not close the unconfirmed transactions journal", e);
+		}
+		openJournal();
+	}
+
+	/**
+	 * Appends the given operation to the journal: its type, when the transaction
+	 * was added, whether it is owned, and the transaction data.
+	 *
+	 */
+	private void writeToJournal(byte type, PoolTransaction poolTransaction) {
+		byte[] transactionData = poolTransaction.getTransaction().getCachedTransactionData();
+		try {
+			journal.writeByte(type);
+			journal.writeLong(poolTransaction.getAddedOn().getTime());
+			journal.writeBoolean(poolTransaction.isOwned());
+			journal.writeInt(transactionData.length);
+			journal.write(transactionData);
+			journal.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write to the unconfirmed transactions journal", e);
+		}
+	}
+
+	/**
+	 * Replays the operations left in the journal to the other DAO, before the
+	 * journal is emptied. A partly written last operation is ignored.
+	 *
+	 */
+	private void replayJournal() {
+		if (!Files.exists(journalFile)) {
+			return;
+		}
+
+		int replayedOperations = 0;
+		try (InputStream inputStream = Files.newInputStream(journalFile)) {
+			DataInputStream journalInput = new DataInputStream(new BufferedInputStream(inputStream));
+			while (true) {
+				byte type;
+				PoolTransaction poolTransaction;
+				try {
+					type = journalInput.readByte();
+					Date addedOn = new Date(journalInput.readLong());
+					boolean owned = journalInput.readBoolean();
+					byte[] transactionData = new byte[journalInput.readInt()];
+					journalInput.readFully(transactionData);
+					poolTransaction = new PoolTransaction(Transaction.buildTransaction(transactionData), addedOn, owned);
+				} catch (EOFException e) {
+					break;
+				}
+				addOperation(type, poolTransaction, false);
+				replayedOperations++;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read the unconfirmed transactions journal", e);
+		}
+		if (replayedOperations > 0) {
+			log.info("Replayed {} unflushed operations on unconfirmed transactions", replayedOperations);
+			writePendingOperations();
+		}
+	}
+
+	/**
+	 * Adds the given operation to the pending ones and, if asked for, to the
+	 * journal. It replaces a pending operation on the same transaction; a delete
+	 * cancels a pending save of a transaction the other DAO has never seen.
+	 *
+	 */
+	private void addOperation(byte type, PoolTransaction poolTransaction, boolean journaled) {
+		ByteArrayKey id = new ByteArrayKey(poolTransaction.getTransaction().getId());
+		PendingOperation pendingOperation = pendingOperations.remove(id);
+		// Whether the other DAO may have had the transaction before these operations
+		boolean flushed = pendingOperation == null || pendingOperation.flushed;
+		if (type == SAVE_OPERATION || flushed) {
+			pendingOperations.put(id, new PendingOperation(type, poolTransaction, flushed));
+		}
+		if (journaled) {
+			writeToJournal(type, poolTransaction);
+		}
+	}
+
+	/**
+	 * A save or delete not written to the other DAO yet.
+	 *
+	 */
+	private static class PendingOperation {
+
+		private byte type;
+		private PoolTransaction poolTransaction;
+		private boolean flushed; // Whether the other DAO may have had the transaction before this operation
+
+		private PendingOperation(byte type, PoolTransaction poolTransaction, boolean flushed) {
+			this.type = type;
+			this.poolTransaction = poolTransaction;
+			this.flushed = flushed;
+		}
+	}
+}
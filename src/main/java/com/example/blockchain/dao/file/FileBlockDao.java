@@ -0,0 +1,416 @@
+package com.example.blockchain.dao.file;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.example.blockchain.dao.BlockDao;
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.GenesisBlock;
+import com.example.blockchain.domain.block.builder.BlockBuilderV1;
+import com.example.blockchain.domain.chain.ChainItem;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.util.HexStringUtil;
+
+/**
+ * A block DAO which keeps the blocks in a directory of flat files. Blocks are
+ * serialized with their transactions and appended to the current block file,
+ * which is rolled once it would exceed its maximum size; a block is never
+ * rewritten.
+ *
+ * Two memory-mapped files index the blocks: a hash index from the hash of each
+ * block to its location (file, offset and length), height, chainwork and
+ * whether it is a tip, and a height index holding the hash of the active block
+ * at each height, preceded by the height of the active tip. The block files are
+ * read through read-only mappings, remapped as the current file grows, so
+ * reading a block copies its record out of the page cache once and decodes it
+ * with the block builder in use; reading a header copies the header only.
+ *
+ * A block is appended before it is indexed, so a crash leaves at most an
+ * unindexed record at the end of a block file. The genesis block is not stored.
+ *
+ */
+public class FileBlockDao implements BlockDao {
+
+	public static final int DEFAULT_MAX_BLOCK_FILE_SIZE = 128 * 1024 * 1024; // In bytes
+	public static final int DEFAULT_EXPECTED_NUMBER_OF_BLOCKS = 1 << 16;
+
+	private static final String BLOCK_FILE_NAME_FORMAT = "blk%05d.dat";
+	private static final String HASH_INDEX_FILE_NAME = "blocks.idx";
+	private static final String HEIGHT_INDEX_FILE_NAME = "heights.idx";
+
+	private static final int HASH_SIZE = 32; // In bytes
+	private static final int PREVIOUS_BLOCK_POSITION = 1; // In the serialized block, after the version
+
+	// The value of the hash index: the file number, offset and length of the
+	// block, its height, its chainwork, then its flags
+	private static final int VALUE_FILE_NUMBER_POSITION = 0;
+	private static final int VALUE_OFFSET_POSITION = 4;
+	private static final int VALUE_LENGTH_POSITION = 8;
+	private static final int VALUE_HEIGHT_POSITION = 12;
+	private static final int VALUE_CHAIN_WORK_POSITION = 16;
+	private static final int VALUE_FLAGS_POSITION = 24;
+	private static final int VALUE_SIZE = 25;
+	private static final byte TIP = 1;
+
+	private static final int HEIGHT_INDEX_HEADER_SIZE = 4; // The height of the active tip
+
+	private Path directory;
+	private int maxBlockFileSize;
+	private MappedHashIndex hashIndex;
+	private FileChannel heightIndexChannel;
+	private MappedByteBuffer heightIndex;
+	private List<MappedByteBuffer> blockFileMappings = new ArrayList<>(); // By file number; null until a block of the file is read
+	private FileChannel currentBlockFileChannel; // The block file appended to
+	private int currentBlockFileNumber;
+	private int currentBlockFileSize;
+	private FileTransactionDao transactionDao; // Indexes the transactions of the appended blocks, if any
+
+	public FileBlockDao(Path directory) {
+		this(directory, DEFAULT_MAX_BLOCK_FILE_SIZE, DEFAULT_EXPECTED_NUMBER_OF_BLOCKS);
+	}
+
+	/**
+	 * Opens the blocks in the given directory, or starts an empty store there.
+	 *
+	 */
+	public FileBlockDao(Path directory, int maxBlockFileSize, int expectedNumberOfBlocks) {
+		if (maxBlockFileSize < 1) {
+			throw new IllegalArgumentException("The maximum block file size must be positive");
+		}
+		this.directory = directory;
+		this.maxBlockFileSize = maxBlockFileSize;
+		try {
+			Files.createDirectories(directory);
+			this.hashIndex = new MappedHashIndex(directory.resolve(HASH_INDEX_FILE_NAME), VALUE_SIZE, expectedNumberOfBlocks * 2);
+
+			this.heightIndexChannel = FileChannel.open(directory.resolve(HEIGHT_INDEX_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			boolean newHeightIndex = heightIndexChannel.size() == 0;
+			this.heightIndex = heightIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+					Math.max(heightIndexChannel.size(), HEIGHT_INDEX_HEADER_SIZE + (long) expectedNumberOfBlocks * HASH_SIZE));
+			if (newHeightIndex) {
+				heightIndex.putInt(0, 0);
+				putActiveBlockHash(0, GenesisBlock.getInstance().getHash());
+			}
+
+			while (Files.exists(getBlockFile(currentBlockFileNumber + 1))) {
+				currentBlockFileNumber++;
+			}
+			for (int i = 0; i <= currentBlockFileNumber; i++) {
+				blockFileMappings.add(null);
+			}
+			openCurrentBlockFile();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open the blocks in " + directory, e);
+		}
+	}
+
+	@Override
+	public synchronized int getHeight() {
+		return heightIndex.getInt(0);
+	}
+
+	/**
+	 * Gets the tips at or above the given height, with their transactions if they
+	 * are at or above the given height with transactions. The hash index is
+	 * scanned.
+	 *
+	 */
+	@Override
+	public synchronized List<ChainItem> getTips(int minHeight, int minHeightWithTransactions) {
+		List<byte[]> tipHashes = new ArrayList<>();
+		hashIndex.forEach((hash, value) -> {
+			ByteBuffer location = ByteBuffer.wrap(value);
+			if ((location.get(VALUE_FLAGS_POSITION) & TIP) != 0 && location.getInt(VALUE_HEIGHT_POSITION) >= minHeight) {
+				tipHashes.add(hash);
+			}
+		});
+		List<ChainItem> tips = new ArrayList<>(tipHashes.size());
+		for (byte[] tipHash : tipHashes) {
+			ByteBuffer location = ByteBuffer.wrap(hashIndex.get(tipHash));
+			tips.add(buildChainItem(location, location.getInt(VALUE_HEIGHT_POSITION) >= minHeightWithTransactions));
+		}
+		return tips;
+	}
+
+	@Override
+	public synchronized Block findBlock(byte[] blockHash, boolean includeTransactions) {
+		byte[] value = hashIndex.get(blockHash);
+		if (value == null) {
+			return null;
+		}
+		return readBlock(ByteBuffer.wrap(value), includeTransactions);
+	}
+
+	@Override
+	public synchronized ChainItem findChainItem(byte[] blockHash, boolean includeTransactions) {
+		byte[] value = hashIndex.get(blockHash);
+		if (value == null) {
+			return null;
+		}
+		return buildChainItem(ByteBuffer.wrap(value), includeTransactions);
+	}
+
+	/**
+	 * Loads the data of the given block, which reads it through this DAO.
+	 *
+	 */
+	@Override
+	public void load(Block block, boolean includeTransactions) {
+		block.load(includeTransactions);
+	}
+
+	@Override
+	public synchronized ChainItem getActiveChainItem(int height) {
+		if (height < 0 || height > getHeight()) {
+			return null;
+		}
+		return findChainItem(getActiveBlockHash(height), false);
+	}
+
+	@Override
+	public synchronized Transaction[] findBlockTransactions(Block block) {
+		Block blockWithTransactions = findBlock(block.getHash(), true);
+		if (blockWithTransactions == null) {
+			return null;
+		}
+		return blockWithTransactions.getTransactions();
+	}
+
+	/**
+	 * Appends the given block to the current block file and indexes it as a tip,
+	 * replacing the previous block as a tip. If the height is updated, the new
+	 * block is the active tip: the height index is rewritten from its height down
+	 * to the first block it shares with the previous active branch.
+	 *
+	 */
+	@Override
+	public synchronized void saveNewChainItem(ChainItem newChainItem, ChainItem previousChainItem, boolean updateHeight) {
+		Block block = newChainItem.getBlock();
+		byte[] blockHash = block.getHash();
+		if (hashIndex.get(blockHash) != null) {
+			return;
+		}
+
+		byte[] value = appendBlock(block.serialize(true));
+		ByteBuffer location = ByteBuffer.wrap(value);
+		location.putInt(VALUE_HEIGHT_POSITION, newChainItem.getHeight());
+		location.putDouble(VALUE_CHAIN_WORK_POSITION, newChainItem.getChainWork());
+		location.put(VALUE_FLAGS_POSITION, TIP);
+		hashIndex.put(blockHash, value);
+		if (transactionDao != null) {
+			Transaction[] transactions = block.getTransactions();
+			int firstTransactionOffset = location.getInt(VALUE_OFFSET_POSITION) + BlockBuilderV1.BLOCK_HEADER_SIZE
+					+ HexStringUtil.getSizeOfVarInt(transactions.length);
+			transactionDao.indexTransactions(transactions, location.getInt(VALUE_FILE_NUMBER_POSITION), firstTransactionOffset);
+		}
+
+		if (previousChainItem != null) {
+			byte[] previousBlockHash = previousChainItem.getBlock().getHash();
+			byte[] previousValue = hashIndex.get(previousBlockHash);
+			if (previousValue != null && (previousValue[VALUE_FLAGS_POSITION] & TIP) != 0) {
+				previousValue[VALUE_FLAGS_POSITION] &= ~TIP;
+				hashIndex.put(previousBlockHash, previousValue);
+			}
+		}
+
+		if (updateHeight) {
+			updateActiveBranch(blockHash, newChainItem.getHeight());
+		}
+	}
+
+	/**
+	 * Sets the transaction DAO which indexes the transactions of the blocks
+	 * appended from now on.
+	 *
+	 */
+	synchronized void setTransactionDao(FileTransactionDao transactionDao) {
+		this.transactionDao = transactionDao;
+	}
+
+	/**
+	 * Writes the changes to the index files, and closes the files.
+	 *
+	 */
+	public synchronized void close() {
+		try {
+			hashIndex.close();
+			heightIndex.force();
+			heightIndexChannel.close();
+			currentBlockFileChannel.force(false);
+			currentBlockFileChannel.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not close the blocks in " + directory, e);
+		}
+	}
+
+	/**
+	 * Rewrites the height index for the given new active tip, walking back until a
+	 * block which is already active at its height.
+	 *
+	 */
+	private void updateActiveBranch(byte[] tipHash, int tipHeight) {
+		int activeHeight = getHeight();
+		ensureHeightIndexCapacity(tipHeight);
+		byte[] blockHash = tipHash;
+		for (int height = tipHeight; height > 0; height--) {
+			if (height <= activeHeight && Arrays.equals(getActiveBlockHash(height), blockHash)) {
+				break;
+			}
+			putActiveBlockHash(height, blockHash);
+			byte[] value = hashIndex.get(blockHash);
+			if (value == null) {
+				throw new IllegalStateException("The block at height " + height + " of the active branch is not stored");
+			}
+			blockHash = readPreviousBlockHash(ByteBuffer.wrap(value));
+		}
+		heightIndex.putInt(0, tipHeight);
+	}
+
+	private byte[] getActiveBlockHash(int height) {
+		byte[] blockHash = new byte[HASH_SIZE];
+		ByteBuffer entry = heightIndex.duplicate();
+		((Buffer) entry).position(HEIGHT_INDEX_HEADER_SIZE + height * HASH_SIZE);
+		entry.get(blockHash);
+		return blockHash;
+	}
+
+	private void putActiveBlockHash(int height, byte[] blockHash) {
+		ByteBuffer entry = heightIndex.duplicate();
+		((Buffer) entry).position(HEIGHT_INDEX_HEADER_SIZE + height * HASH_SIZE);
+		entry.put(blockHash);
+	}
+
+	/**
+	 * Remaps the height index twice as large if it cannot hold the given height.
+	 *
+	 */
+	private void ensureHeightIndexCapacity(int height) {
+		long requiredSize = HEIGHT_INDEX_HEADER_SIZE + (height + 1L) * HASH_SIZE;
+		if (requiredSize <= heightIndex.capacity()) {
+			return;
+		}
+		long newSize = Math.max(requiredSize, 2L * heightIndex.capacity());
+		if (newSize > Integer.MAX_VALUE) {
+			throw new IllegalStateException("The height index cannot hold the height " + height);
+		}
+		try {
+			heightIndex.force();
+			heightIndex = heightIndexChannel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not grow the height index in " + directory, e);
+		}
+	}
+
+	/**
+	 * Appends the given block data to the current block file, rolling it first if
+	 * it would exceed its maximum size. Returns an index value holding the
+	 * location of the data.
+	 *
+	 */
+	private byte[] appendBlock(byte[] data) {
+		try {
+			if (currentBlockFileSize > 0 && (long) currentBlockFileSize + data.length > maxBlockFileSize) {
+				currentBlockFileChannel.force(false);
+				currentBlockFileChannel.close();
+				currentBlockFileNumber++;
+				blockFileMappings.add(null);
+				openCurrentBlockFile();
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			long position = currentBlockFileSize;
+			while (buffer.hasRemaining()) {
+				position += currentBlockFileChannel.write(buffer, position);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not append a block to " + getBlockFile(currentBlockFileNumber), e);
+		}
+
+		byte[] value = new byte[VALUE_SIZE];
+		ByteBuffer location = ByteBuffer.wrap(value);
+		location.putInt(VALUE_FILE_NUMBER_POSITION, currentBlockFileNumber);
+		location.putInt(VALUE_OFFSET_POSITION, currentBlockFileSize);
+		location.putInt(VALUE_LENGTH_POSITION, data.length);
+		currentBlockFileSize += data.length;
+		return value;
+	}
+
+	private void openCurrentBlockFile() throws IOException {
+		currentBlockFileChannel = FileChannel.open(getBlockFile(currentBlockFileNumber), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		long size = currentBlockFileChannel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("The block file " + getBlockFile(currentBlockFileNumber) + " is too large");
+		}
+		currentBlockFileSize = (int) size;
+	}
+
+	private Path getBlockFile(int fileNumber) {
+		return directory.resolve(String.format(BLOCK_FILE_NAME_FORMAT, fileNumber));
+	}
+
+	/**
+	 * Gets a read-only slice of the block file mapping over the record at the
+	 * given location, without copying it. The file is remapped if the mapping
+	 * predates the record.
+	 *
+	 */
+	private ByteBuffer sliceRecord(ByteBuffer location) {
+		return sliceRecord(location.getInt(VALUE_FILE_NUMBER_POSITION), location.getInt(VALUE_OFFSET_POSITION), location.getInt(VALUE_LENGTH_POSITION));
+	}
+
+	/**
+	 * Gets a read-only slice of the given block file over the given range, without
+	 * copying it.
+	 *
+	 */
+	synchronized ByteBuffer sliceRecord(int fileNumber, int offset, int length) {
+		MappedByteBuffer mapping = blockFileMappings.get(fileNumber);
+		if (mapping == null || mapping.capacity() < offset + length) {
+			try (FileChannel channel = FileChannel.open(getBlockFile(fileNumber), StandardOpenOption.READ)) {
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (IOException e) {
+				throw new RuntimeException("Could not map the block file " + getBlockFile(fileNumber), e);
+			}
+			blockFileMappings.set(fileNumber, mapping);
+		}
+		ByteBuffer record = mapping.duplicate();
+		((Buffer) record).position(offset);
+		((Buffer) record).limit(offset + length);
+		return record.slice();
+	}
+
+	/**
+	 * Reads the block at the given location; its header only, unless the
+	 * transactions are included.
+	 *
+	 */
+	private Block readBlock(ByteBuffer location, boolean includeTransactions) {
+		ByteBuffer record = sliceRecord(location);
+		byte[] data = new byte[includeTransactions ? record.remaining() : BlockBuilderV1.BLOCK_HEADER_SIZE];
+		record.get(data);
+		return Block.buildBlock(data, includeTransactions);
+	}
+
+	private byte[] readPreviousBlockHash(ByteBuffer location) {
+		ByteBuffer record = sliceRecord(location);
+		byte[] previousBlockHash = new byte[HASH_SIZE];
+		((Buffer) record).position(PREVIOUS_BLOCK_POSITION);
+		record.get(previousBlockHash);
+		return previousBlockHash;
+	}
+
+	private ChainItem buildChainItem(ByteBuffer location, boolean includeTransactions) {
+		return new ChainItem(readBlock(location, includeTransactions), location.getInt(VALUE_HEIGHT_POSITION),
+				location.getDouble(VALUE_CHAIN_WORK_POSITION));
+	}
+}
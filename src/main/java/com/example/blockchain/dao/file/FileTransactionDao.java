@@ -0,0 +1,173 @@
+package com.example.blockchain.dao.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.example.blockchain.dao.TransactionDao;
+import com.example.blockchain.domain.transaction.Transaction;
+
+/**
+ * A transaction DAO which stores no transaction data of its own: the
+ * transactions are read from the block files of a FileBlockDao. A
+ * memory-mapped hash index maps each transaction ID to the location of the
+ * transaction in a block file (file, offset and length) and whether the
+ * transaction is saved, i.e. in the active chain.
+ *
+ * Every transaction of a block appended by the block DAO is indexed as not
+ * saved; saving and deleting then only flip that flag, so a transaction saved
+ * again after a reorg keeps its location. The index is written to its file once
+ * per save or delete of a batch, which the chain makes once per block.
+ *
+ * The DAO must be created before the blocks whose transactions it is to find
+ * are saved by the block DAO.
+ *
+ */
+public class FileTransactionDao implements TransactionDao {
+
+	public static final int DEFAULT_EXPECTED_NUMBER_OF_TRANSACTIONS = 1 << 20;
+
+	private static final String INDEX_FILE_NAME = "transactions.idx";
+
+	// The value of the index: the file number, offset and length of the
+	// transaction, then its flags
+	private static final int VALUE_FILE_NUMBER_POSITION = 0;
+	private static final int VALUE_OFFSET_POSITION = 4;
+	private static final int VALUE_LENGTH_POSITION = 8;
+	private static final int VALUE_FLAGS_POSITION = 12;
+	private static final int VALUE_SIZE = 13;
+	private static final byte SAVED = 1;
+
+	private FileBlockDao blockDao;
+	private MappedHashIndex index;
+
+	public FileTransactionDao(Path directory, FileBlockDao blockDao) {
+		this(directory, blockDao, DEFAULT_EXPECTED_NUMBER_OF_TRANSACTIONS);
+	}
+
+	/**
+	 * Opens the index in the given directory, sized so that the given number of
+	 * transactions does not make it grow, and indexes the blocks which the given
+	 * block DAO appends from now on.
+	 *
+	 */
+	public FileTransactionDao(Path directory, FileBlockDao blockDao, int expectedNumberOfTransactions) {
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not create the directory " + directory, e);
+		}
+		this.blockDao = blockDao;
+		this.index = new MappedHashIndex(directory.resolve(INDEX_FILE_NAME), VALUE_SIZE, expectedNumberOfTransactions * 2);
+		blockDao.setTransactionDao(this);
+	}
+
+	/**
+	 * Finds the saved transaction with the given ID: one lookup in the index, then
+	 * one read of its data from the block file.
+	 *
+	 */
+	@Override
+	public Transaction find(byte[] txId) {
+		byte[] value;
+		synchronized (this) {
+			value = index.get(txId);
+		}
+		if (value == null || (value[VALUE_FLAGS_POSITION] & SAVED) == 0) {
+			return null;
+		}
+		ByteBuffer location = ByteBuffer.wrap(value);
+		ByteBuffer record = blockDao.sliceRecord(location.getInt(VALUE_FILE_NUMBER_POSITION), location.getInt(VALUE_OFFSET_POSITION),
+				location.getInt(VALUE_LENGTH_POSITION));
+		byte[] data = new byte[record.remaining()];
+		record.get(data);
+		return Transaction.buildTransaction(data);
+	}
+
+	@Override
+	public void load(Transaction tx) {
+		tx.load();
+	}
+
+	@Override
+	public synchronized void save(Transaction transaction) {
+		setSaved(transaction, true);
+		index.force();
+	}
+
+	@Override
+	public synchronized void save(Transaction[] transactions) {
+		for (Transaction transaction : transactions) {
+			setSaved(transaction, true);
+		}
+		index.force();
+	}
+
+	@Override
+	public synchronized boolean delete(Transaction transaction) {
+		boolean deleted = setSaved(transaction, false);
+		index.force();
+		return deleted;
+	}
+
+	@Override
+	public synchronized int delete(Transaction[] transactions) {
+		int count = 0;
+		for (Transaction transaction : transactions) {
+			if (setSaved(transaction, false)) {
+				count++;
+			}
+		}
+		index.force();
+		return count;
+	}
+
+	public synchronized void close() {
+		index.close();
+	}
+
+	/**
+	 * Indexes the given transactions of a block as not saved, given the location
+	 * of the first one; they follow each other in the block file. A transaction
+	 * already indexed (e.g. in a block of another branch) keeps its entry.
+	 *
+	 */
+	synchronized void indexTransactions(Transaction[] transactions, int fileNumber, int firstTransactionOffset) {
+		int offset = firstTransactionOffset;
+		for (Transaction transaction : transactions) {
+			int size = transaction.getSize();
+			if (index.get(transaction.getId()) == null) {
+				byte[] value = new byte[VALUE_SIZE];
+				ByteBuffer location = ByteBuffer.wrap(value);
+				location.putInt(VALUE_FILE_NUMBER_POSITION, fileNumber);
+				location.putInt(VALUE_OFFSET_POSITION, offset);
+				location.putInt(VALUE_LENGTH_POSITION, size);
+				index.put(transaction.getId(), value);
+			}
+			offset += size;
+		}
+	}
+
+	/**
+	 * Sets whether the given transaction is saved. Returns true if that changed
+	 * it.
+	 *
+	 */
+	private boolean setSaved(Transaction transaction, boolean saved) {
+		byte[] value = index.get(transaction.getId());
+		if (value == null) {
+			if (saved) {
+				throw new IllegalStateException("The transaction is not in any block stored by the block DAO");
+			}
+			return false;
+		}
+		boolean wasSaved = (value[VALUE_FLAGS_POSITION] & SAVED) != 0;
+		if (wasSaved == saved) {
+			return false;
+		}
+		value[VALUE_FLAGS_POSITION] = saved ? SAVED : 0;
+		index.put(transaction.getId(), value);
+		return true;
+	}
+}
@@ -0,0 +1,246 @@
+package com.example.blockchain.dao.file;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * A hash table in a memory-mapped file, from 32-byte keys (block hashes or
+ * transaction IDs) to values of a fixed size. Entries are never removed, so the
+ * table uses plain linear probing. Lookups read the mapping in place; only the
+ * value found is copied out.
+ *
+ * The file starts with a header (the number of slots, the number of entries and
+ * the value size) followed by the slots, each being a used flag, the key and the
+ * value. Once the table is three quarters full, it is rehashed into a file twice
+ * as large which then replaces the file.
+ *
+ * An instance is not thread safe.
+ *
+ */
+class MappedHashIndex {
+
+	static final int KEY_SIZE = 32; // In bytes
+
+	private static final int HEADER_SIZE = 12; // In bytes
+	private static final int NUMBER_OF_SLOTS_POSITION = 0;
+	private static final int SIZE_POSITION = 4;
+	private static final int VALUE_SIZE_POSITION = 8;
+	private static final int SLOT_KEY_POSITION = 1;
+	private static final int SLOT_VALUE_POSITION = SLOT_KEY_POSITION + KEY_SIZE;
+	private static final byte USED_SLOT = 1;
+	private static final float MAX_LOAD_FACTOR = 0.75f;
+	private static final int MIN_NUMBER_OF_SLOTS = 16;
+
+	private Path file;
+	private int valueSize;
+	private int slotSize;
+	private FileChannel fileChannel;
+	private MappedByteBuffer mapping;
+	private int numberOfSlots;
+	private int size;
+
+	/**
+	 * Opens the index in the given file, or creates it with the given number of
+	 * slots (rounded up to a power of two) if the file is empty.
+	 *
+	 */
+	MappedHashIndex(Path file, int valueSize, int initialNumberOfSlots) {
+		this.file = file;
+		this.valueSize = valueSize;
+		this.slotSize = SLOT_VALUE_POSITION + valueSize;
+		try {
+			this.fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			if (fileChannel.size() == 0) {
+				int numberOfSlots = Math.max(MIN_NUMBER_OF_SLOTS, Integer.highestOneBit(Math.max(1, initialNumberOfSlots - 1)) << 1);
+				this.mapping = createTable(fileChannel, numberOfSlots);
+			} else {
+				this.mapping = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileChannel.size());
+				if (mapping.getInt(VALUE_SIZE_POSITION) != valueSize) {
+					throw new IllegalStateException("The index " + file + " has values of " + mapping.getInt(VALUE_SIZE_POSITION) + " bytes, not " + valueSize);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open the index " + file, e);
+		}
+		this.numberOfSlots = mapping.getInt(NUMBER_OF_SLOTS_POSITION);
+		this.size = mapping.getInt(SIZE_POSITION);
+	}
+
+	/**
+	 * Gets a copy of the value of the given key, or null if the key is absent.
+	 *
+	 */
+	byte[] get(byte[] key) {
+		int position = findSlotPosition(mapping, numberOfSlots, key);
+		if (mapping.get(position) != USED_SLOT) {
+			return null;
+		}
+		byte[] value = new byte[valueSize];
+		ByteBuffer slot = mapping.duplicate();
+		((Buffer) slot).position(position + SLOT_VALUE_POSITION);
+		slot.get(value);
+		return value;
+	}
+
+	/**
+	 * Puts the given value for the given key, replacing its value if the key is
+	 * present.
+	 *
+	 */
+	void put(byte[] key, byte[] value) {
+		if (key.length != KEY_SIZE || value.length != valueSize) {
+			throw new IllegalArgumentException("The key must have " + KEY_SIZE + " bytes and the value " + valueSize);
+		}
+		int position = findSlotPosition(mapping, numberOfSlots, key);
+		if (mapping.get(position) != USED_SLOT) {
+			if (size + 1 > numberOfSlots * MAX_LOAD_FACTOR) {
+				grow();
+				position = findSlotPosition(mapping, numberOfSlots, key);
+			}
+			writeSlot(mapping, position, key, value);
+			size++;
+			mapping.putInt(SIZE_POSITION, size);
+		} else {
+			ByteBuffer slot = mapping.duplicate();
+			((Buffer) slot).position(position + SLOT_VALUE_POSITION);
+			slot.put(value);
+		}
+	}
+
+	/**
+	 * Passes each key and value of the index to the given consumer, in no
+	 * particular order.
+	 *
+	 */
+	void forEach(BiConsumer<byte[], byte[]> consumer) {
+		ByteBuffer slots = mapping.duplicate();
+		for (int i = 0; i < numberOfSlots; i++) {
+			int position = HEADER_SIZE + i * slotSize;
+			if (slots.get(position) == USED_SLOT) {
+				byte[] key = new byte[KEY_SIZE];
+				byte[] value = new byte[valueSize];
+				((Buffer) slots).position(position + SLOT_KEY_POSITION);
+				slots.get(key);
+				slots.get(value);
+				consumer.accept(key, value);
+			}
+		}
+	}
+
+	/**
+	 * Writes the changes of the mapping to the file.
+	 *
+	 */
+	void force() {
+		mapping.force();
+	}
+
+	void close() {
+		try {
+			mapping.force();
+			fileChannel.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not close the index " + file, e);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the position of the slot of the given key, or of the empty slot where
+	 * it would be put.
+	 *
+	 */
+	private int findSlotPosition(ByteBuffer table, int numberOfSlots, byte[] key) {
+		int slotMask = numberOfSlots - 1;
+		int hash = Arrays.hashCode(key);
+		int slot = (hash ^ (hash >>> 16)) & slotMask;
+		while (true) {
+			int position = HEADER_SIZE + slot * slotSize;
+			if (table.get(position) != USED_SLOT || keyEquals(table, position + SLOT_KEY_POSITION, key)) {
+				return position;
+			}
+			slot = (slot + 1) & slotMask;
+		}
+	}
+
+	private static boolean keyEquals(ByteBuffer table, int position, byte[] key) {
+		for (int i = 0; i < KEY_SIZE; i++) {
+			if (table.get(position + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeSlot(ByteBuffer table, int position, byte[] key, byte[] value) {
+		ByteBuffer slot = table.duplicate();
+		((Buffer) slot).position(position);
+		slot.put(USED_SLOT);
+		slot.put(key);
+		slot.put(value);
+	}
+
+	/**
+	 * Maps a table with the given number of slots from the given empty file.
+	 *
+	 */
+	private MappedByteBuffer createTable(FileChannel channel, int numberOfSlots) throws IOException {
+		long tableSize = HEADER_SIZE + (long) numberOfSlots * slotSize;
+		if (tableSize > Integer.MAX_VALUE) {
+			throw new IllegalStateException("The index " + file + " cannot have more than " + size + " entries");
+		}
+		MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, tableSize);
+		table.putInt(NUMBER_OF_SLOTS_POSITION, numberOfSlots);
+		table.putInt(SIZE_POSITION, 0);
+		table.putInt(VALUE_SIZE_POSITION, valueSize);
+		return table;
+	}
+
+	/**
+	 * Rehashes the entries into a temporary file with twice the slots, which then
+	 * replaces the file.
+	 *
+	 */
+	private void grow() {
+		Path newFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.deleteIfExists(newFile);
+			FileChannel newFileChannel = FileChannel.open(newFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			int newNumberOfSlots = numberOfSlots << 1;
+			MappedByteBuffer newMapping = createTable(newFileChannel, newNumberOfSlots);
+			byte[] key = new byte[KEY_SIZE];
+			byte[] value = new byte[valueSize];
+			ByteBuffer slots = mapping.duplicate();
+			for (int i = 0; i < numberOfSlots; i++) {
+				int position = HEADER_SIZE + i * slotSize;
+				if (slots.get(position) == USED_SLOT) {
+					((Buffer) slots).position(position + SLOT_KEY_POSITION);
+					slots.get(key);
+					slots.get(value);
+					writeSlot(newMapping, findSlotPosition(newMapping, newNumberOfSlots, key), key, value);
+				}
+			}
+			newMapping.putInt(SIZE_POSITION, size);
+			newMapping.force();
+			fileChannel.close();
+			Files.move(newFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			this.fileChannel = newFileChannel;
+			this.mapping = newMapping;
+			this.numberOfSlots = newNumberOfSlots;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not grow the index " + file, e);
+		}
+	}
+}
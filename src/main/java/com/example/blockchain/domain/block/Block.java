@@ -50,7 +50,7 @@ public class Block {
 		this.headerLoaded = true;
 		this.transactionsLoaded = false;
 		this.cachedBlockHeader = blockBuilder.serializeBlockHeader(this);
-		setHash();
+		this.hash = buildBlockHash(cachedBlockHeader); // Hashes the header just serialized instead of serializing it again
 	}
 
 	public Block(short version, Block previousBlock, byte[] merkleRoot, Date time, Bits bits, long nonce, Transaction[] transactions) {
@@ -64,7 +64,7 @@ public class Block {
 		this.headerLoaded = true;
 		this.transactionsLoaded = true;
 		this.cachedBlockHeader = blockBuilder.serializeBlockHeader(this);
-		setHash();
+		this.hash = buildBlockHash(cachedBlockHeader); // Hashes the header just serialized instead of serializing it again
 	}
 
 	public Block(byte[] hash, short version, Block previousBlock, byte[] merkleRoot, Date time, Bits bits, long nonce) {
@@ -102,6 +102,22 @@ public class Block {
 		Block.blockDao = blockDao;
 	}
 
+	/**
+	 * Sets the BlockBuilder which builds, serializes and deserializes all blocks.
+	 *
+	 */
+	public static void setBlockBuilder(BlockBuilder blockBuilder) {
+		Block.blockBuilder = blockBuilder;
+	}
+
+	/**
+	 * Gets the BlockBuilder in use.
+	 *
+	 */
+	public static BlockBuilder getBlockBuilder() {
+		return blockBuilder;
+	}
+
 	/*
 	 * Creates a new block.
 	 * 
@@ -368,4 +384,8 @@ public class Block {
 		}
 		return transactions;
 	}
+
+	public boolean isTransactionsLoaded() {
+		return transactionsLoaded;
+	}
 }
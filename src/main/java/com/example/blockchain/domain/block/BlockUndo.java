@@ -0,0 +1,126 @@
+package com.example.blockchain.domain.block;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.utxo.UnspentTransactionOutput;
+import com.example.blockchain.util.ByteUtil;
+import com.example.blockchain.util.HexStringUtil;
+
+/**
+ * The undo data of a block: the outputs spent by each of its transactions,
+ * with their amounts and scriptPubKeys, as they were when the block was
+ * connected. Disconnecting the block restores them from this record alone,
+ * without loading the transactions which produced them.
+ *
+ * Serialized as a VarInt count of transactions, then for each transaction a
+ * VarInt count of spent outputs, each being the 32-byte transaction ID, the
+ * 1-byte output index, the 8-byte amount, a VarInt scriptPubKey size and the
+ * scriptPubKey.
+ *
+ */
+public class BlockUndo {
+
+	private static final int TRANSACTION_ID_SIZE = 32; // In bytes
+	private static final int OUTPUT_INDEX_SIZE = 1; // In bytes
+	private static final int AMOUNT_SIZE = 8; // In bytes
+
+	private UnspentTransactionOutput[][] spentOutputs; // By transaction, in the order of the block; none for the coinbase
+
+	public BlockUndo(UnspentTransactionOutput[][] spentOutputs) {
+		this.spentOutputs = spentOutputs;
+	}
+
+	/**
+	 * Creates the undo data of the given block from the outputs its transactions
+	 * consume.
+	 *
+	 */
+	public static BlockUndo create(Block block) {
+		Transaction[] transactions = block.getTransactions();
+		UnspentTransactionOutput[][] spentOutputs = new UnspentTransactionOutput[transactions.length][];
+		for (int i = 0; i < transactions.length; i++) {
+			spentOutputs[i] = transactions[i].getConsumedOutputs();
+		}
+		return new BlockUndo(spentOutputs);
+	}
+
+	/**
+	 * Serializes the undo data into one sequential record.
+	 *
+	 */
+	public byte[] serialize() {
+		int size = HexStringUtil.getSizeOfVarInt(spentOutputs.length);
+		for (UnspentTransactionOutput[] transactionSpentOutputs : spentOutputs) {
+			size += HexStringUtil.getSizeOfVarInt(transactionSpentOutputs.length);
+			for (UnspentTransactionOutput spentOutput : transactionSpentOutputs) {
+				int scriptPubKeySize = spentOutput.getScriptPubKey().length;
+				size += TRANSACTION_ID_SIZE + OUTPUT_INDEX_SIZE + AMOUNT_SIZE + HexStringUtil.getSizeOfVarInt(scriptPubKeySize) + scriptPubKeySize;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		HexStringUtil.putVarInt(buffer, spentOutputs.length);
+		for (UnspentTransactionOutput[] transactionSpentOutputs : spentOutputs) {
+			HexStringUtil.putVarInt(buffer, transactionSpentOutputs.length);
+			for (UnspentTransactionOutput spentOutput : transactionSpentOutputs) {
+				byte[] scriptPubKey = spentOutput.getScriptPubKey();
+				buffer.put(spentOutput.getTransaction().getId(), 0, TRANSACTION_ID_SIZE);
+				buffer.put((byte) spentOutput.getOutputIndex());
+				// Unsigned, as an amount may exceed Long.MAX_VALUE
+				buffer.put(ByteUtil.convertToByteArray(spentOutput.getAmount(), AMOUNT_SIZE));
+				HexStringUtil.putVarInt(buffer, scriptPubKey.length);
+				buffer.put(scriptPubKey);
+			}
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Deserializes undo data. The transactions of the spent outputs are not
+	 * loaded; the outputs carry their amounts and scriptPubKeys.
+	 *
+	 */
+	public static BlockUndo deserialize(byte[] data) {
+		int nextIndex = 0;
+		int numberOfTransactions = (int) HexStringUtil.getVarInt(data, nextIndex);
+		nextIndex += HexStringUtil.getLengthOfVarInt(data, nextIndex);
+		UnspentTransactionOutput[][] spentOutputs = new UnspentTransactionOutput[numberOfTransactions][];
+		for (int i = 0; i < numberOfTransactions; i++) {
+			int numberOfSpentOutputs = (int) HexStringUtil.getVarInt(data, nextIndex);
+			nextIndex += HexStringUtil.getLengthOfVarInt(data, nextIndex);
+			spentOutputs[i] = new UnspentTransactionOutput[numberOfSpentOutputs];
+			for (int j = 0; j < numberOfSpentOutputs; j++) {
+				byte[] txId = new byte[TRANSACTION_ID_SIZE];
+				System.arraycopy(data, nextIndex, txId, 0, TRANSACTION_ID_SIZE);
+				nextIndex += TRANSACTION_ID_SIZE;
+				int outputIndex = data[nextIndex] & 0xff;
+				nextIndex += OUTPUT_INDEX_SIZE;
+				BigInteger amount = new BigInteger(1, ByteUtil.getBytes(data, nextIndex, AMOUNT_SIZE));
+				nextIndex += AMOUNT_SIZE;
+				int scriptPubKeySize = (int) HexStringUtil.getVarInt(data, nextIndex);
+				nextIndex += HexStringUtil.getLengthOfVarInt(data, nextIndex);
+				byte[] scriptPubKey = new byte[scriptPubKeySize];
+				System.arraycopy(data, nextIndex, scriptPubKey, 0, scriptPubKeySize);
+				nextIndex += scriptPubKeySize;
+				spentOutputs[i][j] = new UnspentTransactionOutput(new Transaction(txId), outputIndex, amount, scriptPubKey);
+			}
+		}
+		return new BlockUndo(spentOutputs);
+	}
+
+	// GETTERS & SETTERS // -----------------------------------------
+
+	public int getNumberOfTransactions() {
+		return spentOutputs.length;
+	}
+
+	/**
+	 * Gets the outputs spent by the transaction at the given index of the block.
+	 *
+	 */
+	public UnspentTransactionOutput[] getSpentOutputs(int transactionIndex) {
+		return spentOutputs[transactionIndex];
+	}
+}
@@ -11,11 +11,11 @@ import com.example.blockchain.domain.block.GenesisBlock;
 import com.example.blockchain.domain.block.builder.validator.BlockBuilderV1Validator;
 import com.example.blockchain.domain.block.builder.validator.BuildBlockFormValidationResult;
 import com.example.blockchain.domain.block.builder.validator.InvalidBuildBlockFormException;
+import com.example.blockchain.domain.block.merkle.MerkleTree;
 import com.example.blockchain.domain.transaction.Transaction;
 import com.example.blockchain.domain.transaction.builder.TransactionBuildResult;
 import com.example.blockchain.util.ByteUtil;
 import com.example.blockchain.util.HexStringUtil;
-import com.example.blockchain.util.Sha256Util;
 
 public class BlockBuilderV1 implements BlockBuilder {
 
@@ -42,7 +42,7 @@ public class BlockBuilderV1 implements BlockBuilder {
 		// Builds the block
 		Block previousBlock = form.getPreviousBlock();
 		Transaction[] transactions = form.getTransactions();
-		byte[] merkleRoot = constructMerkleRoot(transactions);
+		byte[] merkleRoot = form.getMerkleTree() != null ? form.getMerkleTree().getRoot() : constructMerkleRoot(transactions);
 		Date time = form.getTime();
 		Bits bits = new Bits(form.getTarget());
 		long nonce = 0;
@@ -55,41 +55,7 @@ public class BlockBuilderV1 implements BlockBuilder {
 		for (int i = 0; i < transactions.length; i++) {
 			txIdsArray[i] = transactions[i].getId();
 		}
-		byte[] merkleRoot = mergeAndHashTrabsactionIds(txIdsArray);
-		return merkleRoot;
-	}
-
-	private byte[] mergeAndHashTrabsactionIds(byte[][] transactionIds) {
-		if (transactionIds.length == 1) {
-			return transactionIds[0];
-		} else {
-			int numOfIdHashes;
-			if (transactionIds.length % 2 == 0) {
-				numOfIdHashes = transactionIds.length / 2;
-			} else {
-				numOfIdHashes = transactionIds.length / 2 + 1;
-			}
-			byte[][] outputTxIds = new byte[numOfIdHashes][];
-			for (int i = 0; i < numOfIdHashes * 2; i += 2) {
-				if (transactionIds.length == (i + 1)) {
-					outputTxIds[i / 2] = transactionIds[i];
-				} else {
-					outputTxIds[i / 2] = mergeAndHashTrabsactionIds(transactionIds[i], transactionIds[i + 1]);
-				}
-			}
-			return mergeAndHashTrabsactionIds(outputTxIds);
-		}
-	}
-
-	private byte[] mergeAndHashTrabsactionIds(byte[] txId1, byte[] txId2) {
-		byte[] mergedIds = new byte[txId1.length + txId2.length];
-		for (int i = 0; i < txId1.length; i++) {
-			mergedIds[i] = txId1[i];
-		}
-		for (int i = 0; i < txId2.length; i++) {
-			mergedIds[txId1.length + i] = txId2[i];
-		}
-		return Sha256Util.doubleHash(mergedIds);
+		return MerkleTree.computeRoot(txIdsArray);
 	}
 
 	@Override
@@ -5,6 +5,7 @@ import java.util.Date;
 
 import com.example.blockchain.difficulty.Target;
 import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.merkle.MerkleTree;
 import com.example.blockchain.domain.transaction.Transaction;
 
 public class BuildBlockForm {
@@ -13,6 +14,7 @@ public class BuildBlockForm {
 	private Transaction[] transactions;
 	private Date time;
 	private BigInteger target;
+	private MerkleTree merkleTree; // Optional; the merkle tree of the transactions if already built
 
 	public BuildBlockForm() {
 
@@ -54,6 +56,11 @@ public class BuildBlockForm {
 		return this;
 	}
 
+	public BuildBlockForm merkleTree(MerkleTree merkleTree) {
+		this.merkleTree = merkleTree;
+		return this;
+	}
+
 	// GETTERS & SETTERS // -----------------------------------------
 
 	public Block getPreviousBlock() {
@@ -87,4 +94,12 @@ public class BuildBlockForm {
 	public void setTarget(BigInteger target) {
 		this.target = target;
 	}
+
+	public MerkleTree getMerkleTree() {
+		return merkleTree;
+	}
+
+	public void setMerkleTree(MerkleTree merkleTree) {
+		this.merkleTree = merkleTree;
+	}
 }
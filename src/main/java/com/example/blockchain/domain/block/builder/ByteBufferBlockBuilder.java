@@ -0,0 +1,213 @@
+package com.example.blockchain.domain.block.builder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.example.blockchain.domain.block.Bits;
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.GenesisBlock;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.builder.TransactionBuildResult;
+import com.example.blockchain.util.HexStringUtil;
+
+/**
+ * A block builder with the same wire format as BlockBuilderV1 whose codec works
+ * on ByteBuffers instead of intermediate arrays. Header fields are written to
+ * and read from the data in place, serializing a block copies the cached data
+ * of its transactions instead of serializing them again, and multiple blocks
+ * are written to one array. Transactions are deserialized by the transaction
+ * builder in use.
+ *
+ */
+public class ByteBufferBlockBuilder extends BlockBuilderV1 {
+
+	private static final int PREVIOUS_BLOCK_SIZE = 32; // In bytes
+	private static final int MERKLE_ROOT_SIZE = 32; // In bytes
+
+	/**
+	 * Serializes the header of the given block.
+	 *
+	 */
+	@Override
+	public byte[] serializeBlockHeader(Block block) {
+		byte[] data = new byte[BLOCK_HEADER_SIZE];
+		writeBlockHeader(block, ByteBuffer.wrap(data));
+		return data;
+	}
+
+	/**
+	 * Writes the header of the given block to the given buffer at its position.
+	 *
+	 */
+	private void writeBlockHeader(Block block, ByteBuffer buffer) {
+		buffer.put((byte) block.getVersion());
+		buffer.put(block.getPreviousBlock().getHash());
+		buffer.put(block.getMerkleRoot());
+		buffer.putInt((int) (block.getTime().getTime() / 1000));
+		buffer.put(block.getBits().getValue(), 0, BITS_SIZE);
+		buffer.putInt((int) block.getNonce());
+	}
+
+	/**
+	 * Writes the given block with its transactions to the given buffer at its
+	 * position.
+	 *
+	 */
+	private void writeBlock(Block block, ByteBuffer buffer) {
+		writeBlockHeader(block, buffer);
+		Transaction[] transactions = block.getTransactions();
+		HexStringUtil.putVarInt(buffer, transactions.length);
+		for (Transaction transaction : transactions) {
+			buffer.put(transaction.getCachedTransactionData());
+		}
+	}
+
+	/**
+	 * Serializes the given block.
+	 *
+	 */
+	@Override
+	public BlockSerializeResult serializeBlock(Block block) {
+		byte[] data = new byte[calculateBlockSize(block)];
+		writeBlock(block, ByteBuffer.wrap(data));
+		return new BlockSerializeResult(data, data.length);
+	}
+
+	@Override
+	public int calculateBlockSize(Block block) {
+		Transaction[] transactions = block.getTransactions();
+		int size = BLOCK_HEADER_SIZE + HexStringUtil.getSizeOfVarInt(transactions.length);
+		for (Transaction transaction : transactions) {
+			size += transaction.getSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Serializes the given list of blocks, preceded by their count.
+	 *
+	 */
+	@Override
+	public byte[] serializeMultipleBlocks(List<Block> blocks, boolean includeTransactions) {
+		int dataSize = HexStringUtil.getSizeOfVarInt(blocks.size());
+		for (Block block : blocks) {
+			dataSize += includeTransactions ? calculateBlockSize(block) : BLOCK_HEADER_SIZE;
+		}
+
+		byte[] data = new byte[dataSize];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		HexStringUtil.putVarInt(buffer, blocks.size());
+		for (Block block : blocks) {
+			if (includeTransactions) {
+				writeBlock(block, buffer);
+			} else {
+				writeBlockHeader(block, buffer);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Converts the given block header data to its object form starting with the
+	 * given index.
+	 *
+	 */
+	@Override
+	public BlockBuildResult deserializeBlockHeader(byte[] data, int dataStartIndex) {
+		return deserializeBlock(data, dataStartIndex, false);
+	}
+
+	/**
+	 * Converts the given block data to its object form starting with the given
+	 * index.
+	 *
+	 */
+	@Override
+	public BlockBuildResult deserializeBlock(byte[] data, int dataStartIndex) {
+		return deserializeBlock(data, dataStartIndex, true);
+	}
+
+	/**
+	 * Reads the header fields in place and, if asked for, the transactions; the
+	 * block is constructed once at the end.
+	 *
+	 */
+	private BlockBuildResult deserializeBlock(byte[] data, int dataStartIndex, boolean includeTransactions) {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		int nextIndex = dataStartIndex;
+
+		// Version
+		short version = (short) (buffer.get(nextIndex) & 0xff);
+		nextIndex += 1;
+
+		// Previous Block
+		Block previousBlock;
+		if (isGenesisBlockHash(data, nextIndex)) {
+			previousBlock = GenesisBlock.getInstance();
+		} else {
+			previousBlock = new Block(Arrays.copyOfRange(data, nextIndex, nextIndex + PREVIOUS_BLOCK_SIZE));
+		}
+		nextIndex += PREVIOUS_BLOCK_SIZE;
+
+		// Merkle Root
+		byte[] merkleRoot = Arrays.copyOfRange(data, nextIndex, nextIndex + MERKLE_ROOT_SIZE);
+		nextIndex += MERKLE_ROOT_SIZE;
+
+		// Time
+		Date time = new Date((buffer.getInt(nextIndex) & 0xffffffffL) * 1000);
+		nextIndex += 4;
+
+		// Bits
+		Bits bits = new Bits(Arrays.copyOfRange(data, nextIndex, nextIndex + BITS_SIZE));
+		nextIndex += BITS_SIZE;
+
+		// Nonce
+		long nonce = buffer.getInt(nextIndex) & 0xffffffffL;
+		nextIndex += 4;
+
+		if (!includeTransactions) {
+			return new BlockBuildResult(new Block(version, previousBlock, merkleRoot, time, bits, nonce), nextIndex);
+		}
+
+		// Transactions
+		int transactionsCount = (int) HexStringUtil.getVarInt(data, nextIndex);
+		nextIndex += HexStringUtil.getLengthOfVarInt(data, nextIndex);
+		Transaction[] transactions = new Transaction[transactionsCount];
+		for (int i = 0; i < transactionsCount; i++) {
+			TransactionBuildResult result = Transaction.buildTransaction(data, nextIndex);
+			transactions[i] = result.getTransaction();
+			nextIndex = result.getNextIndex();
+		}
+		return new BlockBuildResult(new Block(version, previousBlock, merkleRoot, time, bits, nonce, transactions), nextIndex);
+	}
+
+	private boolean isGenesisBlockHash(byte[] data, int index) {
+		byte[] genesisBlockHash = GenesisBlock.getInstance().getHash();
+		for (int i = 0; i < PREVIOUS_BLOCK_SIZE; i++) {
+			if (data[index + i] != genesisBlockHash[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts the given blocks data to its object form in a List.
+	 *
+	 */
+	@Override
+	public List<Block> deserializeMultipleBlocks(byte[] data) {
+		int blocksCount = (int) HexStringUtil.getVarInt(data, 0);
+		int nextIndex = HexStringUtil.getLengthOfVarInt(data, 0);
+		List<Block> blocks = new ArrayList<Block>(blocksCount);
+		for (int i = 0; i < blocksCount; i++) {
+			BlockBuildResult result = deserializeBlock(data, nextIndex);
+			blocks.add(result.getBlock());
+			nextIndex = result.getNextIndex();
+		}
+		return blocks;
+	}
+}
@@ -0,0 +1,156 @@
+package com.example.blockchain.domain.block.builder;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.util.ConvertUtil;
+
+/**
+ * Runs two block builders side by side for differential testing. Every call is
+ * answered by the primary builder; the codec calls are also made on the
+ * reference builder, and any difference between the two results is logged and
+ * thrown as an IllegalStateException.
+ *
+ */
+public class DifferentialBlockBuilder implements BlockBuilder {
+
+	private static final Logger log = LoggerFactory.getLogger(DifferentialBlockBuilder.class);
+
+	private BlockBuilder primaryBuilder;
+	private BlockBuilder referenceBuilder;
+
+	public DifferentialBlockBuilder(BlockBuilder primaryBuilder, BlockBuilder referenceBuilder) {
+		this.primaryBuilder = primaryBuilder;
+		this.referenceBuilder = referenceBuilder;
+	}
+
+	@Override
+	public Block buildBlock(BuildBlockForm buildBlockForm) {
+		Block block = primaryBuilder.buildBlock(buildBlockForm);
+		Block referenceBlock = referenceBuilder.buildBlock(buildBlockForm);
+		compareBlocks("buildBlock", block, referenceBlock);
+		return block;
+	}
+
+	@Override
+	public boolean validateBlock(Block block) {
+		return primaryBuilder.validateBlock(block);
+	}
+
+	@Override
+	public int calculateBlockHeaderSize(Block block) {
+		int size = primaryBuilder.calculateBlockHeaderSize(block);
+		int referenceSize = referenceBuilder.calculateBlockHeaderSize(block);
+		if (size != referenceSize) {
+			reportMismatch("calculateBlockHeaderSize", size, referenceSize);
+		}
+		return size;
+	}
+
+	@Override
+	public int calculateBlockSize(Block block) {
+		int size = primaryBuilder.calculateBlockSize(block);
+		int referenceSize = referenceBuilder.calculateBlockSize(block);
+		if (size != referenceSize) {
+			reportMismatch("calculateBlockSize", size, referenceSize);
+		}
+		return size;
+	}
+
+	@Override
+	public byte[] serializeBlockHeader(Block block) {
+		byte[] data = primaryBuilder.serializeBlockHeader(block);
+		compareData("serializeBlockHeader", data, referenceBuilder.serializeBlockHeader(block));
+		return data;
+	}
+
+	@Override
+	public BlockSerializeResult serializeBlock(Block block) {
+		BlockSerializeResult result = primaryBuilder.serializeBlock(block);
+		compareData("serializeBlock", result.getData(), referenceBuilder.serializeBlock(block).getData());
+		return result;
+	}
+
+	@Override
+	public byte[] serializeMultipleBlocks(List<Block> blocks, boolean includeTransactions) {
+		byte[] data = primaryBuilder.serializeMultipleBlocks(blocks, includeTransactions);
+		compareData("serializeMultipleBlocks", data, referenceBuilder.serializeMultipleBlocks(blocks, includeTransactions));
+		return data;
+	}
+
+	@Override
+	public Block deserializeBlockHeader(byte[] data) {
+		return deserializeBlockHeader(data, 0).getBlock();
+	}
+
+	@Override
+	public BlockBuildResult deserializeBlockHeader(byte[] data, int dataStartIndex) {
+		BlockBuildResult result = primaryBuilder.deserializeBlockHeader(data, dataStartIndex);
+		compareResults("deserializeBlockHeader", result, referenceBuilder.deserializeBlockHeader(data, dataStartIndex));
+		return result;
+	}
+
+	@Override
+	public Block deserializeBlock(byte[] data) {
+		return deserializeBlock(data, 0).getBlock();
+	}
+
+	@Override
+	public BlockBuildResult deserializeBlock(byte[] data, int dataStartIndex) {
+		BlockBuildResult result = primaryBuilder.deserializeBlock(data, dataStartIndex);
+		compareResults("deserializeBlock", result, referenceBuilder.deserializeBlock(data, dataStartIndex));
+		return result;
+	}
+
+	@Override
+	public List<Block> deserializeMultipleBlocks(byte[] data) {
+		List<Block> blocks = primaryBuilder.deserializeMultipleBlocks(data);
+		List<Block> referenceBlocks = referenceBuilder.deserializeMultipleBlocks(data);
+		if (blocks.size() != referenceBlocks.size()) {
+			reportMismatch("deserializeMultipleBlocks", blocks.size(), referenceBlocks.size());
+		}
+		for (int i = 0; i < blocks.size(); i++) {
+			compareBlocks("deserializeMultipleBlocks", blocks.get(i), referenceBlocks.get(i));
+		}
+		return blocks;
+	}
+
+	private void compareResults(String operation, BlockBuildResult result, BlockBuildResult referenceResult) {
+		compareBlocks(operation, result.getBlock(), referenceResult.getBlock());
+		if (result.getNextIndex() != referenceResult.getNextIndex()) {
+			reportMismatch(operation, result.getNextIndex(), referenceResult.getNextIndex());
+		}
+	}
+
+	/**
+	 * Compares two blocks by hash, which covers the header, and by the IDs of
+	 * their transactions if the primary block has them.
+	 *
+	 */
+	private void compareBlocks(String operation, Block block, Block referenceBlock) {
+		compareData(operation, block.getHash(), referenceBlock.getHash());
+		if (block.isTransactionsLoaded()) {
+			if (block.getTransactions().length != referenceBlock.getTransactions().length) {
+				reportMismatch(operation, block.getTransactions().length, referenceBlock.getTransactions().length);
+			}
+			for (int i = 0; i < block.getTransactions().length; i++) {
+				compareData(operation, block.getTransactions()[i].getId(), referenceBlock.getTransactions()[i].getId());
+			}
+		}
+	}
+
+	private void compareData(String operation, byte[] data, byte[] referenceData) {
+		if (!Arrays.equals(data, referenceData)) {
+			reportMismatch(operation, ConvertUtil.byteArrayToHexString(data), ConvertUtil.byteArrayToHexString(referenceData));
+		}
+	}
+
+	private void reportMismatch(String operation, Object result, Object referenceResult) {
+		log.error("Block builders disagree on {}: {} (primary) vs {} (reference)", operation, result, referenceResult);
+		throw new IllegalStateException("Block builders disagree on " + operation);
+	}
+}
@@ -1,10 +1,12 @@
 package com.example.blockchain.domain.block.builder.validator;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Date;
 
 import com.example.blockchain.domain.block.Block;
 import com.example.blockchain.domain.block.builder.BuildBlockForm;
+import com.example.blockchain.domain.block.merkle.MerkleTree;
 import com.example.blockchain.domain.transaction.Transaction;
 
 public class BlockBuilderV1Validator {
@@ -30,6 +32,11 @@ public class BlockBuilderV1Validator {
 			return result;
 		}
 
+		result = validateMerkleTree(buildBlockForm.getMerkleTree(), buildBlockForm.getTransactions());
+		if (result != BuildBlockFormValidationResult.SUCCESS) {
+			return result;
+		}
+
 		return BuildBlockFormValidationResult.SUCCESS;
 	}
 
@@ -75,4 +82,23 @@ public class BlockBuilderV1Validator {
 
 		return BuildBlockFormValidationResult.SUCCESS;
 	}
+
+	private BuildBlockFormValidationResult validateMerkleTree(MerkleTree merkleTree, Transaction[] transactions) {
+		// The merkle tree is optional
+		if (merkleTree == null) {
+			return BuildBlockFormValidationResult.SUCCESS;
+		}
+
+		// Validates the leaves of the merkle tree are the transaction IDs in order
+		if (merkleTree.getNumberOfLeaves() != transactions.length) {
+			return BuildBlockFormValidationResult.INVALID_MERKLE_TREE;
+		}
+		for (int i = 0; i < transactions.length; i++) {
+			if (!Arrays.equals(merkleTree.getLeaf(i), transactions[i].getId())) {
+				return BuildBlockFormValidationResult.INVALID_MERKLE_TREE;
+			}
+		}
+
+		return BuildBlockFormValidationResult.SUCCESS;
+	}
 }
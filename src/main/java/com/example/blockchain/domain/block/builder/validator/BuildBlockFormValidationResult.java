@@ -7,5 +7,6 @@ public enum BuildBlockFormValidationResult {
 	INVALID_PREVIOUS_BLOCK,
 	INVALID_TRANSACTIONS,
 	INVALID_TIME,
-	INVALID_TARGET;
+	INVALID_TARGET,
+	INVALID_MERKLE_TREE;
 }
@@ -0,0 +1,68 @@
+package com.example.blockchain.domain.block.merkle;
+
+import java.util.Arrays;
+
+import com.example.blockchain.util.Sha256Util;
+
+/**
+ * The proof that a leaf (e.g. a transaction ID) is included in a merkle tree:
+ * the siblings on the path from the leaf to the root, lowest first. Levels where
+ * the node on the path was promoted without a sibling are skipped. A light
+ * client holding only the block header can check the proof against the merkle
+ * root of the header.
+ *
+ */
+public class MerkleProof {
+
+	private int leafIndex;
+	private byte[][] siblings;
+	private boolean[] siblingsOnLeft;
+
+	MerkleProof(int leafIndex, byte[][] siblings, boolean[] siblingsOnLeft) {
+		this.leafIndex = leafIndex;
+		this.siblings = siblings;
+		this.siblingsOnLeft = siblingsOnLeft;
+	}
+
+	/**
+	 * Computes the root implied by the given leaf and this proof.
+	 *
+	 */
+	public byte[] computeRoot(byte[] leaf) {
+		byte[] pair = new byte[MerkleTree.NODE_SIZE * 2];
+		byte[] node = Arrays.copyOf(leaf, MerkleTree.NODE_SIZE);
+		for (int i = 0; i < siblings.length; i++) {
+			if (siblingsOnLeft[i]) {
+				System.arraycopy(siblings[i], 0, pair, 0, MerkleTree.NODE_SIZE);
+				System.arraycopy(node, 0, pair, MerkleTree.NODE_SIZE, MerkleTree.NODE_SIZE);
+			} else {
+				System.arraycopy(node, 0, pair, 0, MerkleTree.NODE_SIZE);
+				System.arraycopy(siblings[i], 0, pair, MerkleTree.NODE_SIZE, MerkleTree.NODE_SIZE);
+			}
+			Sha256Util.doubleHash(pair, 0, pair.length, node, 0);
+		}
+		return node;
+	}
+
+	/**
+	 * Returns whether the given leaf is included in the tree with the given root.
+	 *
+	 */
+	public boolean verify(byte[] leaf, byte[] merkleRoot) {
+		return leaf.length == MerkleTree.NODE_SIZE && Arrays.equals(computeRoot(leaf), merkleRoot);
+	}
+
+	// GETTERS & SETTERS // -------------------------------------------------------
+
+	public int getLeafIndex() {
+		return leafIndex;
+	}
+
+	public byte[][] getSiblings() {
+		return siblings;
+	}
+
+	public boolean[] getSiblingsOnLeft() {
+		return siblingsOnLeft;
+	}
+}
@@ -0,0 +1,263 @@
+package com.example.blockchain.domain.block.merkle;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import com.example.blockchain.util.Sha256Util;
+
+/**
+ * A merkle tree over transaction IDs which keeps all of its levels. Each level
+ * is stored in one flat array of 32-byte nodes, so a pair of nodes is hashed
+ * straight from the array without a concatenation buffer. A node without a
+ * sibling (the last node of a level with an odd number of nodes) is promoted to
+ * the next level as it is, and the root of a single leaf is the leaf itself.
+ *
+ * Since the levels are kept, replacing or appending a leaf recomputes only the
+ * nodes on its path to the root. The levels of large trees are hashed in
+ * parallel.
+ *
+ */
+public class MerkleTree {
+
+	public static final int NODE_SIZE = Sha256Util.HASH_SIZE; // In bytes
+
+	static final int MIN_NUMBER_OF_PAIRS_TO_HASH_IN_PARALLEL = 1024;
+
+	private byte[][] levels; // Starting with the leaves
+	private int[] levelSizes; // In nodes
+	private int numberOfLevels;
+
+	private MerkleTree(int capacity) {
+		int maxNumberOfLevels = calculateNumberOfLevels(Math.max(1, capacity)) + 1;
+		this.levels = new byte[maxNumberOfLevels][];
+		this.levelSizes = new int[maxNumberOfLevels];
+		this.levels[0] = new byte[Math.max(1, capacity) * NODE_SIZE];
+	}
+
+	/**
+	 * Builds the tree of the given leaves (e.g. transaction IDs).
+	 *
+	 */
+	public static MerkleTree build(byte[][] leaves) {
+		if (leaves.length == 0) {
+			throw new IllegalArgumentException("A merkle tree needs at least one leaf");
+		}
+
+		MerkleTree merkleTree = new MerkleTree(leaves.length);
+		for (int i = 0; i < leaves.length; i++) {
+			merkleTree.setNode(0, i, leaves[i]);
+		}
+		merkleTree.levelSizes[0] = leaves.length;
+		merkleTree.computeLevels();
+		return merkleTree;
+	}
+
+	/**
+	 * Computes the merkle root of the given leaves without keeping the levels.
+	 * One buffer holds the leaves, and each level is written over the front of the
+	 * level below it.
+	 *
+	 */
+	public static byte[] computeRoot(byte[][] leaves) {
+		if (leaves.length == 0) {
+			throw new IllegalArgumentException("A merkle tree needs at least one leaf");
+		}
+
+		byte[] nodes = new byte[leaves.length * NODE_SIZE];
+		for (int i = 0; i < leaves.length; i++) {
+			System.arraycopy(leaves[i], 0, nodes, i * NODE_SIZE, NODE_SIZE);
+		}
+		int levelSize = leaves.length;
+		while (levelSize > 1) {
+			int nextLevelSize = (levelSize + 1) / 2;
+			for (int i = 0; i < levelSize / 2; i++) {
+				// The parent is written at or before the pair, which has been read by then
+				Sha256Util.doubleHash(nodes, i * 2 * NODE_SIZE, NODE_SIZE * 2, nodes, i * NODE_SIZE);
+			}
+			if (levelSize % 2 == 1) {
+				System.arraycopy(nodes, (levelSize - 1) * NODE_SIZE, nodes, (nextLevelSize - 1) * NODE_SIZE, NODE_SIZE);
+			}
+			levelSize = nextLevelSize;
+		}
+		return Arrays.copyOf(nodes, NODE_SIZE);
+	}
+
+	/**
+	 * Returns the merkle root.
+	 *
+	 */
+	public byte[] getRoot() {
+		return getNode(numberOfLevels - 1, 0);
+	}
+
+	/**
+	 * Returns the number of leaves.
+	 *
+	 */
+	public int getNumberOfLeaves() {
+		return levelSizes[0];
+	}
+
+	/**
+	 * Returns the leaf at the given index.
+	 *
+	 */
+	public byte[] getLeaf(int index) {
+		checkLeafIndex(index);
+		return getNode(0, index);
+	}
+
+	/**
+	 * Replaces the leaf at the given index and recomputes the nodes on its path to
+	 * the root.
+	 *
+	 */
+	public void replaceLeaf(int index, byte[] leaf) {
+		checkLeafIndex(index);
+		setNode(0, index, leaf);
+		recomputePath(index);
+	}
+
+	/**
+	 * Appends the given leaf and recomputes the nodes on its path to the root.
+	 *
+	 */
+	public void appendLeaf(byte[] leaf) {
+		int index = levelSizes[0];
+		ensureCapacity(index + 1);
+		setNode(0, index, leaf);
+		levelSizes[0] = index + 1;
+		recomputePath(index);
+	}
+
+	/**
+	 * Builds the proof of inclusion of the leaf at the given index.
+	 *
+	 */
+	public MerkleProof buildProof(int index) {
+		checkLeafIndex(index);
+		byte[][] siblings = new byte[numberOfLevels - 1][];
+		boolean[] siblingsOnLeft = new boolean[numberOfLevels - 1];
+		int numberOfSiblings = 0;
+		int nodeIndex = index;
+		for (int level = 0; level < numberOfLevels - 1; level++) {
+			int siblingIndex = nodeIndex ^ 1;
+			if (siblingIndex < levelSizes[level]) { // A promoted node has no sibling
+				siblings[numberOfSiblings] = getNode(level, siblingIndex);
+				siblingsOnLeft[numberOfSiblings] = siblingIndex < nodeIndex;
+				numberOfSiblings++;
+			}
+			nodeIndex /= 2;
+		}
+		return new MerkleProof(index, Arrays.copyOf(siblings, numberOfSiblings), Arrays.copyOf(siblingsOnLeft, numberOfSiblings));
+	}
+
+	/**
+	 * Computes all the levels above the leaves.
+	 *
+	 */
+	private void computeLevels() {
+		int level = 0;
+		while (levelSizes[level] > 1) {
+			int levelSize = levelSizes[level];
+			int nextLevelSize = (levelSize + 1) / 2;
+			if (levels[level + 1] == null || levels[level + 1].length < nextLevelSize * NODE_SIZE) {
+				levels[level + 1] = new byte[nextLevelSize * NODE_SIZE];
+			}
+			byte[] nodes = levels[level];
+			byte[] parents = levels[level + 1];
+			int numberOfPairs = levelSize / 2;
+			if (numberOfPairs >= MIN_NUMBER_OF_PAIRS_TO_HASH_IN_PARALLEL) {
+				IntStream.range(0, numberOfPairs).parallel()
+						.forEach(i -> Sha256Util.doubleHash(nodes, i * 2 * NODE_SIZE, NODE_SIZE * 2, parents, i * NODE_SIZE));
+			} else {
+				for (int i = 0; i < numberOfPairs; i++) {
+					Sha256Util.doubleHash(nodes, i * 2 * NODE_SIZE, NODE_SIZE * 2, parents, i * NODE_SIZE);
+				}
+			}
+			if (levelSize % 2 == 1) {
+				System.arraycopy(nodes, (levelSize - 1) * NODE_SIZE, parents, (nextLevelSize - 1) * NODE_SIZE, NODE_SIZE);
+			}
+			levelSizes[level + 1] = nextLevelSize;
+			level++;
+		}
+		numberOfLevels = level + 1;
+	}
+
+	/**
+	 * Recomputes the ancestors of the leaf at the given index. The sizes of the
+	 * levels are updated as well, since an appended leaf may add a node to each
+	 * level and a level on top.
+	 *
+	 */
+	private void recomputePath(int leafIndex) {
+		int level = 0;
+		int nodeIndex = leafIndex;
+		while (levelSizes[level] > 1) {
+			int levelSize = levelSizes[level];
+			int nextLevelSize = (levelSize + 1) / 2;
+			if (levels[level + 1] == null) {
+				levels[level + 1] = new byte[(levels[level].length / NODE_SIZE + 1) / 2 * NODE_SIZE];
+			} else if (levels[level + 1].length < nextLevelSize * NODE_SIZE) {
+				// Sized after the level below it, which has already grown
+				levels[level + 1] = Arrays.copyOf(levels[level + 1], (levels[level].length / NODE_SIZE + 1) / 2 * NODE_SIZE);
+			}
+			int leftIndex = nodeIndex & ~1;
+			int parentIndex = nodeIndex / 2;
+			if (leftIndex + 1 < levelSize) {
+				Sha256Util.doubleHash(levels[level], leftIndex * NODE_SIZE, NODE_SIZE * 2, levels[level + 1], parentIndex * NODE_SIZE);
+			} else {
+				System.arraycopy(levels[level], leftIndex * NODE_SIZE, levels[level + 1], parentIndex * NODE_SIZE, NODE_SIZE);
+			}
+			levelSizes[level + 1] = nextLevelSize;
+			nodeIndex = parentIndex;
+			level++;
+		}
+		numberOfLevels = level + 1;
+	}
+
+	/**
+	 * Grows the leaves (and the array of levels) to hold at least the given number
+	 * of leaves.
+	 *
+	 */
+	private void ensureCapacity(int numberOfLeaves) {
+		if (levels[0].length >= numberOfLeaves * NODE_SIZE) {
+			return;
+		}
+		int capacity = Math.max(numberOfLeaves, levels[0].length / NODE_SIZE * 2);
+		levels[0] = Arrays.copyOf(levels[0], capacity * NODE_SIZE);
+		int maxNumberOfLevels = calculateNumberOfLevels(capacity) + 1;
+		if (maxNumberOfLevels > levels.length) {
+			levels = Arrays.copyOf(levels, maxNumberOfLevels);
+			levelSizes = Arrays.copyOf(levelSizes, maxNumberOfLevels);
+		}
+	}
+
+	private static int calculateNumberOfLevels(int numberOfLeaves) {
+		int numberOfLevels = 1;
+		int levelSize = numberOfLeaves;
+		while (levelSize > 1) {
+			levelSize = (levelSize + 1) / 2;
+			numberOfLevels++;
+		}
+		return numberOfLevels;
+	}
+
+	private void checkLeafIndex(int index) {
+		if (index < 0 || index >= levelSizes[0]) {
+			throw new IndexOutOfBoundsException("Leaf index: " + index + ", number of leaves: " + levelSizes[0]);
+		}
+	}
+
+	private byte[] getNode(int level, int index) {
+		return Arrays.copyOfRange(levels[level], index * NODE_SIZE, (index + 1) * NODE_SIZE);
+	}
+
+	private void setNode(int level, int index, byte[] node) {
+		if (node.length != NODE_SIZE) {
+			throw new IllegalArgumentException("A merkle tree node must have " + NODE_SIZE + " bytes");
+		}
+		System.arraycopy(node, 0, levels[level], index * NODE_SIZE, NODE_SIZE);
+	}
+}
@@ -0,0 +1,73 @@
+package com.example.blockchain.domain.chain;
+
+/**
+ * Adapts the number of blocks requested at once to the observed latency and
+ * payload size of the replies. The size is doubled while replies are fast and
+ * small, and halved when they are slow, large or failing.
+ *
+ */
+class AdaptiveChunkSize {
+
+	private int minSize;
+	private int maxSize;
+	private long targetLatency; // In milliseconds
+	private long maxPayloadSize; // In bytes
+
+	private int size;
+
+	AdaptiveChunkSize(int initialSize, int minSize, int maxSize, long targetLatency, long maxPayloadSize) {
+		if (minSize < 1 || maxSize < minSize || initialSize < minSize || initialSize > maxSize) {
+			throw new IllegalArgumentException("Invalid chunk sizes");
+		}
+
+		this.size = initialSize;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetLatency = targetLatency;
+		this.maxPayloadSize = maxPayloadSize;
+	}
+
+	/**
+	 * Creates a chunk size which always stays at one block.
+	 *
+	 */
+	static AdaptiveChunkSize createFixedSizeOfOne() {
+		return new AdaptiveChunkSize(1, 1, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the current chunk size.
+	 *
+	 */
+	synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Adapts the size after a successful reply of the given number of blocks to
+	 * a request of the given number of blocks, which may be fewer than the size
+	 * when the range was clipped.
+	 *
+	 */
+	synchronized void onSuccess(int numberOfBlocks, int requestedNumberOfBlocks, long latency, long payloadSize) {
+		if (numberOfBlocks < requestedNumberOfBlocks) { // The reply was cut short; the peer is not expected to serve more
+			return;
+		}
+
+		boolean fast = latency * 2 < targetLatency;
+		boolean small = payloadSize * 2 < maxPayloadSize;
+		if (latency > targetLatency || payloadSize > maxPayloadSize) {
+			size = Math.max(minSize, size / 2);
+		} else if (fast && small) {
+			size = Math.min(maxSize, size * 2);
+		}
+	}
+
+	/**
+	 * Adapts the size after a failed request.
+	 *
+	 */
+	synchronized void onFailure() {
+		size = Math.max(minSize, size / 2);
+	}
+}
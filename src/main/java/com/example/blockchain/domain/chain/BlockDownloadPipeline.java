@@ -0,0 +1,486 @@
+package com.example.blockchain.domain.chain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.Range;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.blockchain.Callback;
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.merkle.MerkleTree;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.network.NetworkCallback;
+import com.example.blockchain.network.NetworkInterface;
+import com.example.blockchain.network.handler.GetResponse;
+
+/**
+ * Downloads a range of blocks by height while keeping several requests in
+ * flight at the same time. The downloaded blocks are kept in a reorder buffer
+ * and added to the chain in height order. The number of heights and bytes which
+ * can be buffered ahead of the next height to be added is limited so that the
+ * buffer does not grow without bound.
+ *
+ * In the HEIGHT_RANGES mode each request covers a range of heights whose size
+ * is adapted to the observed latency and payload size; otherwise each request
+ * covers a single height. In the HEADERS_FIRST mode the headers are already
+ * known, so the blocks are requested by hash and a block whose hash does not
+ * match the expected header is rejected and requested again.
+ *
+ * If a downloaded block cannot be added because its previous block does not
+ * exist, the pipeline stops and reports success; the orphan blocks are then
+ * left to the caller to synch by hash.
+ *
+ */
+class BlockDownloadPipeline {
+
+	private static final Logger log = LoggerFactory.getLogger(BlockDownloadPipeline.class);
+
+	private Chain chain;
+	private NetworkInterface networkInterface;
+	private ChainSynchronizationMode mode;
+	private AdaptiveChunkSize chunkSize;
+	private int firstHeight;
+	private int lastHeight;
+	private int maxNumberOfInFlightRequests;
+	private int maxNumberOfBufferedHeights;
+	private long maxBufferedPayloadSize;
+	private int maxAllowedNumberOfFailures;
+
+	private int nextHeightToRequest;
+	private int nextHeightToAdd;
+	private int numberOfInFlightRequests = 0;
+	private Queue<Range<Integer>> rangesToRetry = new PriorityQueue<>(new Comparator<Range<Integer>>() {
+		@Override
+		public int compare(Range<Integer> range1, Range<Integer> range2) {
+			return range1.getMinimum().compareTo(range2.getMinimum());
+		}
+	});
+	private Map<Integer, Integer> numberOfFailures = new HashMap<>(); // By the first height of the range
+	private NavigableMap<Integer, List<Block>> reorderBuffer = new TreeMap<>();
+	private long bufferedPayloadSize = 0;
+	private boolean adding = false;
+	private boolean finished = false;
+
+	private int orphanHeight = -1;
+	private List<Block> orphanBlocks = new ArrayList<>();
+	private byte[] lastAddedBlockHash; // In the HEIGHT_RANGES mode; null until a block is added
+
+	private List<Block> expectedHeaders; // Starting with the first height; null unless the headers are known
+
+	private Callback<ChainSynchronizationResult> callback;
+
+	BlockDownloadPipeline(Chain chain, NetworkInterface networkInterface, ChainSynchronizationMode mode, AdaptiveChunkSize chunkSize, int firstHeight,
+			int lastHeight, int maxNumberOfInFlightRequests, int maxNumberOfBufferedHeights, long maxBufferedPayloadSize,
+			int maxAllowedNumberOfFailures) {
+
+		if (maxNumberOfInFlightRequests < 1 || maxNumberOfBufferedHeights < 1 || maxBufferedPayloadSize < 1) {
+			throw new IllegalArgumentException("Invalid pipeline limits");
+		}
+
+		this.chain = chain;
+		this.networkInterface = networkInterface;
+		this.mode = mode;
+		this.chunkSize = (mode == ChainSynchronizationMode.HEIGHT_RANGES) ? chunkSize : AdaptiveChunkSize.createFixedSizeOfOne();
+		this.firstHeight = firstHeight;
+		this.lastHeight = lastHeight;
+		this.maxNumberOfInFlightRequests = maxNumberOfInFlightRequests;
+		this.maxNumberOfBufferedHeights = maxNumberOfBufferedHeights;
+		this.maxBufferedPayloadSize = maxBufferedPayloadSize;
+		this.maxAllowedNumberOfFailures = maxAllowedNumberOfFailures;
+		this.nextHeightToRequest = firstHeight;
+		this.nextHeightToAdd = firstHeight;
+	}
+
+	BlockDownloadPipeline(Chain chain, NetworkInterface networkInterface, List<Block> expectedHeaders, int firstHeight,
+			int maxNumberOfInFlightRequests, int maxNumberOfBufferedHeights, long maxBufferedPayloadSize, int maxAllowedNumberOfFailures) {
+
+		this(chain, networkInterface, ChainSynchronizationMode.HEADERS_FIRST, null, firstHeight, firstHeight + expectedHeaders.size() - 1,
+				maxNumberOfInFlightRequests, maxNumberOfBufferedHeights, maxBufferedPayloadSize, maxAllowedNumberOfFailures);
+		this.expectedHeaders = expectedHeaders;
+	}
+
+	/**
+	 * Starts downloading the blocks. The given callback is invoked once, either
+	 * when all the blocks were added (or an orphan block was found) or when the
+	 * download failed.
+	 *
+	 */
+	void start(Callback<ChainSynchronizationResult> callback) {
+		this.callback = callback;
+		if (nextHeightToAdd > lastHeight) {
+			finish(ChainSynchronizationResult.SUCCESS);
+			return;
+		}
+		sendRequests();
+	}
+
+	/**
+	 * Returns the height of the orphan blocks, or -1 if none were found.
+	 *
+	 */
+	synchronized int getOrphanHeight() {
+		return orphanHeight;
+	}
+
+	/**
+	 * Returns the downloaded blocks which could not be added to the chain since
+	 * their previous block does not exist.
+	 *
+	 */
+	synchronized List<Block> getOrphanBlocks() {
+		return Collections.unmodifiableList(orphanBlocks);
+	}
+
+	/**
+	 * Sends requests for the next heights until the in-flight or buffer limits
+	 * are reached.
+	 *
+	 */
+	private void sendRequests() {
+		while (true) {
+			Range<Integer> heightRange;
+			synchronized (this) {
+				if (finished || numberOfInFlightRequests >= maxNumberOfInFlightRequests) {
+					return;
+				}
+				if (!rangesToRetry.isEmpty()) {
+					heightRange = rangesToRetry.poll();
+				} else {
+					int maxHeightAllowedByBuffer = nextHeightToAdd + maxNumberOfBufferedHeights - 1;
+					if (nextHeightToRequest > lastHeight || nextHeightToRequest > maxHeightAllowedByBuffer || bufferedPayloadSize >= maxBufferedPayloadSize) {
+						return;
+					}
+					int toHeight = Math.min(nextHeightToRequest + chunkSize.getSize() - 1, Math.min(lastHeight, maxHeightAllowedByBuffer));
+					heightRange = Range.between(nextHeightToRequest, toHeight);
+					nextHeightToRequest = toHeight + 1;
+				}
+				numberOfInFlightRequests++;
+			}
+			sendRequest(heightRange);
+		}
+	}
+
+	/**
+	 * Sends the request of the blocks within the given height range.
+	 *
+	 */
+	private void sendRequest(Range<Integer> heightRange) {
+		long requestTime = System.currentTimeMillis();
+		NetworkCallback<GetResponse<List<Block>>> networkCallback = new NetworkCallback<GetResponse<List<Block>>>() {
+			@Override
+			public void onSuccess(GetResponse<List<Block>> response) {
+				if (response.getValues().isEmpty() || response.getValues().get(0).isEmpty()) {
+					onRequestFailure(heightRange, ChainSynchronizationResult.NO_REPLIES);
+				} else {
+					onRequestSuccess(heightRange, response.getValues().get(0), System.currentTimeMillis() - requestTime);
+				}
+			}
+
+			@Override
+			public void onFailure(GetResponse<List<Block>> response) {
+				onRequestFailure(heightRange, ChainSynchronizationResult.NO_REPLIES);
+			}
+		};
+
+		boolean enoughNodes;
+		if (expectedHeaders != null) {
+			Block expectedHeader = expectedHeaders.get(heightRange.getMinimum() - firstHeight);
+			enoughNodes = networkInterface.getBlock(expectedHeader.getHash(), 1, 1, new NetworkCallback<GetResponse<Block>>() {
+				@Override
+				public void onSuccess(GetResponse<Block> response) {
+					Block block = response.getValues().isEmpty() ? null : response.getValues().get(0);
+					if (block == null || !isMatchingHeader(block, expectedHeader)) {
+						log.info("Received block at height {} which does not match the expected header", heightRange.getMinimum());
+						onRequestFailure(heightRange, ChainSynchronizationResult.INVALID_BLOCK_HEADERS);
+					} else {
+						List<Block> blocks = new ArrayList<>(1);
+						blocks.add(block);
+						onRequestSuccess(heightRange, blocks, System.currentTimeMillis() - requestTime);
+					}
+				}
+
+				@Override
+				public void onFailure(GetResponse<Block> response) {
+					onRequestFailure(heightRange, ChainSynchronizationResult.NO_REPLIES);
+				}
+			});
+		} else if (mode == ChainSynchronizationMode.HEIGHT_RANGES) {
+			enoughNodes = networkInterface.getBlocks(heightRange, 1, 1, networkCallback);
+		} else {
+			enoughNodes = networkInterface.getBlocks(heightRange.getMinimum(), 1, 1, networkCallback);
+		}
+		if (!enoughNodes) {
+			log.info("Failed to retrieve block(s) from network due to not enough nodes");
+			onRequestFailure(heightRange, ChainSynchronizationResult.NOT_ENOUGH_NODES);
+		}
+	}
+
+	/**
+	 * Checks that the header data of the given block hashes to the hash of the
+	 * expected header, and that its transactions have the merkle root of the
+	 * header, so that a peer cannot serve the header with other transactions.
+	 *
+	 */
+	private boolean isMatchingHeader(Block block, Block expectedHeader) {
+		byte[] hash = Block.buildBlockHash(block.serialize(false));
+		if (!Arrays.equals(hash, expectedHeader.getHash())) {
+			return false;
+		}
+		Transaction[] transactions = block.getTransactions();
+		if (transactions == null || transactions.length == 0) {
+			return false;
+		}
+		byte[][] transactionIds = new byte[transactions.length][];
+		for (int i = 0; i < transactions.length; i++) {
+			transactionIds[i] = transactions[i].getId();
+		}
+		return Arrays.equals(MerkleTree.computeRoot(transactionIds), expectedHeader.getMerkleRoot());
+	}
+
+	private void onRequestSuccess(Range<Integer> heightRange, List<Block> blocks, long latency) {
+		int requestedNumberOfBlocks = heightRange.getMaximum() - heightRange.getMinimum() + 1;
+		int numberOfAcceptedBlocks = blocks.size();
+		long payloadSize = 0;
+		ChainSynchronizationResult failure = null;
+		synchronized (this) {
+			numberOfInFlightRequests--;
+			if (finished) {
+				return;
+			}
+			if (mode == ChainSynchronizationMode.HEIGHT_RANGES) {
+				// The blocks of a range are expected in height order with one block per
+				// height, each linked to the block below it when that one is known; the
+				// heights which were not served, or from the first block which is not
+				// linked, are requested again
+				int height = heightRange.getMinimum();
+				byte[] previousBlockHash = findBlockHashBelow(height);
+				boolean linkBroken = false;
+				for (Block block : blocks) {
+					if (height > heightRange.getMaximum()) {
+						break;
+					}
+					if (previousBlockHash != null && !Arrays.equals(block.getPreviousBlock().getHash(), previousBlockHash)) {
+						log.info("Received block at height {} which does not follow the block below it", height);
+						linkBroken = true;
+						break;
+					}
+					List<Block> blocksAtHeight = new ArrayList<>(1);
+					blocksAtHeight.add(block);
+					reorderBuffer.put(height, blocksAtHeight);
+					payloadSize += block.getSize();
+					previousBlockHash = block.getHash();
+					height++;
+				}
+				numberOfAcceptedBlocks = height - heightRange.getMinimum();
+				if (height <= heightRange.getMaximum()) {
+					if (linkBroken && recordFailure(height) >= maxAllowedNumberOfFailures) {
+						failure = ChainSynchronizationResult.INVALID_BLOCK_HEADERS;
+					} else {
+						rangesToRetry.add(Range.between(height, heightRange.getMaximum()));
+					}
+				}
+			} else {
+				reorderBuffer.put(heightRange.getMinimum(), blocks);
+				for (Block block : blocks) {
+					payloadSize += block.getSize();
+				}
+			}
+			bufferedPayloadSize += payloadSize;
+		}
+		if (failure != null) {
+			finish(failure);
+			return;
+		}
+		chunkSize.onSuccess(numberOfAcceptedBlocks, requestedNumberOfBlocks, latency, payloadSize);
+		addBufferedBlocksToChain();
+		sendRequests();
+	}
+
+	/**
+	 * Finds the hash of the block at the height below the given one, if it was
+	 * added or is buffered in the HEIGHT_RANGES mode; otherwise returns null.
+	 *
+	 */
+	private byte[] findBlockHashBelow(int height) {
+		if (height - 1 == nextHeightToAdd - 1) {
+			return lastAddedBlockHash;
+		}
+		List<Block> blocksBelow = reorderBuffer.get(height - 1);
+		return blocksBelow != null ? blocksBelow.get(0).getHash() : null;
+	}
+
+	private void onRequestFailure(Range<Integer> heightRange, ChainSynchronizationResult result) {
+		chunkSize.onFailure();
+		synchronized (this) {
+			numberOfInFlightRequests--;
+			if (finished) {
+				return;
+			}
+			int failures = recordFailure(heightRange.getMinimum());
+			if (failures < maxAllowedNumberOfFailures && result != ChainSynchronizationResult.NOT_ENOUGH_NODES) {
+				rangesToRetry.add(splitForRetry(heightRange)); // Re-adds the range to be requested again
+				result = null;
+			}
+		}
+		if (result != null) {
+			finish(result);
+		} else {
+			sendRequests();
+		}
+	}
+
+	/**
+	 * Counts a failure of the range starting with the given height and returns
+	 * the number of its failures.
+	 *
+	 */
+	private int recordFailure(int height) {
+		Integer failures = numberOfFailures.get(height);
+		failures = (failures == null) ? 1 : failures + 1;
+		numberOfFailures.put(height, failures);
+		return failures;
+	}
+
+	/**
+	 * Shrinks the given failed range to the current chunk size. The heights which
+	 * are cut off are queued as a separate range.
+	 *
+	 */
+	private Range<Integer> splitForRetry(Range<Integer> heightRange) {
+		int size = chunkSize.getSize();
+		int length = heightRange.getMaximum() - heightRange.getMinimum() + 1;
+		if (length <= size) {
+			return heightRange;
+		}
+		int toHeight = heightRange.getMinimum() + size - 1;
+		rangesToRetry.add(Range.between(toHeight + 1, heightRange.getMaximum()));
+		return Range.between(heightRange.getMinimum(), toHeight);
+	}
+
+	/**
+	 * Adds the buffered blocks to the chain as long as the buffer holds the next
+	 * height to be added. Only one thread adds blocks at a time; the other
+	 * threads leave the blocks they buffer to it.
+	 *
+	 */
+	private void addBufferedBlocksToChain() {
+		synchronized (this) {
+			if (adding) {
+				return;
+			}
+			adding = true;
+		}
+
+		while (true) {
+			int height;
+			List<Block> blocks;
+			ChainSynchronizationResult failure = null;
+			synchronized (this) {
+				if (finished || reorderBuffer.isEmpty() || reorderBuffer.firstKey() != nextHeightToAdd) {
+					adding = false;
+					break;
+				}
+				height = nextHeightToAdd;
+				blocks = reorderBuffer.pollFirstEntry().getValue();
+				for (Block block : blocks) {
+					bufferedPayloadSize -= block.getSize();
+				}
+				if (mode == ChainSynchronizationMode.HEIGHT_RANGES) {
+					// The block below may have arrived after this one, so the link is checked
+					// again; an unlinked block is requested again
+					Block block = blocks.get(0);
+					if (lastAddedBlockHash != null && !Arrays.equals(block.getPreviousBlock().getHash(), lastAddedBlockHash)) {
+						log.info("Received block at height {} which does not follow the block below it", height);
+						if (recordFailure(height) >= maxAllowedNumberOfFailures) {
+							failure = ChainSynchronizationResult.INVALID_BLOCK_HEADERS;
+						} else {
+							rangesToRetry.add(Range.between(height, height));
+						}
+						blocks = Collections.emptyList();
+						adding = false;
+					} else {
+						lastAddedBlockHash = block.getHash();
+					}
+				}
+				if (adding) {
+					nextHeightToAdd++;
+				}
+			}
+			if (failure != null) {
+				finish(failure);
+				return;
+			}
+			if (blocks.isEmpty()) {
+				return; // The caller sends the requests
+			}
+
+			List<Block> orphans = addBlocksToChain(blocks);
+			if (!orphans.isEmpty()) {
+				synchronized (this) {
+					orphanHeight = height;
+					orphanBlocks.addAll(orphans);
+					adding = false;
+				}
+				finish(ChainSynchronizationResult.SUCCESS);
+				return;
+			}
+		}
+
+		synchronized (this) {
+			if (nextHeightToAdd <= lastHeight) {
+				return;
+			}
+		}
+		finish(ChainSynchronizationResult.SUCCESS);
+	}
+
+	/**
+	 * Adds the given blocks to the chain and returns those whose previous block
+	 * does not exist.
+	 *
+	 */
+	private List<Block> addBlocksToChain(List<Block> blocks) {
+		List<Block> orphans = new ArrayList<>(0);
+		for (Block block : blocks) {
+			if (chain.isBlockExists(block.getPreviousBlock().getHash())) {
+				chain.addBlock(block);
+			} else {
+				orphans.add(block);
+			}
+		}
+		return orphans;
+	}
+
+	/**
+	 * Finishes the pipeline with the given result. Only the first call has an
+	 * effect.
+	 *
+	 */
+	private void finish(ChainSynchronizationResult result) {
+		synchronized (this) {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			reorderBuffer.clear();
+			rangesToRetry.clear();
+			bufferedPayloadSize = 0;
+		}
+		if (result == ChainSynchronizationResult.SUCCESS) {
+			callback.onSuccess(result);
+		} else {
+			callback.onFailure(result);
+		}
+	}
+}
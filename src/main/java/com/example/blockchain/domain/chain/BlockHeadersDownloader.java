@@ -0,0 +1,179 @@
+package com.example.blockchain.domain.chain;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.Range;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.blockchain.Callback;
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.network.NetworkCallback;
+import com.example.blockchain.network.NetworkInterface;
+import com.example.blockchain.network.handler.GetResponse;
+
+/**
+ * Downloads the block headers within a range of heights and links them into a
+ * skeleton chain. Every header has to point to the header before it and to
+ * satisfy the proof of work of its own bits. The first header has to point to
+ * a block which exists in the chain; if it does not, the skeleton is reported
+ * as not linked to the chain.
+ *
+ */
+class BlockHeadersDownloader {
+
+	private static final Logger log = LoggerFactory.getLogger(BlockHeadersDownloader.class);
+
+	private Chain chain;
+	private NetworkInterface networkInterface;
+	private int lastHeight;
+	private int maxNumberOfHeadersPerRequest;
+	private int maxAllowedNumberOfFailures;
+
+	private int nextHeight;
+	private int numberOfFailures = 0;
+	private boolean linkedToChain = true;
+	private double chainWork;
+	private List<Block> headers = new ArrayList<>();
+
+	private Callback<ChainSynchronizationResult> callback;
+
+	BlockHeadersDownloader(Chain chain, NetworkInterface networkInterface, int firstHeight, int lastHeight, int maxNumberOfHeadersPerRequest,
+			int maxAllowedNumberOfFailures) {
+
+		this.chain = chain;
+		this.networkInterface = networkInterface;
+		this.nextHeight = firstHeight;
+		this.lastHeight = lastHeight;
+		this.maxNumberOfHeadersPerRequest = maxNumberOfHeadersPerRequest;
+		this.maxAllowedNumberOfFailures = maxAllowedNumberOfFailures;
+	}
+
+	/**
+	 * Starts downloading the headers. The given callback is invoked once the
+	 * skeleton is complete, is found not to be linked to the chain, or when the
+	 * download failed.
+	 *
+	 */
+	void start(Callback<ChainSynchronizationResult> callback) {
+		this.callback = callback;
+		requestNextHeaders();
+	}
+
+	/**
+	 * Returns the downloaded headers in height order.
+	 *
+	 */
+	List<Block> getHeaders() {
+		return Collections.unmodifiableList(headers);
+	}
+
+	/**
+	 * Returns whether the first header points to a block in the chain or not.
+	 *
+	 */
+	boolean isLinkedToChain() {
+		return linkedToChain;
+	}
+
+	/**
+	 * Returns the chainwork of the last downloaded header.
+	 *
+	 */
+	double getChainWork() {
+		return chainWork;
+	}
+
+	private void requestNextHeaders() {
+		if (nextHeight > lastHeight) {
+			callback.onSuccess(ChainSynchronizationResult.SUCCESS);
+			return;
+		}
+
+		int toHeight = Math.min(lastHeight, nextHeight + maxNumberOfHeadersPerRequest - 1);
+		boolean enoughNodes = networkInterface.getBlockHeaders(Range.between(nextHeight, toHeight), 1, 1,
+				new NetworkCallback<GetResponse<List<Block>>>() {
+					@Override
+					public void onSuccess(GetResponse<List<Block>> response) {
+						if (response.getValues().isEmpty() || response.getValues().get(0).isEmpty()) {
+							onRequestFailure(ChainSynchronizationResult.NO_REPLIES);
+						} else {
+							onHeadersReceived(response.getValues().get(0));
+						}
+					}
+
+					@Override
+					public void onFailure(GetResponse<List<Block>> response) {
+						onRequestFailure(ChainSynchronizationResult.NO_REPLIES);
+					}
+				});
+		if (!enoughNodes) {
+			log.info("Failed to retrieve block headers from network due to not enough nodes");
+			callback.onFailure(ChainSynchronizationResult.NOT_ENOUGH_NODES);
+		}
+	}
+
+	private void onHeadersReceived(List<Block> receivedHeaders) {
+		for (Block header : receivedHeaders) {
+			if (nextHeight > lastHeight) {
+				break;
+			}
+
+			// Links the header to the previous one
+			Block previousHeader = headers.isEmpty() ? null : headers.get(headers.size() - 1);
+			if (previousHeader == null) {
+				ChainItem previousChainItem = chain.getChainItem(header.getPreviousBlock().getHash(), false);
+				if (previousChainItem == null) {
+					linkedToChain = false;
+					callback.onSuccess(ChainSynchronizationResult.SUCCESS);
+					return;
+				}
+				chainWork = previousChainItem.getChainWork();
+			} else if (!Arrays.equals(header.getPreviousBlock().getHash(), previousHeader.getHash())) {
+				log.info("Received block header at height {} which does not link to the previous header", nextHeight);
+				onRequestFailure(ChainSynchronizationResult.INVALID_BLOCK_HEADERS);
+				return;
+			}
+
+			// Checks the proof of work
+			if (!isProofOfWorkValid(header)) {
+				log.info("Received block header at height {} with invalid proof of work", nextHeight);
+				onRequestFailure(ChainSynchronizationResult.INVALID_BLOCK_HEADERS);
+				return;
+			}
+
+			headers.add(header);
+			chainWork += Chain.calculateBlockWork(header);
+			nextHeight++;
+		}
+
+		numberOfFailures = 0;
+		requestNextHeaders();
+	}
+
+	/**
+	 * Checks that the hash of the given header, computed from its own data, does
+	 * not exceed the target of its bits.
+	 *
+	 */
+	private boolean isProofOfWorkValid(Block header) {
+		byte[] hash = Block.buildBlockHash(header.serialize(false));
+		if (!Arrays.equals(hash, header.getHash())) {
+			return false;
+		}
+		return new BigInteger(1, hash).compareTo(header.getBits().toTargetValue()) <= 0;
+	}
+
+	private void onRequestFailure(ChainSynchronizationResult result) {
+		numberOfFailures++;
+		if (numberOfFailures >= maxAllowedNumberOfFailures) {
+			callback.onFailure(result);
+		} else {
+			requestNextHeaders(); // Requests the headers again starting with the first missing one
+		}
+	}
+}
@@ -4,7 +4,6 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -14,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import com.example.blockchain.Callback;
 import com.example.blockchain.dao.BlockHeightDao;
+import com.example.blockchain.dao.BlockUndoDao;
 import com.example.blockchain.dao.TransactionDao;
 import com.example.blockchain.dao.UnspentTransactionOutputDao;
 import com.example.blockchain.domain.block.Block;
@@ -37,9 +37,9 @@ public class Chain {
 	private int maxHeightOffsetOfLoadedBlocks = 5000;
 	private int maxHeightOffsetOfLoadedBlocksWithTransactions = 20;
 
-	List<ChainItem> blocks;
-	List<ChainItem> tips;
+	ChainIndex index;
 	ChainItem activeTip;
+	private int minHeightOfLoadedTransactions = 0; // Transactions of loaded blocks below this height were nullified
 
 	private ChainSynchronizer chainSynchronizer;
 	private ChainTransactionsMaintainer chainTransactionsMaintainer;
@@ -52,14 +52,19 @@ public class Chain {
 	Chain(TransactionsPool transactionsPool, NetworkInterface networkInterface, TransactionDao transactionDao,
 			UnspentTransactionOutputDao unspentTransactionOutputDao, BlockHeightDao blockHeightDao) {
 
+		this(transactionsPool, networkInterface, transactionDao, unspentTransactionOutputDao, blockHeightDao, null);
+	}
+
+	Chain(TransactionsPool transactionsPool, NetworkInterface networkInterface, TransactionDao transactionDao,
+			UnspentTransactionOutputDao unspentTransactionOutputDao, BlockHeightDao blockHeightDao, BlockUndoDao blockUndoDao) {
+
 		this.networkInterface = networkInterface;
 		this.blockHeightDao = blockHeightDao;
 
 		chainSynchronizer = new ChainSynchronizer(networkInterface, true);
 		chainTransactionsMaintainer = new ChainTransactionsMaintainer(transactionOutputsObservers, transactionsPool, transactionDao,
-				unspentTransactionOutputDao);
-		blocks = new LinkedList<ChainItem>();
-		tips = new LinkedList<ChainItem>();
+				unspentTransactionOutputDao, blockUndoDao);
+		index = new ChainIndex();
 	}
 
 	/**
@@ -73,6 +78,18 @@ public class Chain {
 		return INSTANCE;
 	}
 
+	/**
+	 * Initializes the only Chain instance, keeping the undo data of the connected
+	 * blocks in the given DAO.
+	 * 
+	 */
+	public static Chain initializeInstance(TransactionsPool transactionsPool, NetworkInterface networkInterface, TransactionDao transactionDao,
+			UnspentTransactionOutputDao unspentTransactionOutputDao, BlockHeightDao blockHeightDao, BlockUndoDao blockUndoDao) {
+
+		INSTANCE = new Chain(transactionsPool, networkInterface, transactionDao, unspentTransactionOutputDao, blockHeightDao, blockUndoDao);
+		return INSTANCE;
+	}
+
 	/**
 	 * Returns the only chain instance.
 	 * 
@@ -99,7 +116,7 @@ public class Chain {
 	 * Calculates the block work.
 	 * 
 	 */
-	private static double calculateBlockWork(Block block) {
+	static double calculateBlockWork(Block block) {
 		// FIXME Re-confirm the accuracy of the result
 		BigInteger expectedHashesToMine = calculateExpectedHashesToMine(block.getBits().toTargetValue());
 		double blockWork = log2(expectedHashesToMine);
@@ -170,13 +187,13 @@ public class Chain {
 	 * 
 	 */
 	private void loadChain() {
-		blocks.clear();
-		tips.clear();
+		index.clear();
+		minHeightOfLoadedTransactions = 0;
 
 		int height = Block.blockDao.getHeight();
 		if (height == 0) {
-			blocks.add(genesisChainItem);
-			tips.add(genesisChainItem);
+			index.add(genesisChainItem);
+			index.addTip(genesisChainItem);
 			activeTip = genesisChainItem;
 		} else {
 			int minHeight = height - maxHeightOffsetOfLoadedBlocks + 1;
@@ -187,14 +204,17 @@ public class Chain {
 			if (minHeightWithTransactions < 0) {
 				minHeightWithTransactions = 0;
 			}
+			minHeightOfLoadedTransactions = minHeightWithTransactions;
 			List<ChainItem> tipsFromDatabase = Block.blockDao.getTips(minHeight, minHeightWithTransactions);
-			this.tips.addAll(tipsFromDatabase);
-			this.blocks.addAll(tipsFromDatabase);
-			for (ChainItem tip : this.tips) {
+			for (ChainItem tip : tipsFromDatabase) {
+				index.add(tip);
+				index.addTip(tip);
+			}
+			for (ChainItem tip : tipsFromDatabase) {
 				ChainItem lastAddedItem = tip;
 				while (!lastAddedItem.getBlock().isGenesis() && lastAddedItem.getHeight() > minHeight) {
-					ChainItem chainItem = findItemInBlocksList(lastAddedItem.getBlock().getPreviousBlock());
-					if (chainItem != null) { // If item is already in the list
+					ChainItem chainItem = findItemInIndex(lastAddedItem.getBlock().getPreviousBlock());
+					if (chainItem != null) { // If item is already in the index
 						break; // No need to retrieve the previous blocks since they're already added
 					} else {
 						if (lastAddedItem.getHeight() == 1) { // If 'lastAddedItem' precedes the genesis block
@@ -203,7 +223,7 @@ public class Chain {
 							chainItem = Block.blockDao.findChainItem(lastAddedItem.getBlock().getPreviousBlock().getHash(),
 									lastAddedItem.getHeight() > minHeightWithTransactions ? true : false);
 						}
-						blocks.add(chainItem);
+						index.add(chainItem);
 					}
 					lastAddedItem = chainItem;
 				}
@@ -217,14 +237,14 @@ public class Chain {
 	 * 
 	 */
 	public void printChain() {
-		System.out.println("Number of blocks: " + this.blocks.size());
+		System.out.println("Number of blocks: " + index.size());
 
 		ChainItem ci = getHighestTip();
 		String blockHash = ConvertUtil.byteArrayToHexString(ci.getBlock().getHash());
 		System.out.println(ci.getHeight() + " - " + blockHash + " - " + ci.getBlock().serialize(true).length + " - " + ci.getBlock().getTransactions().length
 				+ " - " + ci.getBlock().getTime());
 		while (!Arrays.equals(ci.getBlock().getHash(), GenesisBlock.getInstance().getHash())) {
-			ci = findItemInBlocksList(ci.getBlock().getPreviousBlock().getHash());
+			ci = getChainItem(ci.getBlock().getPreviousBlock().getHash(), true);
 			blockHash = ConvertUtil.byteArrayToHexString(ci.getBlock().getHash());
 			System.out.println(ci.getHeight() + " - " + blockHash + " - " + ci.getBlock().serialize(true).length + " - "
 					+ ci.getBlock().getTransactions().length + " - " + ci.getBlock().getTime());
@@ -232,12 +252,15 @@ public class Chain {
 	}
 
 	/**
-	 * Finds the tip with the highest chainwork in the tips list.
+	 * Finds the tip with the highest chainwork among the indexed tips.
 	 * 
 	 */
 	private ChainItem findHighestTip() {
-		ChainItem highestTip = tips.get(0);
-		for (ChainItem tip : tips) {
+		ChainItem highestTip = null;
+		for (ChainItem tip : index.getTips()) {
+			if (highestTip == null) {
+				highestTip = tip;
+			}
 			if (tip.getChainWork() > highestTip.getChainWork()) {
 				highestTip = tip;
 			}
@@ -270,7 +293,7 @@ public class Chain {
 		}
 
 		ChainItem initialHighestTip = getHighestTip();
-		ChainItem previousChainItem = findItemInBlocksList(block.getPreviousBlock());
+		ChainItem previousChainItem = findItemInIndex(block.getPreviousBlock());
 		if (previousChainItem == null) {
 			previousChainItem = Block.blockDao.findChainItem(block.getPreviousBlock().getHash(), false);
 			if (previousChainItem == null) {
@@ -281,9 +304,9 @@ public class Chain {
 		double chainWorkOfPreviousBlock = previousChainItem.getChainWork();
 		double chainWorkOfNewBlock = chainWorkOfPreviousBlock + calculateBlockWork(block);
 		ChainItem newChainItem = new ChainItem(block, heightOfNewBlock, chainWorkOfNewBlock);
-		blocks.add(newChainItem);
-		tips.add(newChainItem);
-		tips.remove(previousChainItem);
+		index.add(newChainItem);
+		index.addTip(newChainItem);
+		index.removeTip(previousChainItem);
 		boolean newBlockIsActiveTip = false;
 		if (newChainItem.getChainWork() > initialHighestTip.getChainWork()) {
 			activeTip = newChainItem;
@@ -307,7 +330,7 @@ public class Chain {
 			notifySubscribers(block, heightOfNewBlock, chainWorkOfNewBlock, false, minedLocally);
 		}
 
-		cleanUpOldBlocks();
+		cleanUpOldBlocks(newChainItem);
 
 		log.info("Added block {}", ConvertUtil.byteArrayToHexString(block.getHash()));
 
@@ -325,32 +348,19 @@ public class Chain {
 	}
 
 	/**
-	 * Finds the item in the list with the given block.
-	 * 
-	 */
-	private ChainItem findItemInBlocksList(Block block) {
-		return findItemInBlocksList(block.getHash());
-	}
-
-	/**
-	 * Finds the item in the list with the given block hash.
+	 * Finds the item in the index with the given block.
 	 * 
 	 */
-	private ChainItem findItemInBlocksList(byte[] blockHash) {
-		for (ChainItem chainItem : blocks) {
-			if (Arrays.equals(chainItem.getBlock().getHash(), blockHash)) {
-				return chainItem;
-			}
-		}
-		return null;
+	private ChainItem findItemInIndex(Block block) {
+		return index.find(block.getHash());
 	}
 
 	/**
-	 * Returns the block with the given hash.
+	 * Returns whether the block with the given hash exists or not.
 	 * 
 	 */
 	public boolean isBlockExists(byte[] blockHash) {
-		return (getBlock(blockHash, false) != null);
+		return (getChainItem(blockHash, false) != null);
 	}
 
 	/**
@@ -377,7 +387,7 @@ public class Chain {
 		if (Arrays.equals(genesisChainItem.getBlock().getHash(), blockHash)) {
 			return genesisChainItem;
 		}
-		ChainItem chainItem = findItemInBlocksList(blockHash);
+		ChainItem chainItem = index.find(blockHash);
 		if (chainItem == null) {
 			chainItem = Block.blockDao.findChainItem(blockHash, includeTransactions);
 		}
@@ -417,41 +427,34 @@ public class Chain {
 	}
 
 	/**
-	 * Cleans up old blocks which should not be cached in the chain.
+	 * Cleans up old blocks which should not be cached in the chain. The given
+	 * chain item is the one added most recently.
 	 * 
 	 */
-	private void cleanUpOldBlocks() {
-		cleanUpOldBlocks(blocks);
-		cleanUpOldBlocks(tips);
-	}
-
-	/**
-	 * Cleans up old blocks which should not be cached in the given list.
-	 * 
-	 */
-	private void cleanUpOldBlocks(List<ChainItem> list) {
+	private void cleanUpOldBlocks(ChainItem newChainItem) {
 		int currentHeight = getHeight();
+		if (currentHeight <= maxHeightOffsetOfLoadedBlocks) {
+			return;
+		}
 
 		// Removes old blocks
-		if (currentHeight > maxHeightOffsetOfLoadedBlocks) {
-			int minimumHeight = currentHeight - maxHeightOffsetOfLoadedBlocks + 1;
-			List<ChainItem> chainItemsToBeRemoved = new ArrayList<>();
-			for (ChainItem chainItem : list) {
-				if (chainItem.getHeight() < minimumHeight) {
-					chainItemsToBeRemoved.add(chainItem);
-				}
-			}
-			list.removeAll(chainItemsToBeRemoved);
+		int minimumHeight = currentHeight - maxHeightOffsetOfLoadedBlocks + 1;
+		index.removeBelowHeight(minimumHeight);
+
+		// Nullifies the transactions of the relatively old blocks. Only the heights
+		// which were not covered by the previous clean ups are visited.
+		int minimumHeightWithTransactions = currentHeight - maxHeightOffsetOfLoadedBlocksWithTransactions + 1;
+		int fromHeight = Math.max(minimumHeight, minHeightOfLoadedTransactions);
+		for (ChainItem chainItem : index.findBetweenHeights(fromHeight, minimumHeightWithTransactions)) {
+			chainItem.getBlock().nullifyTransactions();
+		}
+		if (minimumHeightWithTransactions > minHeightOfLoadedTransactions) {
+			minHeightOfLoadedTransactions = minimumHeightWithTransactions;
 		}
 
-		// Nullifies the transactions of the relatively old blocks
-		if (currentHeight > maxHeightOffsetOfLoadedBlocks) {
-			int minimumHeightWithTransactions = currentHeight - maxHeightOffsetOfLoadedBlocksWithTransactions + 1;
-			for (ChainItem chainItem : list) {
-				if (chainItem.getHeight() < minimumHeightWithTransactions) {
-					chainItem.getBlock().nullifyTransactions();
-				}
-			}
+		// The new item might belong to a height which was covered already
+		if (newChainItem.getHeight() < minHeightOfLoadedTransactions) {
+			newChainItem.getBlock().nullifyTransactions();
 		}
 	}
 
@@ -488,9 +491,13 @@ public class Chain {
 			return GenesisBlock.getInstance();
 		}
 
-		// Iterates through the blocks list and returns the block if found
-		for (ChainItem chainItem : blocks) {
-			if (chainItem.getHeight() == height) {
+		// Looks up the index and returns the block if found
+		List<ChainItem> chainItemsAtHeight = index.findAtHeight(height);
+		if (chainItemsAtHeight.size() == 1) {
+			return chainItemsAtHeight.get(0).getBlock();
+		} else if (chainItemsAtHeight.size() > 1) {
+			ChainItem chainItem = findActiveItemInIndex(height);
+			if (chainItem != null) {
 				return chainItem.getBlock();
 			}
 		}
@@ -499,6 +506,19 @@ public class Chain {
 		return Block.blockDao.getActiveChainItem(height).getBlock();
 	}
 
+	/**
+	 * Finds the active chain item at the given height by walking the index back
+	 * from the active tip. Returns null if the walk leaves the index.
+	 * 
+	 */
+	private ChainItem findActiveItemInIndex(int height) {
+		ChainItem chainItem = getHighestTip();
+		while (chainItem != null && chainItem.getHeight() > height) {
+			chainItem = findItemInIndex(chainItem.getBlock().getPreviousBlock());
+		}
+		return chainItem;
+	}
+
 	/**
 	 * Returns the last active block.
 	 * 
@@ -0,0 +1,141 @@
+package com.example.blockchain.domain.chain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.example.blockchain.util.ByteArrayKey;
+
+/**
+ * Indexes the chain items which are loaded in memory by block hash and by
+ * height, and keeps track of the tips among them.
+ *
+ */
+class ChainIndex {
+
+	private Map<ByteArrayKey, ChainItem> itemsByHash = new HashMap<>();
+	private NavigableMap<Integer, List<ChainItem>> itemsByHeight = new TreeMap<>();
+	private Set<ChainItem> tips = new LinkedHashSet<>();
+
+	/**
+	 * Adds the given chain item to the index. Returns false if an item with the
+	 * same block hash is already indexed.
+	 *
+	 */
+	boolean add(ChainItem chainItem) {
+		ByteArrayKey key = new ByteArrayKey(chainItem.getBlock().getHash());
+		if (itemsByHash.containsKey(key)) {
+			return false;
+		}
+		itemsByHash.put(key, chainItem);
+		List<ChainItem> itemsAtHeight = itemsByHeight.get(chainItem.getHeight());
+		if (itemsAtHeight == null) {
+			itemsAtHeight = new ArrayList<>(1);
+			itemsByHeight.put(chainItem.getHeight(), itemsAtHeight);
+		}
+		itemsAtHeight.add(chainItem);
+		return true;
+	}
+
+	/**
+	 * Finds the chain item with the given block hash.
+	 *
+	 */
+	ChainItem find(byte[] blockHash) {
+		return itemsByHash.get(new ByteArrayKey(blockHash));
+	}
+
+	/**
+	 * Returns the chain items at the given height.
+	 *
+	 */
+	List<ChainItem> findAtHeight(int height) {
+		List<ChainItem> itemsAtHeight = itemsByHeight.get(height);
+		if (itemsAtHeight == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(itemsAtHeight);
+	}
+
+	/**
+	 * Returns the chain items with heights starting with 'fromHeight' (inclusive)
+	 * and ending with 'toHeight' (exclusive).
+	 *
+	 */
+	List<ChainItem> findBetweenHeights(int fromHeight, int toHeight) {
+		List<ChainItem> chainItems = new ArrayList<>();
+		if (fromHeight >= toHeight) {
+			return chainItems;
+		}
+		for (List<ChainItem> itemsAtHeight : itemsByHeight.subMap(fromHeight, true, toHeight, false).values()) {
+			chainItems.addAll(itemsAtHeight);
+		}
+		return chainItems;
+	}
+
+	/**
+	 * Adds the given chain item to the tips. The item should be indexed already.
+	 *
+	 */
+	void addTip(ChainItem chainItem) {
+		tips.add(chainItem);
+	}
+
+	/**
+	 * Removes the given chain item from the tips.
+	 *
+	 */
+	void removeTip(ChainItem chainItem) {
+		tips.remove(chainItem);
+	}
+
+	/**
+	 * Returns the tips.
+	 *
+	 */
+	Collection<ChainItem> getTips() {
+		return Collections.unmodifiableSet(tips);
+	}
+
+	/**
+	 * Removes the chain items (and tips) with heights less than the given height.
+	 *
+	 */
+	void removeBelowHeight(int minHeight) {
+		NavigableMap<Integer, List<ChainItem>> itemsToBeRemoved = itemsByHeight.headMap(minHeight, false);
+		Iterator<List<ChainItem>> iterator = itemsToBeRemoved.values().iterator();
+		while (iterator.hasNext()) {
+			for (ChainItem chainItem : iterator.next()) {
+				itemsByHash.remove(new ByteArrayKey(chainItem.getBlock().getHash()));
+				tips.remove(chainItem);
+			}
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of indexed chain items.
+	 *
+	 */
+	int size() {
+		return itemsByHash.size();
+	}
+
+	/**
+	 * Removes all the chain items and tips.
+	 *
+	 */
+	void clear() {
+		itemsByHash.clear();
+		itemsByHeight.clear();
+		tips.clear();
+	}
+}
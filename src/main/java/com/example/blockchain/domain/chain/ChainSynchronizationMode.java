@@ -0,0 +1,12 @@
+package com.example.blockchain.domain.chain;
+
+/**
+ * The ways in which the chain synchronizer downloads the missing blocks.
+ *
+ */
+public enum ChainSynchronizationMode {
+
+	BLOCK_BY_HEIGHT, // Requests the blocks of one height per request
+	HEIGHT_RANGES, // Requests the blocks of a range of heights per request
+	HEADERS_FIRST; // Requests the block headers first, then the bodies of the best header chain by hash
+}
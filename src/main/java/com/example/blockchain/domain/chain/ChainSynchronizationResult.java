@@ -2,5 +2,5 @@ package com.example.blockchain.domain.chain;
 
 public enum ChainSynchronizationResult {
 
-	SUCCESS, NOT_ENOUGH_NODES, NO_REPLIES, CHAIN_INITIALIZATION_FAILED;
+	SUCCESS, NOT_ENOUGH_NODES, NO_REPLIES, CHAIN_INITIALIZATION_FAILED, INVALID_BLOCK_HEADERS;
 }
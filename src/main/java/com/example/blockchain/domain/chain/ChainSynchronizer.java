@@ -30,6 +30,14 @@ public class ChainSynchronizer implements NodeAvailabilitySubscriber {
 	private static final int CHAIN_SYNCH_DELAY_IF_BUSY = 1000 * 60 * 5; // Five minutes
 	private static final int MAX_ALLOWED_NUMBER_OF_FAILURES = 5; // Five minutes
 	private static final int MIN_NUMBER_OF_NODES = 1;
+	private static final int MAX_NUMBER_OF_IN_FLIGHT_REQUESTS = 16;
+	private static final int MAX_NUMBER_OF_BUFFERED_HEIGHTS = 1024;
+	private static final long MAX_BUFFERED_PAYLOAD_SIZE = 1024 * 1024 * 64; // 64 megabytes
+	private static final int INITIAL_CHUNK_SIZE = 16; // In blocks
+	private static final int MAX_CHUNK_SIZE = 512; // In blocks
+	private static final long TARGET_CHUNK_LATENCY = 1000 * 5; // Five seconds
+	private static final long MAX_CHUNK_PAYLOAD_SIZE = 1024 * 1024 * 16; // 16 megabytes
+	private static final int MAX_NUMBER_OF_HEADERS_PER_REQUEST = 2000;
 
 	private Queue<BlockDownloadRequest> downloadQueue = new PriorityQueue<>();
 
@@ -40,6 +48,8 @@ public class ChainSynchronizer implements NodeAvailabilitySubscriber {
 									// is in synch frequently
 	private Timer timer = new Timer();
 	private boolean needsToUpdateWithEnoughNodes = false;
+	private ChainSynchronizationMode mode = ChainSynchronizationMode.HEIGHT_RANGES;
+	private AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(INITIAL_CHUNK_SIZE, 1, MAX_CHUNK_SIZE, TARGET_CHUNK_LATENCY, MAX_CHUNK_PAYLOAD_SIZE);
 
 	public ChainSynchronizer(NetworkInterface networkInterface, boolean alwaysRunning) {
 		this(null, networkInterface, alwaysRunning);
@@ -60,6 +70,19 @@ public class ChainSynchronizer implements NodeAvailabilitySubscriber {
 		return busy;
 	}
 
+	public ChainSynchronizationMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Sets the way in which the missing blocks are downloaded. Takes effect with
+	 * the next synchronization.
+	 * 
+	 */
+	public void setMode(ChainSynchronizationMode mode) {
+		this.mode = mode;
+	}
+
 	/**
 	 * Synchs the chain with the network.
 	 * 
@@ -239,11 +262,93 @@ public class ChainSynchronizer implements NodeAvailabilitySubscriber {
 		this.busy = false;
 	}
 
+	/**
+	 * Downloads the blocks above the current chain height using a pipeline which
+	 * keeps several requests in flight. Depending on the mode, each request covers
+	 * one height or an adaptive range of heights; in the HEADERS_FIRST mode the
+	 * headers are downloaded and validated before the blocks.
+	 * 
+	 */
 	private void downloadBlocks(int currentChainHeight, int networkHeight, Callback<ChainSynchronizationResult> callback) {
-		for (int i = currentChainHeight + 1; i <= networkHeight; i++) {
-			downloadQueue.add(new BlockDownloadRequest(i, null, null));
+		if (mode == ChainSynchronizationMode.HEADERS_FIRST) {
+			downloadHeadersThenBlocks(currentChainHeight, networkHeight, callback);
+			return;
 		}
-		processDownloadRequests(callback);
+
+		ChainSynchronizationMode pipelineMode = (mode == ChainSynchronizationMode.BLOCK_BY_HEIGHT) ? mode : ChainSynchronizationMode.HEIGHT_RANGES;
+		runPipeline(new BlockDownloadPipeline(chain, networkInterface, pipelineMode, chunkSize, currentChainHeight + 1, networkHeight,
+				MAX_NUMBER_OF_IN_FLIGHT_REQUESTS, MAX_NUMBER_OF_BUFFERED_HEIGHTS, MAX_BUFFERED_PAYLOAD_SIZE, MAX_ALLOWED_NUMBER_OF_FAILURES), callback);
+	}
+
+	/**
+	 * Downloads the headers above the current chain height first and validates
+	 * their links and proof of work. The blocks are downloaded (by hash, in
+	 * parallel) only if the headers carry more chainwork than the active chain. If
+	 * the headers do not link to the chain, the blocks are downloaded by height
+	 * ranges instead so that the fork is resolved through the orphan blocks.
+	 * 
+	 */
+	private void downloadHeadersThenBlocks(int currentChainHeight, int networkHeight, Callback<ChainSynchronizationResult> callback) {
+		BlockHeadersDownloader headersDownloader = new BlockHeadersDownloader(chain, networkInterface, currentChainHeight + 1, networkHeight,
+				MAX_NUMBER_OF_HEADERS_PER_REQUEST, MAX_ALLOWED_NUMBER_OF_FAILURES);
+		headersDownloader.start(new Callback<ChainSynchronizationResult>() {
+			@Override
+			public void onSuccess(ChainSynchronizationResult result) {
+				if (!headersDownloader.isLinkedToChain()) {
+					runPipeline(new BlockDownloadPipeline(chain, networkInterface, ChainSynchronizationMode.HEIGHT_RANGES, chunkSize,
+							currentChainHeight + 1, networkHeight, MAX_NUMBER_OF_IN_FLIGHT_REQUESTS, MAX_NUMBER_OF_BUFFERED_HEIGHTS,
+							MAX_BUFFERED_PAYLOAD_SIZE, MAX_ALLOWED_NUMBER_OF_FAILURES), callback);
+				} else if (headersDownloader.getHeaders().isEmpty()
+						|| headersDownloader.getChainWork() <= chain.getLastActiveChainItem().getChainWork()) {
+					// The headers do not lead to a chain with more work than the active one
+					callback.onSuccess(ChainSynchronizationResult.SUCCESS);
+					scheduleChainSynch(CHAIN_SYNCH_INTERVAL);
+					busy = false;
+					log.info("Chain synchronization completed successfully; the network headers carry no more chainwork");
+				} else {
+					runPipeline(new BlockDownloadPipeline(chain, networkInterface, headersDownloader.getHeaders(), currentChainHeight + 1,
+							MAX_NUMBER_OF_IN_FLIGHT_REQUESTS, MAX_NUMBER_OF_BUFFERED_HEIGHTS, MAX_BUFFERED_PAYLOAD_SIZE,
+							MAX_ALLOWED_NUMBER_OF_FAILURES), callback);
+				}
+			}
+
+			@Override
+			public void onFailure(ChainSynchronizationResult result) {
+				if (result == ChainSynchronizationResult.NOT_ENOUGH_NODES) {
+					needsToUpdateWithEnoughNodes = true;
+				}
+				callback.onFailure(result);
+				busy = false;
+			}
+		});
+	}
+
+	/**
+	 * Runs the given pipeline. Orphan blocks found by the pipeline are queued to be
+	 * synched by hash afterwards.
+	 * 
+	 */
+	private void runPipeline(BlockDownloadPipeline pipeline, Callback<ChainSynchronizationResult> callback) {
+		pipeline.start(new Callback<ChainSynchronizationResult>() {
+			@Override
+			public void onSuccess(ChainSynchronizationResult result) {
+				int orphanHeight = pipeline.getOrphanHeight();
+				for (Block block : pipeline.getOrphanBlocks()) {
+					BlockDownloadRequest orphanRequest = new BlockDownloadRequest(orphanHeight, null, null, block);
+					downloadQueue.add(new BlockDownloadRequest(orphanHeight - 1, block.getPreviousBlock().getHash(), orphanRequest));
+				}
+				processDownloadRequests(callback);
+			}
+
+			@Override
+			public void onFailure(ChainSynchronizationResult result) {
+				if (result == ChainSynchronizationResult.NOT_ENOUGH_NODES) {
+					needsToUpdateWithEnoughNodes = true;
+				}
+				callback.onFailure(result);
+				busy = false;
+			}
+		});
 	}
 
 	private void processDownloadRequests(Callback<ChainSynchronizationResult> callback) {
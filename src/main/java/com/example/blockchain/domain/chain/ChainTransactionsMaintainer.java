@@ -2,20 +2,27 @@ package com.example.blockchain.domain.chain;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.example.blockchain.DualReturn;
+import com.example.blockchain.dao.BlockUndoDao;
 import com.example.blockchain.dao.TransactionDao;
 import com.example.blockchain.dao.UnspentTransactionOutputDao;
 import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.BlockUndo;
+import com.example.blockchain.domain.transaction.Outpoint;
 import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.TransactionInput;
 import com.example.blockchain.domain.transaction.pool.TransactionsPool;
 import com.example.blockchain.domain.transaction.utxo.TransactionOutputsObserver;
 import com.example.blockchain.domain.transaction.utxo.UnspentTransactionOutput;
+import com.example.blockchain.util.ByteArrayKey;
 
 /**
  * Maintains the correctness of the transactions (and UTXOs) of the chain after
@@ -32,31 +39,54 @@ public class ChainTransactionsMaintainer {
 
 	private UnspentTransactionOutputDao unspentTransactionOutputDao;
 
+	private BlockUndoDao blockUndoDao; // No undo data is kept if null
+
 	public ChainTransactionsMaintainer(Set<TransactionOutputsObserver> transactionOutputsObservers, TransactionsPool transactionsPool,
 			TransactionDao transactionDao, UnspentTransactionOutputDao unspentTransactionOutputDao) {
 
+		this(transactionOutputsObservers, transactionsPool, transactionDao, unspentTransactionOutputDao, null);
+	}
+
+	/**
+	 * Creates a maintainer which keeps the undo data of the connected blocks in
+	 * the given DAO, so that disconnecting a block restores the outputs it spent
+	 * without loading the transactions which produced them.
+	 * 
+	 */
+	public ChainTransactionsMaintainer(Set<TransactionOutputsObserver> transactionOutputsObservers, TransactionsPool transactionsPool,
+			TransactionDao transactionDao, UnspentTransactionOutputDao unspentTransactionOutputDao, BlockUndoDao blockUndoDao) {
+
 		this.transactionOutputsObservers = transactionOutputsObservers;
 		this.transactionsPool = transactionsPool;
 		this.transactionDao = transactionDao;
 		this.unspentTransactionOutputDao = unspentTransactionOutputDao;
+		this.blockUndoDao = blockUndoDao;
 	}
 
 	public void maintainAfterAddingBlockToActiveBranch(Block newBlock) {
 		// Procedure:
 		// Remove the TXs from the pool
 		// Add the TXs to the storage
+		// Save the undo data of the block
 		// Save the produced UTXOs to the storage
-		// Delete the consumed UTXOs from the storage
+		// Delete the consumed UTXOs from the storage (after saving, as an output can
+		// be produced and consumed in the same block)
 
 		Transaction[] transactions = newBlock.getTransactions();
-		DualReturn<List<UnspentTransactionOutput>, List<UnspentTransactionOutput>> consumedAndProducedOutputs = getConsumedAndProducedTransactionOutputs(
-				Arrays.asList(transactions));
+		BlockUndo blockUndo = BlockUndo.create(newBlock);
+		List<UnspentTransactionOutput> consumedOutputs = new ArrayList<>(); // To be deleted from UTXOs
+		List<UnspentTransactionOutput> producedOutputs = new ArrayList<>(); // To be added to UTXOs
+		for (int i = 0; i < transactions.length; i++) {
+			consumedOutputs.addAll(Arrays.asList(blockUndo.getSpentOutputs(i)));
+			producedOutputs.addAll(Arrays.asList(transactions[i].getProducedOutputs()));
+		}
 		transactionsPool.removeTransactions(transactions);
 		transactionDao.save(transactions);
-		List<UnspentTransactionOutput> consumedOutputs = consumedAndProducedOutputs.getValue1(); // To be deleted from UTXOs
-		List<UnspentTransactionOutput> producedOutputs = consumedAndProducedOutputs.getValue2(); // To be added to UTXOs
-		unspentTransactionOutputDao.delete(consumedOutputs);
+		if (blockUndoDao != null) {
+			blockUndoDao.save(newBlock.getHash(), blockUndo);
+		}
 		unspentTransactionOutputDao.save(producedOutputs);
+		unspentTransactionOutputDao.delete(consumedOutputs);
 		notifyTransactionOutputsObserver(producedOutputs, consumedOutputs);
 	}
 
@@ -65,9 +95,11 @@ public class ChainTransactionsMaintainer {
 		// Old Tip: Add the TXs to the pool
 		// Old Tip: Delete the TXs from the storage
 		// Old Tip: Delete the produced UTXOs from the storage
-		// Old Tip: Restore the consumed UTXOs to the storage
+		// Old Tip: Restore the consumed UTXOs (read from the undo data) to the storage
+		// Old Tip: Delete the undo data of the blocks
 		// New Tip: Remove the TXs from the pool
 		// New Tip: Add the TXs to the storage
+		// New Tip: Save the undo data of the blocks
 		// New Tip: Save the produced UTXOs to the storage
 		// New Tip: Delete the consumed UTXOs from the storage
 
@@ -76,117 +108,164 @@ public class ChainTransactionsMaintainer {
 		Block oldestParentOfOldBranch = oldestNonSharedParents.getValue1();
 		Block oldestParentOfNewBranch = oldestNonSharedParents.getValue2();
 
-		// Collects the transactions of the old branch and new branch which are not
-		// shared between the two
-		List<Transaction> transactionsOfOldBranch = collectTransactionsOfChainSubset(oldestParentOfOldBranch, oldTip);
-		List<Transaction> transactionsOfNewBranch = collectTransactionsOfChainSubset(oldestParentOfNewBranch, newTip);
-		removeSharedTransactions(transactionsOfOldBranch, transactionsOfNewBranch);
-
-		// Collects the UTXOs that are to be added and those to be deleted
-		DualReturn<List<UnspentTransactionOutput>, List<UnspentTransactionOutput>> oldConsumedAndProducedOutputs = getConsumedAndProducedTransactionOutputs(
-				transactionsOfOldBranch);
-		List<UnspentTransactionOutput> oldConsumedOutputs = oldConsumedAndProducedOutputs.getValue1(); // To be added to UTXOs
-		List<UnspentTransactionOutput> oldProducedOutputs = oldConsumedAndProducedOutputs.getValue2(); // To be deleted from UTXOs
-		DualReturn<List<UnspentTransactionOutput>, List<UnspentTransactionOutput>> newConsumedAndProducedOutputs = getConsumedAndProducedTransactionOutputs(
-				transactionsOfNewBranch);
-		List<UnspentTransactionOutput> newConsumedOutputs = newConsumedAndProducedOutputs.getValue1(); // To be deleted from UTXOs
-		List<UnspentTransactionOutput> newProducedOutputs = newConsumedAndProducedOutputs.getValue2(); // To be added to UTXOs
-
-		// Removes the outputs which are supposed to be added then deleted and those
-		// which are supposed to be deleted then added because doing two operations that
-		// cancel each other is unnecessary
-		removeSharedOutputs(oldConsumedOutputs, newConsumedOutputs);
-		removeSharedOutputs(oldProducedOutputs, newProducedOutputs);
-
-		// Constructs the list of outputs which should be added
-		Set<UnspentTransactionOutput> outputsToSave = new HashSet<>();
-		outputsToSave.addAll(oldConsumedOutputs);
-		outputsToSave.addAll(newProducedOutputs);
-
-		// Constructs the list of outputs which should be deleted
-		Set<UnspentTransactionOutput> outputsToDelete = new HashSet<>();
-		outputsToDelete.addAll(oldProducedOutputs);
-		outputsToDelete.addAll(newConsumedOutputs);
-
-		transactionsPool.addTransactions(transactionsOfOldBranch.toArray(new Transaction[transactionsOfOldBranch.size()]));
+		// Collects the blocks of the old branch and new branch, in chain order, and
+		// the transactions shared between the two, which are left as they are
+		List<Block> blocksOfOldBranch = collectBlocksOfChainSubset(oldestParentOfOldBranch, oldTip);
+		List<Block> blocksOfNewBranch = collectBlocksOfChainSubset(oldestParentOfNewBranch, newTip);
+		Set<ByteArrayKey> sharedTransactionIds = collectTransactionIds(blocksOfOldBranch);
+		sharedTransactionIds.retainAll(collectTransactionIds(blocksOfNewBranch));
+
+		// Collects the net changes to the UTXOs: disconnecting the old branch deletes
+		// what it produced and restores what it consumed, then connecting the new
+		// branch deletes what it consumes and saves what it produces. Two operations
+		// on the same output cancel each other, so each output is written once at most
+		Map<Outpoint, UnspentTransactionOutput> outputsToSave = new LinkedHashMap<>();
+		Map<Outpoint, UnspentTransactionOutput> outputsToDelete = new LinkedHashMap<>();
+		List<Transaction> transactionsOfOldBranch = new ArrayList<>();
+		for (Block block : blocksOfOldBranch) {
+			Transaction[] transactions = block.getTransactions();
+			BlockUndo blockUndo = findBlockUndo(block);
+			for (int i = 0; i < transactions.length; i++) {
+				Transaction tx = transactions[i];
+				if (sharedTransactionIds.contains(new ByteArrayKey(tx.getId()))) {
+					continue;
+				}
+				transactionsOfOldBranch.add(tx);
+				addOutputChanges(tx.getProducedOutputs(), outputsToDelete, outputsToSave);
+				addOutputChanges(blockUndo != null ? blockUndo.getSpentOutputs(i) : tx.getConsumedOutputs(), outputsToSave, outputsToDelete);
+			}
+		}
+		List<Transaction> transactionsOfNewBranch = new ArrayList<>();
+		List<BlockUndo> blockUndosOfNewBranch = new ArrayList<>(blocksOfNewBranch.size());
+		for (Block block : blocksOfNewBranch) {
+			Transaction[] transactions = block.getTransactions();
+			BlockUndo blockUndo = blockUndoDao != null ? BlockUndo.create(block) : null;
+			blockUndosOfNewBranch.add(blockUndo);
+			for (int i = 0; i < transactions.length; i++) {
+				Transaction tx = transactions[i];
+				if (sharedTransactionIds.contains(new ByteArrayKey(tx.getId()))) {
+					continue;
+				}
+				transactionsOfNewBranch.add(tx);
+				addOutputChanges(blockUndo != null ? blockUndo.getSpentOutputs(i) : tx.getConsumedOutputs(), outputsToDelete, outputsToSave);
+				addOutputChanges(tx.getProducedOutputs(), outputsToSave, outputsToDelete);
+			}
+		}
+
+		transactionsPool.addTransactions(collectTransactionsToReturnToPool(transactionsOfOldBranch));
 		transactionDao.delete(transactionsOfOldBranch.toArray(new Transaction[transactionsOfOldBranch.size()]));
 		transactionsPool.removeTransactions(transactionsOfNewBranch.toArray(new Transaction[transactionsOfNewBranch.size()]));
 		transactionDao.save(transactionsOfNewBranch.toArray(new Transaction[transactionsOfNewBranch.size()]));
-		List<UnspentTransactionOutput> outputsToSaveList = new ArrayList<>();
-		outputsToSaveList.addAll(outputsToSave);
-		List<UnspentTransactionOutput> outputsToDeleteList = new ArrayList<>();
-		outputsToDeleteList.addAll(outputsToDelete);
+		if (blockUndoDao != null) {
+			for (Block block : blocksOfOldBranch) {
+				blockUndoDao.delete(block.getHash());
+			}
+			for (int i = 0; i < blocksOfNewBranch.size(); i++) {
+				blockUndoDao.save(blocksOfNewBranch.get(i).getHash(), blockUndosOfNewBranch.get(i));
+			}
+		}
+		List<UnspentTransactionOutput> outputsToSaveList = new ArrayList<>(outputsToSave.values());
+		List<UnspentTransactionOutput> outputsToDeleteList = new ArrayList<>(outputsToDelete.values());
 		unspentTransactionOutputDao.save(outputsToSaveList);
 		unspentTransactionOutputDao.delete(outputsToDeleteList);
 		notifyTransactionOutputsObserver(outputsToSaveList, outputsToDeleteList);
 	}
 
 	/**
-	 * Collects the transactions of the branch subset which starts with the given
-	 * 'firstBlock' and ends with the given 'lastBlock'.
+	 * Collects the blocks of the branch subset which starts with the given
+	 * 'firstBlock' and ends with the given 'lastBlock', in chain order.
 	 * 
 	 */
-	private List<Transaction> collectTransactionsOfChainSubset(Block firstBlock, Block lastBlock) {
+	private List<Block> collectBlocksOfChainSubset(Block firstBlock, Block lastBlock) {
+		List<Block> blocks = new ArrayList<>();
 		Block block = lastBlock;
-		List<Transaction> transactions = new LinkedList<>();
 		while (true) {
-			transactions.addAll(Arrays.asList(block.getTransactions())); // FIXME Potential performance degradation
+			blocks.add(block);
 			if (block == firstBlock) {
 				break;
 			}
 			block = block.getPreviousBlock();
 		}
-		return transactions;
+		Collections.reverse(blocks);
+		return blocks;
+	}
+
+	private Set<ByteArrayKey> collectTransactionIds(List<Block> blocks) {
+		Set<ByteArrayKey> ids = new HashSet<>();
+		for (Block block : blocks) {
+			for (Transaction tx : block.getTransactions()) {
+				ids.add(new ByteArrayKey(tx.getId()));
+			}
+		}
+		return ids;
 	}
 
 	/**
-	 * Removes the transactions that are shared between the two given lists.
+	 * Finds the undo data of the given block, or returns null if there is none
+	 * (e.g. the block was connected without keeping it), in which case the spent
+	 * outputs are read from the transactions which produced them.
 	 * 
 	 */
-	private void removeSharedTransactions(List<Transaction> list1, List<Transaction> list2) {
-		Iterator<Transaction> list1Iterator = list1.iterator();
-		Iterator<Transaction> list2Iterator;
-		Transaction list1Tx = null;
-		Transaction list2Tx = null;
-		while (list1Iterator.hasNext()) {
-			list1Tx = list1Iterator.next();
-			list2Iterator = list2.iterator();
-			while (list2Iterator.hasNext()) {
-				list2Tx = list2Iterator.next();
-				if (Arrays.equals(list1Tx.getId(), list2Tx.getId())) {
-					list1Iterator.remove();
-					list2Iterator.remove();
-					break;
-				}
+	private BlockUndo findBlockUndo(Block block) {
+		if (blockUndoDao == null) {
+			return null;
+		}
+		BlockUndo blockUndo = blockUndoDao.find(block.getHash());
+		if (blockUndo == null || blockUndo.getNumberOfTransactions() != block.getTransactions().length) {
+			return null;
+		}
+		return blockUndo;
+	}
+
+	/**
+	 * Adds the given outputs to the given changes, unless an opposite change on
+	 * the same output is pending, in which case both are dropped.
+	 * 
+	 */
+	private void addOutputChanges(UnspentTransactionOutput[] outputs, Map<Outpoint, UnspentTransactionOutput> changes,
+			Map<Outpoint, UnspentTransactionOutput> oppositeChanges) {
+
+		for (UnspentTransactionOutput output : outputs) {
+			Outpoint outpoint = new Outpoint(output.getTransaction().getId(), output.getOutputIndex());
+			if (oppositeChanges.remove(outpoint) == null) {
+				changes.put(outpoint, output);
 			}
 		}
 	}
 
 	/**
-	 * Removes the outputs that are shared between the two given lists.
+	 * Collects the transactions of a disconnected branch which can return to the
+	 * pool, in chain order so that parents come first: neither the coinbase
+	 * transactions nor the transactions spending their outputs, as those outputs
+	 * no longer exist.
 	 * 
 	 */
-	private void removeSharedOutputs(List<UnspentTransactionOutput> list1, List<UnspentTransactionOutput> list2) {
-		Iterator<UnspentTransactionOutput> list1Iterator = list1.iterator();
-		Iterator<UnspentTransactionOutput> list2Iterator;
-		UnspentTransactionOutput list1Output = null;
-		UnspentTransactionOutput list2Output = null;
-		while (list1Iterator.hasNext()) {
-			list1Output = list1Iterator.next();
-			list2Iterator = list2.iterator();
-			while (list2Iterator.hasNext()) {
-				list2Output = list2Iterator.next();
-				if (list1Output.getTransaction().equals(list2Output.getTransaction()) && list1Output.getOutputIndex() == list2Output.getOutputIndex()) {
-					list1Iterator.remove();
-					list2Iterator.remove();
-					break;
+	private Transaction[] collectTransactionsToReturnToPool(List<Transaction> transactionsOfOldBranch) {
+		Set<ByteArrayKey> excludedIds = new HashSet<>();
+		List<Transaction> transactions = new ArrayList<>(transactionsOfOldBranch.size());
+		for (Transaction tx : transactionsOfOldBranch) {
+			boolean excluded = tx.isCoinbase();
+			if (!excluded) {
+				for (TransactionInput input : tx.getInputs()) {
+					if (excludedIds.contains(new ByteArrayKey(input.getTransaction().getId()))) {
+						excluded = true;
+						break;
+					}
 				}
 			}
+			if (excluded) {
+				excludedIds.add(new ByteArrayKey(tx.getId()));
+			} else {
+				transactions.add(tx);
+			}
 		}
+		return transactions.toArray(new Transaction[transactions.size()]);
 	}
 
 	/**
-	 * Finds the oldest non-shared parent blocks of the two given tips.
+	 * Finds the oldest non-shared parent blocks of the two given tips: walks down
+	 * both branches in turn until a block of one of them has the same previous
+	 * block as a block already walked on the other.
 	 * 
 	 */
 	private DualReturn<Block, Block> findOldestNonSharedParents(Block oldTip, Block newTip) {
@@ -194,28 +273,35 @@ public class ChainTransactionsMaintainer {
 			return new DualReturn<>(oldTip, newTip);
 		}
 
-		List<Block> blocksOfOldBranch = new ArrayList<>();
-		blocksOfOldBranch.add(oldTip);
-		List<Block> blocksOfNewBranch = new ArrayList<>();
-		blocksOfNewBranch.add(newTip);
+		// The walked blocks of each branch, by the hash of their previous block
+		Map<ByteArrayKey, Block> blocksOfOldBranch = new HashMap<>();
+		blocksOfOldBranch.put(new ByteArrayKey(oldTip.getPreviousBlock().getHash()), oldTip);
+		Map<ByteArrayKey, Block> blocksOfNewBranch = new HashMap<>();
+		blocksOfNewBranch.put(new ByteArrayKey(newTip.getPreviousBlock().getHash()), newTip);
 		boolean checkOldBranch = true;
 		while (true) {
+			// A branch which reached the block after the genesis block waits for the other
+			if (checkOldBranch && oldTip.getPreviousBlock().getPreviousBlock() == null) {
+				checkOldBranch = false;
+			} else if (!checkOldBranch && newTip.getPreviousBlock().getPreviousBlock() == null) {
+				checkOldBranch = true;
+			}
 			if (checkOldBranch) {
 				oldTip = oldTip.getPreviousBlock();
-				blocksOfOldBranch.add(oldTip);
-				for (Block block : blocksOfNewBranch) {
-					if (findIfBlocksHaveSamePreviousBlock(oldTip, block)) {
-						return new DualReturn<>(oldTip, block);
-					}
+				ByteArrayKey previousHash = new ByteArrayKey(oldTip.getPreviousBlock().getHash());
+				Block block = blocksOfNewBranch.get(previousHash);
+				if (block != null) {
+					return new DualReturn<>(oldTip, block);
 				}
+				blocksOfOldBranch.put(previousHash, oldTip);
 			} else {
 				newTip = newTip.getPreviousBlock();
-				blocksOfNewBranch.add(newTip);
-				for (Block block : blocksOfOldBranch) {
-					if (findIfBlocksHaveSamePreviousBlock(newTip, block)) {
-						return new DualReturn<>(block, newTip);
-					}
+				ByteArrayKey previousHash = new ByteArrayKey(newTip.getPreviousBlock().getHash());
+				Block block = blocksOfOldBranch.get(previousHash);
+				if (block != null) {
+					return new DualReturn<>(block, newTip);
 				}
+				blocksOfNewBranch.put(previousHash, newTip);
 			}
 			checkOldBranch = !checkOldBranch;
 		}
@@ -229,23 +315,6 @@ public class ChainTransactionsMaintainer {
 		return Arrays.equals(block1.getPreviousBlock().getHash(), block2.getPreviousBlock().getHash());
 	}
 
-	/**
-	 * Gets the consumed transaction outputs and the produced transaction outputs
-	 * from the given transactions.
-	 * 
-	 */
-	private DualReturn<List<UnspentTransactionOutput>, List<UnspentTransactionOutput>> getConsumedAndProducedTransactionOutputs(
-			List<Transaction> transactions) {
-
-		List<UnspentTransactionOutput> consumedTransactionOutputs = new ArrayList<>(transactions.size());
-		List<UnspentTransactionOutput> producedTransactionOutputs = new ArrayList<>(transactions.size());
-		for (Transaction tx : transactions) {
-			consumedTransactionOutputs.addAll(Arrays.asList(tx.getConsumedOutputs()));
-			producedTransactionOutputs.addAll(Arrays.asList(tx.getProducedOutputs()));
-		}
-		return new DualReturn<List<UnspentTransactionOutput>, List<UnspentTransactionOutput>>(consumedTransactionOutputs, producedTransactionOutputs);
-	}
-
 	private void notifyTransactionOutputsObserver(List<UnspentTransactionOutput> addedOutputs, List<UnspentTransactionOutput> deletedOutputs) {
 		for (TransactionOutputsObserver observer : transactionOutputsObservers) {
 			observer.outputsUpdated(addedOutputs, deletedOutputs);
@@ -0,0 +1,273 @@
+package com.example.blockchain.domain.miner;
+
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.block.builder.BlockBuilderV1;
+import com.example.blockchain.domain.block.builder.BuildBlockForm;
+import com.example.blockchain.domain.block.merkle.MerkleTree;
+import com.example.blockchain.domain.transaction.Outpoint;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.TransactionInput;
+import com.example.blockchain.domain.transaction.builder.BuildCoinbaseTransactionForm;
+import com.example.blockchain.domain.transaction.pool.TransactionsPool;
+import com.example.blockchain.domain.transaction.script.TransactionScriptsType;
+import com.example.blockchain.util.BlockSubsidyUtil;
+import com.example.blockchain.util.ByteArrayKey;
+
+/**
+ * The transactions of the next block to mine, kept up to date as the chain and
+ * the pool change instead of being selected again. The fees and size of the
+ * transactions are running totals, and the merkle tree is extended leaf by leaf
+ * as transactions are added. When a block extends the previous block of the
+ * template, its transactions and those conflicting with them are removed and
+ * the template moves to the next height. A transaction which leaves the pool
+ * otherwise is removed with its descendants. The coinbase transaction is rebuilt
+ * only when a candidate block is built with different fees.
+ *
+ * An instance is not thread safe.
+ *
+ */
+class BlockTemplate {
+
+	private static final int MAX_VAR_INT_SIZE = 3; // The number of transactions should not exceed the capacity of a two-byte VarInt
+
+	private TransactionsPool transactionsPool;
+	private Block previousBlock;
+	private int height;
+	private BuildCoinbaseTransactionForm buildCoinbaseTransactionForm;
+	private Transaction coinbaseTransaction;
+	private int maxTransactionsSize; // In bytes; the room left by the header and the coinbase transaction
+
+	private List<Transaction> transactions = new ArrayList<>(); // Without the coinbase, every parent before its children
+	private List<Long> transactionsFees = new ArrayList<>(); // In the order of the transactions
+	private Set<ByteArrayKey> transactionIds = new HashSet<>();
+	private Set<Outpoint> spentOutpoints = new HashSet<>();
+	private MerkleTree merkleTree; // Its first leaf is the ID of the coinbase transaction
+	private long fees = 0;
+	private int transactionsSize = 0; // In bytes
+
+	BlockTemplate(TransactionsPool transactionsPool, Block previousBlock, int height, PublicKey rewardPublicKey) {
+		this.transactionsPool = transactionsPool;
+		this.buildCoinbaseTransactionForm = new BuildCoinbaseTransactionForm(TransactionScriptsType.PAY_TO_PUBLIC_KEY, height, null, null,
+				rewardPublicKey, null);
+		moveTo(previousBlock, height);
+	}
+
+	/**
+	 * Fills the room left in the template with the best transactions of the pool
+	 * which are not in it yet.
+	 *
+	 */
+	void fill() {
+		if (transactionsSize >= maxTransactionsSize) {
+			return;
+		}
+		for (Transaction tx : transactionsPool.getCandidatePackages(maxTransactionsSize - transactionsSize, transactionIds)) {
+			addTransaction(tx);
+		}
+	}
+
+	/**
+	 * Adds the given transaction from the pool if it fits, does not conflict with
+	 * the template, and its parents in the pool are in the template. Returns
+	 * whether it was added.
+	 *
+	 */
+	boolean addTransaction(Transaction tx) {
+		ByteArrayKey id = new ByteArrayKey(tx.getId());
+		if (transactionIds.contains(id) || transactionsSize + tx.getSize() > maxTransactionsSize) {
+			return false;
+		}
+		for (TransactionInput input : tx.getInputs()) {
+			byte[] parentId = input.getTransaction().getId();
+			if (spentOutpoints.contains(Outpoint.of(input))) {
+				return false;
+			}
+			if (!transactionIds.contains(new ByteArrayKey(parentId)) && transactionsPool.containsTransaction(parentId)) {
+				return false; // Its parent is not in the template yet
+			}
+		}
+		Long transactionFees = transactionsPool.getTransactionFees(tx.getId());
+		if (transactionFees == null) {
+			return false; // No longer in the pool
+		}
+
+		include(tx, transactionFees);
+		merkleTree.appendLeaf(tx.getId());
+		return true;
+	}
+
+	private void include(Transaction tx, long transactionFees) {
+		transactions.add(tx);
+		transactionsFees.add(transactionFees);
+		transactionIds.add(new ByteArrayKey(tx.getId()));
+		for (TransactionInput input : tx.getInputs()) {
+			spentOutpoints.add(Outpoint.of(input));
+		}
+		fees += transactionFees;
+		transactionsSize += tx.getSize();
+	}
+
+	/**
+	 * Returns whether the given block extends the previous block of the template.
+	 *
+	 */
+	boolean isExtendedBy(Block block) {
+		return block.getPreviousBlock() != null && new ByteArrayKey(block.getPreviousBlock().getHash()).equals(new ByteArrayKey(previousBlock.getHash()));
+	}
+
+	/**
+	 * Moves the template on top of the given block, which extends its previous
+	 * block: the transactions of the block, those spending the same outputs, and
+	 * their descendants in the template are removed (as well as those which no
+	 * longer fit, if the coinbase transaction grew). The others are kept without
+	 * being checked again, and the merkle tree is rebuilt once.
+	 *
+	 */
+	void advance(Block block) {
+		Set<ByteArrayKey> confirmedIds = new HashSet<>();
+		Set<Outpoint> confirmedSpentOutpoints = new HashSet<>();
+		for (Transaction tx : block.getTransactions()) {
+			confirmedIds.add(new ByteArrayKey(tx.getId()));
+			if (!tx.isCoinbase()) {
+				for (TransactionInput input : tx.getInputs()) {
+					confirmedSpentOutpoints.add(Outpoint.of(input));
+				}
+			}
+		}
+		moveTo(block, height + 1);
+		removeTransactions(confirmedIds, confirmedSpentOutpoints);
+	}
+
+	/**
+	 * Removes the given transaction, which left the pool (e.g. it was replaced,
+	 * evicted or expired), and its descendants from the template. Returns whether
+	 * it was in the template.
+	 *
+	 */
+	boolean removeTransaction(Transaction tx) {
+		ByteArrayKey id = new ByteArrayKey(tx.getId());
+		if (!transactionIds.contains(id)) {
+			return false;
+		}
+		removeTransactions(Collections.singleton(id), Collections.emptySet());
+		return true;
+	}
+
+	/**
+	 * Removes the transactions with the given IDs, those spending the given
+	 * outputs, their descendants and those which no longer fit, then rebuilds the
+	 * merkle tree once.
+	 *
+	 */
+	private void removeTransactions(Set<ByteArrayKey> removedIds, Set<Outpoint> removedSpentOutpoints) {
+		List<Transaction> previousTransactions = transactions;
+		List<Long> previousTransactionsFees = transactionsFees;
+		transactions = new ArrayList<>(previousTransactions.size());
+		transactionsFees = new ArrayList<>(previousTransactions.size());
+		transactionIds.clear();
+		spentOutpoints.clear();
+		fees = 0;
+		transactionsSize = 0;
+
+		// Goes through the transactions in order, so a dropped parent is found before
+		// its children
+		Set<ByteArrayKey> droppedIds = new HashSet<>();
+		for (int i = 0; i < previousTransactions.size(); i++) {
+			Transaction tx = previousTransactions.get(i);
+			ByteArrayKey id = new ByteArrayKey(tx.getId());
+			if (removedIds.contains(id)) {
+				droppedIds.add(id);
+				continue;
+			}
+			boolean dropped = false;
+			for (TransactionInput input : tx.getInputs()) {
+				Outpoint outpoint = Outpoint.of(input);
+				if (removedSpentOutpoints.contains(outpoint) || droppedIds.contains(new ByteArrayKey(outpoint.getTransactionId()))) {
+					dropped = true;
+					break;
+				}
+			}
+			if (dropped || transactionsSize + tx.getSize() > maxTransactionsSize) {
+				droppedIds.add(id);
+			} else {
+				include(tx, previousTransactionsFees.get(i));
+			}
+		}
+
+		byte[][] leaves = new byte[transactions.size() + 1][];
+		leaves[0] = coinbaseTransaction.getId();
+		for (int i = 0; i < transactions.size(); i++) {
+			leaves[i + 1] = transactions.get(i).getId();
+		}
+		merkleTree = MerkleTree.build(leaves);
+	}
+
+	/**
+	 * Sets the previous block and the height, with a new coinbase transaction and
+	 * merkle tree.
+	 *
+	 */
+	private void moveTo(Block previousBlock, int height) {
+		this.previousBlock = previousBlock;
+		this.height = height;
+		buildCoinbaseTransactionForm.setBlockHeight(height);
+		buildCoinbaseTransactionForm.setAmount(BlockSubsidyUtil.calculateSubsidyInSatoshis(height));
+		coinbaseTransaction = Transaction.createCoinbaseTransaction(buildCoinbaseTransactionForm);
+		maxTransactionsSize = Block.DEFAULT_MAX_SIZE - BlockBuilderV1.BLOCK_HEADER_SIZE - coinbaseTransaction.getSize() - MAX_VAR_INT_SIZE;
+		merkleTree = MerkleTree.build(new byte[][] { coinbaseTransaction.getId() });
+	}
+
+	/**
+	 * Builds a candidate block with the transactions of the template. The coinbase
+	 * transaction is rebuilt if the fees changed, and only its path in the merkle
+	 * tree is recomputed.
+	 *
+	 */
+	Block buildCandidateBlock(Date time) {
+		BigInteger reward = BlockSubsidyUtil.calculateSubsidyInSatoshis(height).add(BigInteger.valueOf(fees));
+		if (!reward.equals(buildCoinbaseTransactionForm.getAmount())) {
+			buildCoinbaseTransactionForm.setAmount(reward);
+			coinbaseTransaction = Transaction.createCoinbaseTransaction(buildCoinbaseTransactionForm);
+			merkleTree.replaceLeaf(0, coinbaseTransaction.getId());
+		}
+
+		Transaction[] blockTransactions = new Transaction[transactions.size() + 1];
+		blockTransactions[0] = coinbaseTransaction;
+		for (int i = 0; i < transactions.size(); i++) {
+			blockTransactions[i + 1] = transactions.get(i);
+		}
+		BuildBlockForm buildBlockForm = new BuildBlockForm(previousBlock, blockTransactions, time).merkleTree(merkleTree);
+		return Block.createCandidateBlock(buildBlockForm);
+	}
+
+	// GETTERS & SETTERS // -----------------------------------------
+
+	Block getPreviousBlock() {
+		return previousBlock;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	long getFees() {
+		return fees;
+	}
+
+	int getTransactionsSize() {
+		return transactionsSize;
+	}
+
+	int getNumberOfTransactions() {
+		return transactions.size();
+	}
+}
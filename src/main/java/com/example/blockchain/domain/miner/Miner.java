@@ -1,9 +1,7 @@
 package com.example.blockchain.domain.miner;
 
-import java.math.BigInteger;
-import java.security.PublicKey;
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,27 +9,42 @@ import org.slf4j.LoggerFactory;
 import com.example.blockchain.difficulty.TargetCalculator;
 import com.example.blockchain.domain.account.Account;
 import com.example.blockchain.domain.block.Block;
-import com.example.blockchain.domain.block.builder.BlockBuilderV1;
-import com.example.blockchain.domain.block.builder.BuildBlockForm;
 import com.example.blockchain.domain.chain.BlockAddedSubscriber;
 import com.example.blockchain.domain.chain.Chain;
 import com.example.blockchain.domain.chain.ChainItem;
 import com.example.blockchain.domain.clock.NetworkClock;
 import com.example.blockchain.domain.transaction.Transaction;
-import com.example.blockchain.domain.transaction.builder.BuildCoinbaseTransactionForm;
+import com.example.blockchain.domain.transaction.pool.AddedTransactionsObserver;
+import com.example.blockchain.domain.transaction.pool.EvictedTransactionsObserver;
+import com.example.blockchain.domain.transaction.pool.ExpiredTransactionsObserver;
 import com.example.blockchain.domain.transaction.pool.TransactionsPool;
-import com.example.blockchain.domain.transaction.script.TransactionScriptsType;
 import com.example.blockchain.network.NetworkInterface;
 import com.example.blockchain.puzzle.PuzzleSolvedSubscriber;
 import com.example.blockchain.puzzle.PuzzleSolver;
 import com.example.blockchain.puzzle.PuzzleSolverFactory;
-import com.example.blockchain.util.BlockSubsidyUtil;
 import com.example.blockchain.util.ConvertUtil;
 
-public class Miner implements PuzzleSolvedSubscriber, BlockAddedSubscriber {
+/**
+ * Mines blocks on top of the active chain. The transactions of the next block
+ * are kept in a BlockTemplate which is updated as blocks and transactions
+ * arrive: a block on the tip removes its transactions from the template, which
+ * is mined on right away and then topped up from the pool, and a transaction
+ * added to the pool is appended if it fits. A transaction which leaves the pool
+ * (replaced, evicted or expired) is removed with its descendants, and the
+ * solver is handed the candidate block without it. Once the fees of the template grow
+ * enough, the puzzle solver is handed the new candidate block.
+ *
+ * The template is only touched by a single thread, to which the events are
+ * handed, so the chain and the pool are never blocked by the miner.
+ *
+ */
+public class Miner implements PuzzleSolvedSubscriber, BlockAddedSubscriber, AddedTransactionsObserver, EvictedTransactionsObserver,
+		ExpiredTransactionsObserver {
 
 	private static final Logger log = LoggerFactory.getLogger(Miner.class);
 
+	static final int MIN_FEES_IMPROVEMENT_PERCENTAGE = 1; // Of the fees of the block being solved, to hand a new one to the solver
+
 	private Chain chain;
 	private TargetCalculator targetCalculator;
 	private TransactionsPool transactionsPool;
@@ -40,6 +53,14 @@ public class Miner implements PuzzleSolvedSubscriber, BlockAddedSubscriber {
 	private Account rewardAccount;
 
 	private PuzzleSolver puzzleSolver;
+	private BlockTemplate blockTemplate;
+	private long solvedFees; // The fees of the block being solved
+	private boolean running = false;
+	private ExecutorService templateUpdater = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "miner");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	public Miner(TargetCalculator targetCalculator, TransactionsPool transactionsPool, NetworkClock networkClock, NetworkInterface networkInterface,
 			Account rewardAccount) {
@@ -52,6 +73,9 @@ public class Miner implements PuzzleSolvedSubscriber, BlockAddedSubscriber {
 		this.rewardAccount = rewardAccount;
 
 		chain.subscribe(this);
+		transactionsPool.registerAddedTransactionsObserver(this);
+		transactionsPool.registerEvictedTransactionsObserver(this);
+		transactionsPool.registerExpiredTransactionsObserver(this);
 	}
 
 	/**
@@ -59,100 +83,99 @@ public class Miner implements PuzzleSolvedSubscriber, BlockAddedSubscriber {
 	 * 
 	 */
 	public void start() {
-		log.info("Started Miner");
-		startMining();
+		templateUpdater.execute(() -> {
+			running = true;
+			log.info("Started Miner");
+			startMining();
+		});
 	}
 
 	/**
-	 * Starts the mining process.
+	 * Starts the mining process on the last block of the active chain with a new
+	 * block template.
 	 * 
 	 */
 	private void startMining() {
-		// Retrieves the last chain item to start
 		ChainItem lastChainItem = chain.getLastActiveChainItem();
-		startMiningNewBlock(lastChainItem);
-
-		// Checks if a new block was added to the chain while preparing the
-		// candidate block
-		boolean newBlockAdded = !Arrays.equals(chain.getLastActiveChainItem().getBlock().getHash(), lastChainItem.getBlock().getHash());
-		while (newBlockAdded) {
-			stopMining();
-			lastChainItem = chain.getLastActiveChainItem();
-			startMiningNewBlock(lastChainItem);
-		}
+		blockTemplate = new BlockTemplate(transactionsPool, lastChainItem.getBlock(), lastChainItem.getHeight() + 1,
+				rewardAccount.getKeyPair().getPublic());
+		blockTemplate.fill();
+		startSolving();
 	}
 
 	/**
-	 * Starts the mining process.
+	 * Starts solving a candidate block built from the template with a new solver.
 	 * 
 	 */
-	private void startMiningNewBlock(ChainItem lastChainItem) {
-		int newHeight = lastChainItem.getHeight() + 1;
-		BigInteger subsidy = BlockSubsidyUtil.calculateSubsidyInSatoshis(newHeight);
-		Block candidateBlock = createCandidateBlock(lastChainItem.getBlock(), newHeight, null, subsidy, rewardAccount.getKeyPair().getPublic());
+	private void startSolving() {
+		Block candidateBlock = blockTemplate.buildCandidateBlock(networkClock.getNetworkTime());
 		if (puzzleSolver != null) {
 			puzzleSolver.stop();
 		}
 		puzzleSolver = PuzzleSolverFactory.createPuzzleSolver(targetCalculator);
 		puzzleSolver.subscribe(this);
 		puzzleSolver.start(candidateBlock);
-		log.info("Started mining block ({})", newHeight);
+		solvedFees = blockTemplate.getFees();
+		log.info("Started mining block ({})", blockTemplate.getHeight());
 	}
 
 	/**
-	 * Creates a new candidate block.
+	 * Hands the solver a new candidate block if the fees of the template grew
+	 * enough since the block being solved was built.
 	 * 
 	 */
-	private Block createCandidateBlock(Block lastBlock, int height, String scriptSigText, BigInteger blockSubsidy,
-			PublicKey lockingPublicKeyOfCoinbaseTransaction) {
-		// Creates the coinbase transaction
-		BuildCoinbaseTransactionForm buildCoinbaseTransactionForm = new BuildCoinbaseTransactionForm(TransactionScriptsType.PAY_TO_PUBLIC_KEY, height,
-				scriptSigText, blockSubsidy, lockingPublicKeyOfCoinbaseTransaction, null);
-		Transaction coinbaseTx = Transaction.createCoinbaseTransaction(buildCoinbaseTransactionForm);
-
-		// Retrieves the transactions
-		int maxVarIntSize = 3; // The number of expected transactions should not exceed the capacity of
-								// two-byte VarInt
-		int transactionsMaxSize = Block.DEFAULT_MAX_SIZE - BlockBuilderV1.BLOCK_HEADER_SIZE - coinbaseTx.getSize() - maxVarIntSize;
-		List<Transaction> transactionsList = transactionsPool.getCandidateTransactions(transactionsMaxSize);
-		Transaction[] transactions = convertTransactionsListToTransactionsArray(coinbaseTx, transactionsList);
-
-		// Calculates the fees; if any, adds to the subsidy
-		BigInteger transactionFees = calculateTransactionFees(transactions);
-		if (transactionFees.compareTo(BigInteger.ZERO) == 1) { // Larger than one
-			coinbaseTx.getOutputs().get(0).setAmount(blockSubsidy.add(transactionFees));
+	private void updateSolverIfImproved() {
+		long minFees = solvedFees + solvedFees * MIN_FEES_IMPROVEMENT_PERCENTAGE / 100;
+		if (blockTemplate.getFees() <= minFees || puzzleSolver == null || !puzzleSolver.isRunning()) {
+			return;
 		}
+		updateSolver();
+	}
 
-		// Builds the candidate block
-		BuildBlockForm buildBlockForm = new BuildBlockForm(lastBlock, transactions, networkClock.getNetworkTime());
-		Block candidateBlock = Block.createCandidateBlock(buildBlockForm);
-		return candidateBlock;
+	/**
+	 * Hands the solver a new candidate block built from the template.
+	 * 
+	 */
+	private void updateSolver() {
+		puzzleSolver.update(blockTemplate.buildCandidateBlock(networkClock.getNetworkTime()));
+		solvedFees = blockTemplate.getFees();
+		log.debug("Updated the block being mined ({} transactions, {} fees)", blockTemplate.getNumberOfTransactions(), solvedFees);
 	}
 
 	/**
-	 * Converts the given transactions list to an array that also includes the
-	 * coinbase transaction.
+	 * Removes the given transaction, which left the pool, and its descendants
+	 * from the template. If they were in it, the template is topped up from the
+	 * pool and the solver is handed the new candidate block, whatever its fees.
 	 * 
 	 */
-	private Transaction[] convertTransactionsListToTransactionsArray(Transaction coinbaseTx, List<Transaction> transactionsList) {
-		Transaction[] transactionsArray = new Transaction[transactionsList.size() + 1];
-		transactionsArray[0] = coinbaseTx;
-		for (int i = 0; i < transactionsList.size(); i++) {
-			transactionsArray[i + 1] = transactionsList.get(i);
+	private void removeTransaction(Transaction transaction) {
+		if (!running || blockTemplate == null || !blockTemplate.removeTransaction(transaction)) {
+			return;
+		}
+		blockTemplate.fill();
+		if (puzzleSolver != null && puzzleSolver.isRunning()) {
+			updateSolver();
 		}
-		return transactionsArray;
 	}
 
 	/**
-	 * Calculates the transaction fees for the given transactions.
+	 * Moves to the given new tip. If it extends the block the template is built
+	 * on, the template advances and is mined on at once, then topped up from the
+	 * pool; otherwise (e.g. after a reorganization) a new template is built.
 	 * 
 	 */
-	private BigInteger calculateTransactionFees(Transaction[] transactions) {
-		BigInteger fees = BigInteger.valueOf(0);
-		for (Transaction tx : transactions) {
-			fees = fees.add(tx.getFees());
+	private void moveToNewTip(Block block) {
+		if (!running) {
+			return;
+		}
+		if (blockTemplate == null || !blockTemplate.isExtendedBy(block)) {
+			startMining();
+			return;
 		}
-		return fees;
+		blockTemplate.advance(block);
+		startSolving();
+		blockTemplate.fill();
+		updateSolverIfImproved();
 	}
 
 	/**
@@ -160,8 +183,11 @@ public class Miner implements PuzzleSolvedSubscriber, BlockAddedSubscriber {
 	 * 
 	 */
 	public void stop() {
-		stopMining();
-		log.info("Stopped Miner");
+		templateUpdater.execute(() -> {
+			running = false;
+			stopMining();
+			log.info("Stopped Miner");
+		});
 	}
 
 	/**
@@ -169,26 +195,46 @@ public class Miner implements PuzzleSolvedSubscriber, BlockAddedSubscriber {
 	 * 
 	 */
 	private void stopMining() {
-		if (puzzleSolver.isRunning()) {
+		if (puzzleSolver != null && puzzleSolver.isRunning()) {
 			puzzleSolver.stop();
 		}
 	}
 
+	/**
+	 * Relays and adds the solved block. The chain notifies the miner of the new
+	 * tip, which moves the template on top of it.
+	 * 
+	 */
 	@Override
 	public void puzzleSolved(Block block) {
 		log.info("Solved block (Hash: {})", ConvertUtil.byteArrayToHexString(block.getHash()));
 		networkInterface.relayBlock(block);
 		chain.addBlock(block, true);
-		startMining();
 	}
 
 	@Override
 	public void blockAdded(Block block, int height, double chainWork, boolean isActiveTip, boolean minedLocally) {
-		if (!minedLocally) {
-			if (isActiveTip) {
-				stopMining();
-				startMining();
-			}
+		if (isActiveTip) {
+			templateUpdater.execute(() -> moveToNewTip(block));
 		}
 	}
+
+	@Override
+	public void transactionAdded(Transaction addedTransaction) {
+		templateUpdater.execute(() -> {
+			if (running && blockTemplate != null && blockTemplate.addTransaction(addedTransaction)) {
+				updateSolverIfImproved();
+			}
+		});
+	}
+
+	@Override
+	public void transactionEvicted(Transaction evictedTransaction) {
+		templateUpdater.execute(() -> removeTransaction(evictedTransaction));
+	}
+
+	@Override
+	public void transactionExpired(Transaction expiredTransaction) {
+		templateUpdater.execute(() -> removeTransaction(expiredTransaction));
+	}
 }
@@ -0,0 +1,71 @@
+package com.example.blockchain.domain.transaction;
+
+import java.util.Arrays;
+
+import com.example.blockchain.util.ConvertUtil;
+
+/**
+ * Points to an output of a transaction by the ID of the transaction and the
+ * index of the output. Can be used as a key in hash based collections; the ID
+ * should not be modified afterwards.
+ *
+ */
+public final class Outpoint {
+
+	private final byte[] transactionId;
+	private final int outputIndex;
+	private final int hashCode;
+
+	public Outpoint(byte[] transactionId, int outputIndex) {
+		if (transactionId == null) {
+			throw new IllegalArgumentException("The transaction ID cannot be null");
+		}
+		this.transactionId = transactionId;
+		this.outputIndex = outputIndex;
+		this.hashCode = 31 * Arrays.hashCode(transactionId) + outputIndex;
+	}
+
+	/**
+	 * Creates the outpoint which the given input spends.
+	 *
+	 */
+	public static Outpoint of(TransactionInput input) {
+		return new Outpoint(input.getTransaction().getId(), input.getOutputIndex());
+	}
+
+	// Object METHODS // --------------------------------------------
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Outpoint other = (Outpoint) obj;
+		if (outputIndex != other.outputIndex)
+			return false;
+		return Arrays.equals(transactionId, other.transactionId);
+	}
+
+	@Override
+	public String toString() {
+		return ConvertUtil.byteArrayToHexString(transactionId) + ":" + outputIndex;
+	}
+
+	// GETTERS & SETTERS // -----------------------------------------
+
+	public byte[] getTransactionId() {
+		return transactionId;
+	}
+
+	public int getOutputIndex() {
+		return outputIndex;
+	}
+}
@@ -1,8 +1,6 @@
 package com.example.blockchain.domain.transaction;
 
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.RoundingMode;
 import java.security.PublicKey;
 import java.util.Arrays;
 import java.util.List;
@@ -19,6 +17,7 @@ import com.example.blockchain.domain.transaction.script.PayToPublicKeyScriptsBui
 import com.example.blockchain.domain.transaction.utxo.UnspentTransactionOutput;
 import com.example.blockchain.util.ByteUtil;
 import com.example.blockchain.util.ConvertUtil;
+import com.example.blockchain.util.FeeRateUtil;
 import com.example.blockchain.util.Sha256Util;
 
 public class Transaction {
@@ -35,8 +34,10 @@ public class Transaction {
 
 	private static TransactionDao transactionDao;
 
+	private static final Transaction voidTransaction = new Transaction(true);
+
 	private static TransactionBuilder transactionBuilder = new TransactionBuilderV1(new PayToPublicKeyScriptsBuilder(), new PayToPublicKeyHashScriptsBuilder(),
-			new Transaction(true));
+			voidTransaction);
 
 	private Transaction(boolean foid) {
 		if (foid) {
@@ -59,7 +60,7 @@ public class Transaction {
 		this.locktime = locktime;
 		this.loaded = true;
 		this.cachedTransactionData = transactionBuilder.serializeTransaction(this).getData();
-		setId();
+		this.id = buildTransactionId(cachedTransactionData); // Hashes the data just serialized instead of serializing it again
 	}
 
 	public Transaction(byte[] id, short version, List<TransactionInput> inputs, List<TransactionOutput> outputs, long locktime) {
@@ -72,6 +73,22 @@ public class Transaction {
 		this.cachedTransactionData = transactionBuilder.serializeTransaction(this).getData();
 	}
 
+	/**
+	 * Creates a loaded transaction from its serialized data, which is kept as the
+	 * cached data and hashed for the ID as it is. The data must be the
+	 * serialization of the given fields.
+	 *
+	 */
+	public Transaction(short version, List<TransactionInput> inputs, List<TransactionOutput> outputs, long locktime, byte[] transactionData) {
+		this.version = version;
+		this.inputs = inputs;
+		this.outputs = outputs;
+		this.locktime = locktime;
+		this.loaded = true;
+		this.cachedTransactionData = transactionData;
+		this.id = buildTransactionId(transactionData);
+	}
+
 	/**
 	 * Sets the TransactionDao.
 	 *
@@ -80,6 +97,32 @@ public class Transaction {
 		Transaction.transactionDao = transactionDao;
 	}
 
+	/**
+	 * Sets the TransactionBuilder which builds, serializes and deserializes all
+	 * transactions.
+	 *
+	 */
+	public static void setTransactionBuilder(TransactionBuilder transactionBuilder) {
+		Transaction.transactionBuilder = transactionBuilder;
+	}
+
+	/**
+	 * Gets the TransactionBuilder in use.
+	 *
+	 */
+	public static TransactionBuilder getTransactionBuilder() {
+		return transactionBuilder;
+	}
+
+	/**
+	 * Gets the void transaction, which the input of every coinbase transaction
+	 * points to.
+	 *
+	 */
+	public static Transaction getVoidTransaction() {
+		return voidTransaction;
+	}
+
 	/**
 	 * Creates a new coinbase transaction.
 	 * 
@@ -232,22 +275,43 @@ public class Transaction {
 		return cachedTransactionData.length;
 	}
 
+	/**
+	 * Gets the serialized data of the transaction without serializing it again.
+	 * The returned array is shared and must not be modified.
+	 * 
+	 */
+	public byte[] getCachedTransactionData() {
+		if (!loaded) {
+			load();
+		}
+		return cachedTransactionData;
+	}
+
 	/**
 	 * Gets the fees of the transaction.
 	 * 
 	 */
 	public BigInteger getFees() {
-		BigInteger fees = BigInteger.valueOf(0);
+		return BigInteger.valueOf(getFeesInSatoshis());
+	}
+
+	/**
+	 * Gets the fees of the transaction as a long. An ArithmeticException is
+	 * thrown if an amount or the sum of the amounts does not fit in a long.
+	 * 
+	 */
+	public long getFeesInSatoshis() {
 		if (isCoinbase()) {
-			return fees;
+			return 0;
 		}
 
+		long fees = 0;
 		for (TransactionInput input : inputs) {
 			int outputIndex = input.getOutputIndex();
-			fees = fees.add(input.getTransaction().getOutputs().get(outputIndex).getAmount());
+			fees = Math.addExact(fees, input.getTransaction().getOutputs().get(outputIndex).getAmountInSatoshis());
 		}
 		for (TransactionOutput output : outputs) {
-			fees = fees.subtract(output.getAmount());
+			fees = Math.subtractExact(fees, output.getAmountInSatoshis());
 		}
 		return fees;
 	}
@@ -261,9 +325,7 @@ public class Transaction {
 			return 0;
 		}
 
-		BigDecimal fees = new BigDecimal(getFees());
-		int size = getSize();
-		return fees.divide(BigDecimal.valueOf(size), 3, RoundingMode.HALF_UP).doubleValue();
+		return FeeRateUtil.toSatoshisPerByte(FeeRateUtil.calculateFeeRate(getFeesInSatoshis(), getSize()));
 	}
 
 	/**
@@ -1,5 +1,7 @@
 package com.example.blockchain.domain.transaction;
 
+import java.nio.ByteBuffer;
+
 public class TransactionInput {
 
 	public static final long MAX_SEQUENCE_VALUE = Long.parseLong("FFFFFFFF", 16);
@@ -7,6 +9,7 @@ public class TransactionInput {
 	private Transaction transaction;
 	private int outputIndex; // TODO Limit the number of outputs to this number
 	private byte[] scriptSig;
+	private ByteBuffer scriptSigView; // A view over serialized data; copied to scriptSig on first access
 	private long sequence;
 
 	public TransactionInput() {
@@ -20,6 +23,36 @@ public class TransactionInput {
 		this.sequence = sequence;
 	}
 
+	/**
+	 * Creates an input whose scriptSig is a view over serialized data. The
+	 * scriptSig is only copied if it is read as a byte array.
+	 *
+	 */
+	public TransactionInput(Transaction transaction, int outputIndex, ByteBuffer scriptSigView, long sequence) {
+		this.transaction = transaction;
+		this.outputIndex = outputIndex;
+		this.scriptSigView = scriptSigView;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns the size of the scriptSig without copying it.
+	 *
+	 */
+	public int getScriptSigSize() {
+		ByteBuffer view = scriptSigView;
+		return view != null ? view.remaining() : scriptSig.length;
+	}
+
+	/**
+	 * Returns a read-only buffer over the scriptSig without copying it.
+	 *
+	 */
+	public ByteBuffer getScriptSigBuffer() {
+		ByteBuffer view = scriptSigView;
+		return view != null ? view.asReadOnlyBuffer() : ByteBuffer.wrap(scriptSig).asReadOnlyBuffer();
+	}
+
 	// GETTERS & SETTERS // -----------------------------------------
 
 	public Transaction getTransaction() {
@@ -39,11 +72,19 @@ public class TransactionInput {
 	}
 
 	public byte[] getScriptSig() {
+		ByteBuffer view = scriptSigView;
+		if (view != null) {
+			byte[] bytes = new byte[view.remaining()];
+			view.duplicate().get(bytes);
+			this.scriptSig = bytes;
+			this.scriptSigView = null;
+		}
 		return scriptSig;
 	}
 
 	public void setScriptSig(byte[] scriptSig) {
 		this.scriptSig = scriptSig;
+		this.scriptSigView = null;
 	}
 
 	public long getSequence() {
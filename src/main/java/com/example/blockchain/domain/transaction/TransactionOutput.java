@@ -1,11 +1,13 @@
 package com.example.blockchain.domain.transaction;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 public class TransactionOutput {
 
 	private BigInteger amount;
 	private byte[] scriptPubKey;
+	private ByteBuffer scriptPubKeyView; // A view over serialized data; copied to scriptPubKey on first access
 
 	public TransactionOutput() {
 
@@ -16,6 +18,45 @@ public class TransactionOutput {
 		this.scriptPubKey = scriptPubKey;
 	}
 
+	/**
+	 * Creates an output whose scriptPubKey is a view over serialized data. The
+	 * scriptPubKey is only copied if it is read as a byte array.
+	 *
+	 */
+	public TransactionOutput(BigInteger amount, ByteBuffer scriptPubKeyView) {
+		this.amount = amount;
+		this.scriptPubKeyView = scriptPubKeyView;
+	}
+
+	/**
+	 * Returns the size of the scriptPubKey without copying it.
+	 *
+	 */
+	public int getScriptPubKeySize() {
+		ByteBuffer view = scriptPubKeyView;
+		return view != null ? view.remaining() : scriptPubKey.length;
+	}
+
+	/**
+	 * Returns a read-only buffer over the scriptPubKey without copying it.
+	 *
+	 */
+	public ByteBuffer getScriptPubKeyBuffer() {
+		ByteBuffer view = scriptPubKeyView;
+		return view != null ? view.asReadOnlyBuffer() : ByteBuffer.wrap(scriptPubKey).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Gets the amount as a long, for the computations which are run on every
+	 * transaction (e.g. its fees). Valid amounts fit as long as they do not
+	 * exceed {@code Long.MAX_VALUE} satoshis; an ArithmeticException is thrown
+	 * otherwise.
+	 *
+	 */
+	public long getAmountInSatoshis() {
+		return amount.longValueExact();
+	}
+
 	// GETTERS & SETTERS // -----------------------------------------
 
 	public BigInteger getAmount() {
@@ -27,11 +68,19 @@ public class TransactionOutput {
 	}
 
 	public byte[] getScriptPubKey() {
+		ByteBuffer view = scriptPubKeyView;
+		if (view != null) {
+			byte[] bytes = new byte[view.remaining()];
+			view.duplicate().get(bytes);
+			this.scriptPubKey = bytes;
+			this.scriptPubKeyView = null;
+		}
 		return scriptPubKey;
 	}
 
 	public void setScriptPubKey(byte[] scriptPubKey) {
 		this.scriptPubKey = scriptPubKey;
+		this.scriptPubKeyView = null;
 	}
 
 }
@@ -0,0 +1,235 @@
+package com.example.blockchain.domain.transaction.builder;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.TransactionInput;
+import com.example.blockchain.domain.transaction.TransactionOutput;
+import com.example.blockchain.domain.transaction.script.PayToPublicKeyHashScriptsBuilder;
+import com.example.blockchain.domain.transaction.script.PayToPublicKeyScriptsBuilder;
+import com.example.blockchain.util.HexStringUtil;
+
+/**
+ * A transaction builder with the same wire format as TransactionBuilderV1 whose
+ * codec works on ByteBuffers instead of intermediate arrays. Fields are written
+ * to and read from the data in place. A deserialized transaction copies its own
+ * bytes once (they become its cached data and are hashed for its ID as they
+ * are), and its scripts are views over those bytes which are only copied if
+ * read as byte arrays. Serializing multiple transactions reuses their cached
+ * data.
+ *
+ */
+public class ByteBufferTransactionBuilder extends TransactionBuilderV1 {
+
+	private static final int VERSION_SIZE = 1; // In bytes
+	private static final int INPUT_COUNT_SIZE = 1; // In bytes
+	private static final int TRANSACTION_ID_SIZE = 32; // In bytes
+	private static final int OUTPUT_INDEX_SIZE = 1; // In bytes
+	private static final int SEQUENCE_SIZE = 4; // In bytes
+	private static final int OUTPUT_COUNT_SIZE = 1; // In bytes
+	private static final int AMOUNT_SIZE = 8; // In bytes
+	private static final int LOCKTIME_SIZE = 4; // In bytes
+
+	private static final BigInteger TWO_TO_THE_64 = BigInteger.ONE.shiftLeft(64);
+
+	private Transaction voidTransaction;
+
+	public ByteBufferTransactionBuilder(PayToPublicKeyScriptsBuilder payToPublicKeyScriptsBuilder,
+			PayToPublicKeyHashScriptsBuilder payToPublicKeyHashScriptsBuilder, Transaction voidTransaction) {
+		super(payToPublicKeyScriptsBuilder, payToPublicKeyHashScriptsBuilder, voidTransaction);
+		this.voidTransaction = voidTransaction;
+	}
+
+	@Override
+	public int calculateTransactionSize(Transaction transaction) {
+		int size = VERSION_SIZE + INPUT_COUNT_SIZE;
+		for (TransactionInput transactionInput : transaction.getInputs()) {
+			int scriptSigSize = transactionInput.getScriptSigSize();
+			size += TRANSACTION_ID_SIZE + OUTPUT_INDEX_SIZE + HexStringUtil.getSizeOfVarInt(scriptSigSize) + scriptSigSize + SEQUENCE_SIZE;
+		}
+		size += OUTPUT_COUNT_SIZE;
+		for (TransactionOutput transactionOutput : transaction.getOutputs()) {
+			int scriptPubKeySize = transactionOutput.getScriptPubKeySize();
+			size += AMOUNT_SIZE + HexStringUtil.getSizeOfVarInt(scriptPubKeySize) + scriptPubKeySize;
+		}
+		size += LOCKTIME_SIZE;
+		return size;
+	}
+
+	/**
+	 * Serializes the given transaction.
+	 *
+	 */
+	@Override
+	public TransactionSerializeResult serializeTransaction(Transaction transaction) {
+		byte[] data = new byte[calculateTransactionSize(transaction)];
+		writeTransaction(transaction, ByteBuffer.wrap(data));
+		return new TransactionSerializeResult(data, data.length);
+	}
+
+	/**
+	 * Writes the given transaction to the given buffer at its position.
+	 *
+	 */
+	private void writeTransaction(Transaction transaction, ByteBuffer buffer) {
+		// Version
+		buffer.put((byte) transaction.getVersion());
+
+		// Inputs
+		buffer.put((byte) transaction.getInputs().size());
+		for (TransactionInput transactionInput : transaction.getInputs()) {
+			buffer.put(transactionInput.getTransaction().getId(), 0, TRANSACTION_ID_SIZE);
+			buffer.put((byte) transactionInput.getOutputIndex());
+			HexStringUtil.putVarInt(buffer, transactionInput.getScriptSigSize());
+			buffer.put(transactionInput.getScriptSigBuffer());
+			buffer.putInt((int) transactionInput.getSequence());
+		}
+
+		// Outputs
+		buffer.put((byte) transaction.getOutputs().size());
+		for (TransactionOutput transactionOutput : transaction.getOutputs()) {
+			buffer.putLong(transactionOutput.getAmount().longValue());
+			HexStringUtil.putVarInt(buffer, transactionOutput.getScriptPubKeySize());
+			buffer.put(transactionOutput.getScriptPubKeyBuffer());
+		}
+
+		// Locktime
+		buffer.putInt((int) transaction.getLocktime());
+	}
+
+	/**
+	 * Serializes the given transactions. The cached data of each transaction is
+	 * copied as it is.
+	 *
+	 */
+	@Override
+	public byte[] serializeMultipleTransactions(List<Transaction> transactions) {
+		int dataSize = HexStringUtil.getSizeOfVarInt(transactions.size());
+		for (Transaction transaction : transactions) {
+			dataSize += transaction.getCachedTransactionData().length;
+		}
+
+		byte[] data = new byte[dataSize];
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		HexStringUtil.putVarInt(buffer, transactions.size());
+		for (Transaction transaction : transactions) {
+			buffer.put(transaction.getCachedTransactionData());
+		}
+		return data;
+	}
+
+	/**
+	 * Converts the given transaction data to its object form starting with the
+	 * given index.
+	 *
+	 */
+	@Override
+	public TransactionBuildResult deserializeTransaction(byte[] data, int dataStartIndex) {
+		// Copies the bytes of the transaction once; everything else refers to them
+		int transactionSize = measureTransaction(data, dataStartIndex);
+		byte[] transactionData = Arrays.copyOfRange(data, dataStartIndex, dataStartIndex + transactionSize);
+		ByteBuffer buffer = ByteBuffer.wrap(transactionData);
+
+		int nextIndex = 0;
+		short version = (short) (buffer.get(nextIndex) & 0xff);
+		nextIndex += VERSION_SIZE;
+
+		// Inputs
+		int inputCount = buffer.get(nextIndex) & 0xff;
+		nextIndex += INPUT_COUNT_SIZE;
+		List<TransactionInput> transactionInputs = new ArrayList<>(inputCount);
+		for (int i = 0; i < inputCount; i++) {
+			byte[] transactionId = Arrays.copyOfRange(transactionData, nextIndex, nextIndex + TRANSACTION_ID_SIZE);
+			Transaction tx = Arrays.equals(transactionId, voidTransaction.getId()) ? voidTransaction : new Transaction(transactionId);
+			nextIndex += TRANSACTION_ID_SIZE;
+			int outputIndex = buffer.get(nextIndex) & 0xff;
+			nextIndex += OUTPUT_INDEX_SIZE;
+			int scriptSigSize = (int) HexStringUtil.getVarInt(transactionData, nextIndex);
+			nextIndex += HexStringUtil.getLengthOfVarInt(transactionData, nextIndex);
+			ByteBuffer scriptSig = ByteBuffer.wrap(transactionData, nextIndex, scriptSigSize).slice();
+			nextIndex += scriptSigSize;
+			long sequence = buffer.getInt(nextIndex) & 0xffffffffL;
+			nextIndex += SEQUENCE_SIZE;
+			transactionInputs.add(new TransactionInput(tx, outputIndex, scriptSig, sequence));
+		}
+
+		// Outputs
+		int outputCount = buffer.get(nextIndex) & 0xff;
+		nextIndex += OUTPUT_COUNT_SIZE;
+		List<TransactionOutput> transactionOutputs = new ArrayList<>(outputCount);
+		for (int i = 0; i < outputCount; i++) {
+			BigInteger amount = toUnsignedBigInteger(buffer.getLong(nextIndex));
+			nextIndex += AMOUNT_SIZE;
+			int scriptPubKeySize = (int) HexStringUtil.getVarInt(transactionData, nextIndex);
+			nextIndex += HexStringUtil.getLengthOfVarInt(transactionData, nextIndex);
+			ByteBuffer scriptPubKey = ByteBuffer.wrap(transactionData, nextIndex, scriptPubKeySize).slice();
+			nextIndex += scriptPubKeySize;
+			transactionOutputs.add(new TransactionOutput(amount, scriptPubKey));
+		}
+
+		// Locktime
+		long locktime = buffer.getInt(nextIndex) & 0xffffffffL;
+
+		Transaction transaction = new Transaction(version, transactionInputs, transactionOutputs, locktime, transactionData);
+		return new TransactionBuildResult(transaction, dataStartIndex + transactionSize);
+	}
+
+	/**
+	 * Finds the size of the transaction starting with the given index by skipping
+	 * over its fields.
+	 *
+	 */
+	private int measureTransaction(byte[] data, int dataStartIndex) {
+		int nextIndex = dataStartIndex + VERSION_SIZE;
+		int inputCount = data[nextIndex] & 0xff;
+		nextIndex += INPUT_COUNT_SIZE;
+		for (int i = 0; i < inputCount; i++) {
+			nextIndex += TRANSACTION_ID_SIZE + OUTPUT_INDEX_SIZE;
+			int scriptSigSize = (int) HexStringUtil.getVarInt(data, nextIndex);
+			nextIndex += HexStringUtil.getLengthOfVarInt(data, nextIndex) + scriptSigSize + SEQUENCE_SIZE;
+		}
+		int outputCount = data[nextIndex] & 0xff;
+		nextIndex += OUTPUT_COUNT_SIZE;
+		for (int i = 0; i < outputCount; i++) {
+			nextIndex += AMOUNT_SIZE;
+			int scriptPubKeySize = (int) HexStringUtil.getVarInt(data, nextIndex);
+			nextIndex += HexStringUtil.getLengthOfVarInt(data, nextIndex) + scriptPubKeySize;
+		}
+		nextIndex += LOCKTIME_SIZE;
+		if (nextIndex > data.length) {
+			throw new IllegalArgumentException("The transaction data is truncated");
+		}
+		return nextIndex - dataStartIndex;
+	}
+
+	/**
+	 * Converts the given transactions data to its object form in a List.
+	 *
+	 */
+	@Override
+	public List<Transaction> deserializeMultipleTransactions(byte[] transactionsData) {
+		int transactionsCount = (int) HexStringUtil.getVarInt(transactionsData, 0);
+		int nextIndex = HexStringUtil.getLengthOfVarInt(transactionsData, 0);
+		List<Transaction> transactions = new ArrayList<Transaction>(transactionsCount);
+		for (int i = 0; i < transactionsCount; i++) {
+			TransactionBuildResult result = deserializeTransaction(transactionsData, nextIndex);
+			transactions.add(result.getTransaction());
+			nextIndex = result.getNextIndex();
+		}
+		return transactions;
+	}
+
+	/**
+	 * Converts the given eight bytes, read as a signed long, to an unsigned
+	 * amount.
+	 *
+	 */
+	private static BigInteger toUnsignedBigInteger(long value) {
+		BigInteger amount = BigInteger.valueOf(value);
+		return value >= 0 ? amount : amount.add(TWO_TO_THE_64);
+	}
+}
@@ -0,0 +1,125 @@
+package com.example.blockchain.domain.transaction.builder;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.util.ConvertUtil;
+
+/**
+ * Runs two transaction builders side by side for differential testing. Every
+ * call is answered by the primary builder; the codec calls are also made on the
+ * reference builder, and any difference between the two results is logged and
+ * thrown as an IllegalStateException. Building transactions from forms is left
+ * to the primary builder only, since signatures differ between runs.
+ *
+ */
+public class DifferentialTransactionBuilder implements TransactionBuilder {
+
+	private static final Logger log = LoggerFactory.getLogger(DifferentialTransactionBuilder.class);
+
+	private TransactionBuilder primaryBuilder;
+	private TransactionBuilder referenceBuilder;
+
+	public DifferentialTransactionBuilder(TransactionBuilder primaryBuilder, TransactionBuilder referenceBuilder) {
+		this.primaryBuilder = primaryBuilder;
+		this.referenceBuilder = referenceBuilder;
+	}
+
+	@Override
+	public Transaction buildCoinbaseTransaction(BuildCoinbaseTransactionForm buildCoinbaseTransactionForm) {
+		return primaryBuilder.buildCoinbaseTransaction(buildCoinbaseTransactionForm);
+	}
+
+	@Override
+	public Transaction buildTransaction(BuildTransactionForm buildTransactionForm) {
+		return primaryBuilder.buildTransaction(buildTransactionForm);
+	}
+
+	@Override
+	public boolean validateTransaction(Transaction transaction) {
+		return primaryBuilder.validateTransaction(transaction);
+	}
+
+	@Override
+	public int calculateTransactionSize(Transaction transaction) {
+		int size = primaryBuilder.calculateTransactionSize(transaction);
+		int referenceSize = referenceBuilder.calculateTransactionSize(transaction);
+		if (size != referenceSize) {
+			reportMismatch("calculateTransactionSize", size, referenceSize);
+		}
+		return size;
+	}
+
+	@Override
+	public TransactionSerializeResult serializeTransaction(Transaction transaction) {
+		TransactionSerializeResult result = primaryBuilder.serializeTransaction(transaction);
+		TransactionSerializeResult referenceResult = referenceBuilder.serializeTransaction(transaction);
+		if (!Arrays.equals(result.getData(), referenceResult.getData())) {
+			reportMismatch("serializeTransaction", ConvertUtil.byteArrayToHexString(result.getData()),
+					ConvertUtil.byteArrayToHexString(referenceResult.getData()));
+		}
+		return result;
+	}
+
+	@Override
+	public byte[] serializeMultipleTransactions(List<Transaction> transactions) {
+		byte[] data = primaryBuilder.serializeMultipleTransactions(transactions);
+		byte[] referenceData = referenceBuilder.serializeMultipleTransactions(transactions);
+		if (!Arrays.equals(data, referenceData)) {
+			reportMismatch("serializeMultipleTransactions", ConvertUtil.byteArrayToHexString(data), ConvertUtil.byteArrayToHexString(referenceData));
+		}
+		return data;
+	}
+
+	@Override
+	public Transaction deserializeTransaction(byte[] transactionData) {
+		return deserializeTransaction(transactionData, 0).getTransaction();
+	}
+
+	@Override
+	public TransactionBuildResult deserializeTransaction(byte[] data, int dataStartIndex) {
+		TransactionBuildResult result = primaryBuilder.deserializeTransaction(data, dataStartIndex);
+		TransactionBuildResult referenceResult = referenceBuilder.deserializeTransaction(data, dataStartIndex);
+		compareTransactions("deserializeTransaction", result.getTransaction(), referenceResult.getTransaction());
+		if (result.getNextIndex() != referenceResult.getNextIndex()) {
+			reportMismatch("deserializeTransaction", result.getNextIndex(), referenceResult.getNextIndex());
+		}
+		return result;
+	}
+
+	@Override
+	public List<Transaction> deserializeMultipleTransactions(byte[] transactionsData) {
+		List<Transaction> transactions = primaryBuilder.deserializeMultipleTransactions(transactionsData);
+		List<Transaction> referenceTransactions = referenceBuilder.deserializeMultipleTransactions(transactionsData);
+		if (transactions.size() != referenceTransactions.size()) {
+			reportMismatch("deserializeMultipleTransactions", transactions.size(), referenceTransactions.size());
+		}
+		for (int i = 0; i < transactions.size(); i++) {
+			compareTransactions("deserializeMultipleTransactions", transactions.get(i), referenceTransactions.get(i));
+		}
+		return transactions;
+	}
+
+	/**
+	 * Compares two deserialized transactions by ID and by their cached data.
+	 *
+	 */
+	private void compareTransactions(String operation, Transaction transaction, Transaction referenceTransaction) {
+		if (!Arrays.equals(transaction.getId(), referenceTransaction.getId())) {
+			reportMismatch(operation, ConvertUtil.byteArrayToHexString(transaction.getId()), ConvertUtil.byteArrayToHexString(referenceTransaction.getId()));
+		}
+		if (!Arrays.equals(transaction.getCachedTransactionData(), referenceTransaction.getCachedTransactionData())) {
+			reportMismatch(operation, ConvertUtil.byteArrayToHexString(transaction.getCachedTransactionData()),
+					ConvertUtil.byteArrayToHexString(referenceTransaction.getCachedTransactionData()));
+		}
+	}
+
+	private void reportMismatch(String operation, Object result, Object referenceResult) {
+		log.error("Transaction builders disagree on {}: {} (primary) vs {} (reference)", operation, result, referenceResult);
+		throw new IllegalStateException("Transaction builders disagree on " + operation);
+	}
+}
@@ -0,0 +1,8 @@
+package com.example.blockchain.domain.transaction.pool;
+
+import com.example.blockchain.domain.transaction.Transaction;
+
+public interface AddedTransactionsObserver {
+
+	void transactionAdded(Transaction addedTransaction);
+}
@@ -0,0 +1,166 @@
+package com.example.blockchain.domain.transaction.pool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.pool.TransactionsPool.PoolTransaction;
+import com.example.blockchain.util.FeeRateUtil;
+
+/**
+ * Selects pool transactions for a block as packages: each transaction together
+ * with its ancestors in the pool which are not selected yet. Packages are taken
+ * by their aggregate fees per byte (the ancestor fee rate), owned transactions
+ * first, so a parent with low fees is taken when a child pays enough for both.
+ * Once a package is taken, the packages of its descendants no longer count it
+ * and are re-sorted. The selected transactions are returned with every parent
+ * before its children.
+ *
+ * An instance selects once; it is not thread safe.
+ *
+ */
+class AncestorPackageSelector {
+
+	// Stops trying once this many packages in a row do not fit and the block is
+	// nearly full, since the remaining candidates are unlikely to fit
+	static final int MAX_CONSECUTIVE_FAILURES = 1000;
+	static final int NEARLY_FULL_MARGIN = 4000; // In bytes
+
+	private static final Comparator<TransactionPackage> ORDERING = (package1, package2) -> {
+		if (package1.poolTransaction.isOwned() != package2.poolTransaction.isOwned()) {
+			return package1.poolTransaction.isOwned() ? -1 : 1;
+		}
+		int result = Long.compare(package2.feesPerByte, package1.feesPerByte);
+		if (result != 0) {
+			return result;
+		}
+		return Long.compare(package1.poolTransaction.getSequence(), package2.poolTransaction.getSequence());
+	};
+
+	private Map<PoolTransaction, TransactionPackage> packages = new HashMap<>();
+	private TreeSet<TransactionPackage> sortedPackages = new TreeSet<>(ORDERING);
+	private Set<PoolTransaction> selectedTransactions = new HashSet<>();
+
+	AncestorPackageSelector(Collection<PoolTransaction> poolTransactions) {
+		for (PoolTransaction poolTransaction : poolTransactions) {
+			TransactionPackage transactionPackage = new TransactionPackage(poolTransaction, TransactionsPool.collectRelatives(poolTransaction, true));
+			packages.put(poolTransaction, transactionPackage);
+			sortedPackages.add(transactionPackage);
+		}
+	}
+
+	/**
+	 * Creates a selector where the given pool transactions are already selected:
+	 * they are not selected again and are excluded from the packages of their
+	 * descendants.
+	 *
+	 */
+	AncestorPackageSelector(Collection<PoolTransaction> poolTransactions, Collection<PoolTransaction> selectedPoolTransactions) {
+		this(poolTransactions);
+		for (PoolTransaction poolTransaction : selectedPoolTransactions) {
+			TransactionPackage transactionPackage = packages.get(poolTransaction);
+			if (transactionPackage != null) {
+				sortedPackages.remove(transactionPackage);
+			}
+			selectedTransactions.add(poolTransaction);
+		}
+		for (PoolTransaction poolTransaction : selectedPoolTransactions) {
+			excludeFromDescendantPackages(poolTransaction);
+		}
+	}
+
+	/**
+	 * Selects transactions with the given maximum total size.
+	 *
+	 */
+	List<Transaction> select(int maxSize) {
+		List<Transaction> selected = new ArrayList<>();
+		int accumulatedSize = 0;
+		int consecutiveFailures = 0;
+		while (!sortedPackages.isEmpty()) {
+			TransactionPackage bestPackage = sortedPackages.pollFirst();
+			if (accumulatedSize + bestPackage.size > maxSize) {
+				consecutiveFailures++;
+				if (consecutiveFailures > MAX_CONSECUTIVE_FAILURES && maxSize - accumulatedSize < NEARLY_FULL_MARGIN) {
+					break;
+				}
+				continue;
+			}
+			consecutiveFailures = 0;
+
+			// A transaction has more ancestors than any of its ancestors, so sorting by
+			// the number of ancestors puts parents first
+			List<PoolTransaction> packageTransactions = new ArrayList<>(bestPackage.ancestors);
+			packageTransactions.sort(Comparator.comparingInt(poolTransaction -> packages.get(poolTransaction).numberOfAncestors));
+			for (PoolTransaction poolTransaction : packageTransactions) {
+				sortedPackages.remove(packages.get(poolTransaction));
+				selectedTransactions.add(poolTransaction);
+				selected.add(poolTransaction.getTransaction());
+				accumulatedSize += poolTransaction.getTransaction().getSize();
+			}
+			for (PoolTransaction poolTransaction : packageTransactions) {
+				excludeFromDescendantPackages(poolTransaction);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Removes the given selected transaction from the packages of its descendants
+	 * which are still candidates, and re-sorts them.
+	 *
+	 */
+	private void excludeFromDescendantPackages(PoolTransaction selectedTransaction) {
+		for (PoolTransaction descendant : TransactionsPool.collectRelatives(selectedTransaction, false)) {
+			if (descendant == selectedTransaction || selectedTransactions.contains(descendant)) {
+				continue;
+			}
+			TransactionPackage descendantPackage = packages.get(descendant);
+			if (descendantPackage == null || !sortedPackages.remove(descendantPackage)) {
+				continue; // Not a candidate (e.g. dropped as too large)
+			}
+			descendantPackage.ancestors.remove(selectedTransaction);
+			descendantPackage.fees -= selectedTransaction.getFees();
+			descendantPackage.size -= selectedTransaction.getTransaction().getSize();
+			descendantPackage.updateFeesPerByte();
+			sortedPackages.add(descendantPackage);
+		}
+	}
+
+	/**
+	 * A transaction with its ancestors which are not selected yet, and their
+	 * aggregate fees, size and fee rate.
+	 *
+	 */
+	private static class TransactionPackage {
+
+		private PoolTransaction poolTransaction;
+		private Set<PoolTransaction> ancestors; // Including the transaction itself
+		private int numberOfAncestors; // Before any selection
+		private long fees;
+		private int size;
+		private long feesPerByte; // A fee rate, see FeeRateUtil; updated with the two above
+
+		private TransactionPackage(PoolTransaction poolTransaction, Set<PoolTransaction> ancestors) {
+			this.poolTransaction = poolTransaction;
+			this.ancestors = ancestors;
+			this.numberOfAncestors = ancestors.size();
+			for (PoolTransaction ancestor : ancestors) {
+				this.fees += ancestor.getFees();
+				this.size += ancestor.getTransaction().getSize();
+			}
+			updateFeesPerByte();
+		}
+
+		private void updateFeesPerByte() {
+			feesPerByte = FeeRateUtil.calculateFeeRate(fees, size);
+		}
+	}
+}
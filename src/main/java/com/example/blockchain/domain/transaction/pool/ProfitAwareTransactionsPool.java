@@ -1,78 +1,35 @@
 package com.example.blockchain.domain.transaction.pool;
 
-import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Comparator;
 
 import com.example.blockchain.dao.UnconfirmedTransactionsDao;
 import com.example.blockchain.domain.clock.NetworkClock;
-import com.example.blockchain.domain.transaction.Transaction;
 import com.example.blockchain.network.NetworkInterface;
 
+/**
+ * A pool which puts owned transactions first, in the order they were added,
+ * followed by the other transactions from the highest fees per byte to the
+ * lowest.
+ *
+ */
 public class ProfitAwareTransactionsPool extends TransactionsPool {
 
-	public ProfitAwareTransactionsPool(NetworkClock networkClock, NetworkInterface networkInterface, UnconfirmedTransactionsDao unconfirmedTransactionsDao) {
-
-		super(networkClock, networkInterface, unconfirmedTransactionsDao);
-		List<PoolTransaction> dbList = unconfirmedTransactionsDao.findAll();
-		list = new LinkedList<>();
-		for (PoolTransaction poolTransaction : dbList) {
-			addPoolTransaction(poolTransaction, false);
-		}
-		removeExpiredTransactions();
-	}
-
-	@Override
-	public boolean addTransaction(Transaction tx) {
-		return addTransaction(tx, false);
-	}
-
-	@Override
-	public boolean addTransaction(Transaction tx, boolean owned) {
-		PoolTransaction poolTransaction = new PoolTransaction(tx, new Date(), owned);
-		return addPoolTransaction(poolTransaction, true);
-	}
-
-	private boolean addPoolTransaction(PoolTransaction poolTransaction, boolean save) {
-		// TODO Validate the transaction
-
-		boolean transactionAlreadyExists = (getPoolTransaction(poolTransaction.getTransaction().getId()) != null);
-		if (transactionAlreadyExists) {
-			return false;
+	static final Comparator<PoolTransaction> ORDERING = (poolTransaction1, poolTransaction2) -> {
+		if (poolTransaction1.isOwned() != poolTransaction2.isOwned()) {
+			return poolTransaction1.isOwned() ? -1 : 1;
 		}
-
-		if (list.size() == 0) {
-			list.add(poolTransaction);
-		} else {
-			boolean txAdded = false;
-			for (int i = 0; i < list.size(); i++) {
-				boolean hasPriorityDueToBeingOwned = poolTransaction.isOwned() && !list.get(i).isOwned();
-				boolean feesPerByteIsLarger = poolTransaction.getTransaction().getFeesPerByte() > list.get(i).getTransaction().getFeesPerByte();
-				if (hasPriorityDueToBeingOwned || (feesPerByteIsLarger && !list.get(i).isOwned())) {
-					list.add(i, poolTransaction);
-					txAdded = true;
-					break;
-				}
-			}
-			if (!txAdded) {
-				list.add(poolTransaction);
+		if (!poolTransaction1.isOwned()) {
+			int result = Long.compare(poolTransaction2.getFeesPerByte(), poolTransaction1.getFeesPerByte());
+			if (result != 0) {
+				return result;
 			}
 		}
-		if (save) {
-			unconfirmedTransactionsDao.save(poolTransaction);
-		}
-		return true;
-	}
+		return Long.compare(poolTransaction1.getSequence(), poolTransaction2.getSequence());
+	};
 
-	@Override
-	public int addTransactions(Transaction[] transactions) {
-		int count = 0;
-		for (Transaction tx : transactions) {
-			boolean added = addTransaction(tx);
-			if (added) {
-				count++;
-			}
-		}
-		return count;
+	public ProfitAwareTransactionsPool(NetworkClock networkClock, NetworkInterface networkInterface, UnconfirmedTransactionsDao unconfirmedTransactionsDao) {
+
+		super(networkClock, networkInterface, unconfirmedTransactionsDao, ORDERING);
+		loadSavedTransactions();
 	}
 }
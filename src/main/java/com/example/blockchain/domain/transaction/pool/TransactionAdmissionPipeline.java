@@ -0,0 +1,267 @@
+package com.example.blockchain.domain.transaction.pool;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.blockchain.dao.UnspentTransactionOutputDao;
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.domain.script.ScriptRunner;
+import com.example.blockchain.domain.transaction.Outpoint;
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.TransactionInput;
+import com.example.blockchain.domain.transaction.TransactionOutput;
+import com.example.blockchain.domain.transaction.pool.TransactionsPool.PoolTransaction;
+import com.example.blockchain.domain.transaction.utxo.UnspentTransactionOutput;
+import com.example.blockchain.util.FeeRateUtil;
+
+/**
+ * Validates transactions received from the network on a pool of worker threads
+ * before adding them to the transactions pool. A transaction goes through three
+ * stages, each run on the workers:
+ * <ol>
+ * <li>decoding and the checks which need nothing but the transaction,</li>
+ * <li>finding the outputs it spends, in the pool or among the unspent outputs,
+ * and checking that they cover its outputs,</li>
+ * <li>running the scripts of its inputs in parallel, if a script runner is
+ * given.</li>
+ * </ol>
+ * Only the final insert into the pool is serialized, by the lock of the pool,
+ * so bursts of transactions do not hold the pool (and the blocks which update
+ * it) for long. The unspent outputs are read as they are when the transaction
+ * reaches the second stage, without locking the chain.
+ *
+ */
+public class TransactionAdmissionPipeline {
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionAdmissionPipeline.class);
+
+	public static final int DEFAULT_NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors();
+
+	private TransactionsPool transactionsPool;
+	private UnspentTransactionOutputDao unspentTransactionOutputDao;
+	private ScriptRunner scriptRunner; // Scripts are not run if null
+	private ExecutorService executor;
+
+	public TransactionAdmissionPipeline(TransactionsPool transactionsPool, UnspentTransactionOutputDao unspentTransactionOutputDao,
+			ScriptRunner scriptRunner) {
+		this(transactionsPool, unspentTransactionOutputDao, scriptRunner, DEFAULT_NUMBER_OF_THREADS);
+	}
+
+	public TransactionAdmissionPipeline(TransactionsPool transactionsPool, UnspentTransactionOutputDao unspentTransactionOutputDao,
+			ScriptRunner scriptRunner, int numberOfThreads) {
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("The number of threads must be positive");
+		}
+		this.transactionsPool = transactionsPool;
+		this.unspentTransactionOutputDao = unspentTransactionOutputDao;
+		this.scriptRunner = scriptRunner;
+		this.executor = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+			Thread thread = new Thread(runnable, "transaction-admission");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Decodes the given transaction data and admits the transaction. The returned
+	 * future completes with whether it was added to the pool.
+	 *
+	 */
+	public CompletableFuture<Boolean> submit(byte[] transactionData) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return Transaction.buildTransaction(transactionData);
+			} catch (RuntimeException e) {
+				log.debug("Rejected undecodable transaction", e);
+				return null;
+			}
+		}, executor).thenCompose(this::admit);
+	}
+
+	/**
+	 * Admits the given transaction. The returned future completes with whether it
+	 * was added to the pool.
+	 *
+	 */
+	public CompletableFuture<Boolean> submit(Transaction transaction) {
+		return CompletableFuture.completedFuture(transaction).thenComposeAsync(this::admit, executor);
+	}
+
+	/**
+	 * Admits the given transactions independently of each other.
+	 *
+	 */
+	public List<CompletableFuture<Boolean>> submitAll(List<Transaction> transactions) {
+		List<CompletableFuture<Boolean>> results = new ArrayList<>(transactions.size());
+		for (Transaction transaction : transactions) {
+			results.add(submit(transaction));
+		}
+		return results;
+	}
+
+	private CompletableFuture<Boolean> admit(Transaction transaction) {
+		if (transaction == null || !checkStatelessly(transaction)) {
+			return CompletableFuture.completedFuture(false);
+		}
+		List<TransactionOutput> spentOutputs = findSpentOutputs(transaction);
+		if (spentOutputs == null) {
+			return CompletableFuture.completedFuture(false);
+		}
+		long fees;
+		try {
+			fees = calculateFees(transaction, spentOutputs);
+			FeeRateUtil.calculateFeeRate(fees, transaction.getSize()); // Computed again by setFees, which must not overflow
+		} catch (ArithmeticException e) {
+			log.debug("Rejected transaction with amounts or fees out of range");
+			return CompletableFuture.completedFuture(false);
+		}
+		if (fees < 0) {
+			log.debug("Rejected transaction spending more than its inputs");
+			return CompletableFuture.completedFuture(false);
+		}
+		return runScripts(transaction, spentOutputs).thenApply(valid -> {
+			if (!valid) {
+				log.debug("Rejected transaction with failing scripts");
+				return false;
+			}
+			PoolTransaction poolTransaction = new PoolTransaction(transaction, new Date(), false);
+			poolTransaction.setFees(fees);
+			return transactionsPool.addTransaction(poolTransaction);
+		});
+	}
+
+	/**
+	 * Checks what needs nothing but the transaction: it has inputs and outputs, is
+	 * not a coinbase, fits in a block, does not spend an output twice, and its
+	 * amounts are not negative.
+	 *
+	 */
+	private boolean checkStatelessly(Transaction transaction) {
+		if (transaction.getInputs().isEmpty() || transaction.getOutputs().isEmpty()) {
+			log.debug("Rejected transaction without inputs or outputs");
+			return false;
+		}
+		if (transaction.isCoinbase()) {
+			log.debug("Rejected coinbase transaction outside a block");
+			return false;
+		}
+		if (transaction.getSize() > Block.DEFAULT_MAX_SIZE) {
+			log.debug("Rejected transaction larger than a block");
+			return false;
+		}
+		Set<Outpoint> spentOutpoints = new HashSet<>();
+		for (TransactionInput input : transaction.getInputs()) {
+			if (!spentOutpoints.add(Outpoint.of(input))) {
+				log.debug("Rejected transaction spending an output twice");
+				return false;
+			}
+		}
+		for (TransactionOutput output : transaction.getOutputs()) {
+			if (output.getAmount().signum() < 0) {
+				log.debug("Rejected transaction with a negative amount");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the outputs spent by the inputs of the given transaction, in the pool
+	 * first then among the unspent outputs. Returns null if one of them is not
+	 * found.
+	 *
+	 */
+	private List<TransactionOutput> findSpentOutputs(Transaction transaction) {
+		List<TransactionOutput> spentOutputs = new ArrayList<>(transaction.getInputs().size());
+		for (TransactionInput input : transaction.getInputs()) {
+			byte[] spentTransactionId = input.getTransaction().getId();
+			int outputIndex = input.getOutputIndex();
+			PoolTransaction parent = transactionsPool.getPoolTransaction(spentTransactionId);
+			TransactionOutput spentOutput = null;
+			if (parent != null) {
+				if (outputIndex < parent.getTransaction().getOutputs().size()) {
+					spentOutput = parent.getTransaction().getOutputs().get(outputIndex);
+				}
+			} else {
+				// Built from the unspent output alone, which may not have its transaction loaded
+				UnspentTransactionOutput unspentOutput = unspentTransactionOutputDao.find(spentTransactionId, outputIndex);
+				if (unspentOutput != null) {
+					spentOutput = new TransactionOutput(unspentOutput.getAmount(), unspentOutput.getScriptPubKey());
+				}
+			}
+			if (spentOutput == null) {
+				log.debug("Rejected transaction spending the unknown or spent output {}", new Outpoint(spentTransactionId, outputIndex));
+				return null;
+			}
+			spentOutputs.add(spentOutput);
+		}
+		return spentOutputs;
+	}
+
+	private static long calculateFees(Transaction transaction, List<TransactionOutput> spentOutputs) {
+		long fees = 0;
+		for (TransactionOutput spentOutput : spentOutputs) {
+			fees = Math.addExact(fees, spentOutput.getAmountInSatoshis());
+		}
+		for (TransactionOutput output : transaction.getOutputs()) {
+			fees = Math.subtractExact(fees, output.getAmountInSatoshis());
+		}
+		return fees;
+	}
+
+	/**
+	 * Runs the script of each input (its scriptSig followed by the scriptPubKey
+	 * of the spent output) on the workers. Completes with whether all of them
+	 * succeeded.
+	 *
+	 */
+	private CompletableFuture<Boolean> runScripts(Transaction transaction, List<TransactionOutput> spentOutputs) {
+		if (scriptRunner == null) {
+			return CompletableFuture.completedFuture(true);
+		}
+
+		List<CompletableFuture<Boolean>> results = new ArrayList<>(spentOutputs.size());
+		for (int i = 0; i < spentOutputs.size(); i++) {
+			int inputIndex = i;
+			results.add(CompletableFuture.supplyAsync(() -> runScript(transaction, inputIndex, spentOutputs.get(inputIndex)), executor));
+		}
+		return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()])).thenApply(ignored -> {
+			for (CompletableFuture<Boolean> result : results) {
+				if (!result.join()) {
+					return false;
+				}
+			}
+			return true;
+		});
+	}
+
+	private boolean runScript(Transaction transaction, int inputIndex, TransactionOutput spentOutput) {
+		byte[] scriptSig = transaction.getInputs().get(inputIndex).getScriptSig();
+		byte[] scriptPubKey = spentOutput.getScriptPubKey();
+		byte[] script = new byte[scriptSig.length + scriptPubKey.length];
+		System.arraycopy(scriptSig, 0, script, 0, scriptSig.length);
+		System.arraycopy(scriptPubKey, 0, script, scriptSig.length, scriptPubKey.length);
+		try {
+			return scriptRunner.run(script, transaction, inputIndex);
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stops the workers once the submitted transactions are admitted.
+	 *
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
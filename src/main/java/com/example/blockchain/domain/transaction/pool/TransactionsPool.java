@@ -1,14 +1,23 @@
 package com.example.blockchain.domain.transaction.pool;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,12 +25,41 @@ import org.slf4j.LoggerFactory;
 import com.example.blockchain.Callback;
 import com.example.blockchain.dao.UnconfirmedTransactionsDao;
 import com.example.blockchain.domain.clock.NetworkClock;
+import com.example.blockchain.domain.transaction.Outpoint;
 import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.domain.transaction.TransactionInput;
+import com.example.blockchain.domain.transaction.TransactionOutput;
 import com.example.blockchain.network.NetworkCallback;
 import com.example.blockchain.network.NetworkInterface;
 import com.example.blockchain.network.NodeAvailabilitySubscriber;
 import com.example.blockchain.network.handler.GetResponse;
+import com.example.blockchain.util.ByteArrayKey;
+import com.example.blockchain.util.FeeRateUtil;
 
+/**
+ * The pool of unconfirmed transactions. The transactions are indexed by ID and
+ * by the outpoints they spend, and kept sorted by the ordering of the pool
+ * (given by the subclass), so adding, removing and looking up a transaction
+ * take logarithmic or constant time and the best transactions are read from
+ * the head of the ordering.
+ *
+ * The total size of the transactions is kept within a budget. Beyond it, the
+ * transactions with the lowest fees per byte counted with their descendants
+ * are evicted with their descendants, and the minimum fees per byte for new
+ * transactions is raised above what was evicted; the minimum then decays by
+ * half every half-life. Owned transactions are neither evicted nor held to the
+ * minimum.
+ *
+ * Two transactions in the pool never spend the same output. A transaction
+ * spending an output which one in the pool already spends is rejected, unless
+ * replace-by-fee is enabled and it pays enough to replace the conflicting
+ * transactions and their descendants.
+ *
+ * The pool is thread safe: its methods synchronize on it. Expensive checks,
+ * such as validating the transactions, should be done before adding them (see
+ * TransactionAdmissionPipeline) so that the lock is held briefly.
+ *
+ */
 public abstract class TransactionsPool implements NodeAvailabilitySubscriber {
 
 	private static final Logger log = LoggerFactory.getLogger(TransactionsPool.class);
@@ -31,23 +69,59 @@ public abstract class TransactionsPool implements NodeAvailabilitySubscriber {
 	static final long TRANSACTION_EXPIRY_PERIOD = 1000 * 60 * 60 * 24 * 14; // Two weeks
 	static final long TRANSACTION_EXPIRY_CHECK_INTERVAL = 1000 * 60 * 60; // One hour
 	private static final int MIN_NUMBER_OF_NODES = 1;
+	public static final long DEFAULT_MAX_SIZE = 300L * 1000 * 1000; // In bytes
+	static final int MAX_NUMBER_OF_ANCESTORS = 25; // Including the transaction itself
+	static final int MAX_NUMBER_OF_DESCENDANTS = 25; // Including the transaction itself
+	static final long INCREMENTAL_FEES_PER_BYTE = FeeRateUtil.SCALE; // One satoshi; added to the fees per byte of evicted transactions
+	static final long MIN_FEES_PER_BYTE_HALF_LIFE = 1000 * 60 * 60 * 12; // Twelve hours
+	static final int MAX_NUMBER_OF_REPLACED_TRANSACTIONS = 100; // Including the descendants of the conflicting transactions
 
 	private NetworkClock networkClock;
 	NetworkInterface networkInterface;
 	UnconfirmedTransactionsDao unconfirmedTransactionsDao;
 
-	List<PoolTransaction> list;
+	private Map<ByteArrayKey, PoolTransaction> transactionsById = new HashMap<>();
+	private Map<Outpoint, PoolTransaction> transactionsBySpentOutpoint = new HashMap<>();
+	private NavigableSet<PoolTransaction> orderedTransactions;
+	private NavigableMap<Long, Set<PoolTransaction>> transactionsByExpiryBucket = new TreeMap<>(); // Keyed by the check interval of addedOn
+	private NavigableSet<PoolTransaction> evictionCandidates = new TreeSet<>(EVICTION_ORDERING); // The first is evicted first
+	private long nextSequence = 0;
+	private long size = 0; // In bytes
+	private long maxSize = DEFAULT_MAX_SIZE; // In bytes
+	private long minFeesPerByte = 0; // A fee rate, see FeeRateUtil; as last raised, before decaying
+	private boolean replaceByFeeEnabled = false;
+	private long minFeesPerByteRaisedOn = 0;
 	private Set<ExpiredTransactionsObserver> expiredTransactionsObservers = new HashSet<>();
+	private Set<EvictedTransactionsObserver> evictedTransactionsObservers = new HashSet<>();
+	private Set<AddedTransactionsObserver> addedTransactionsObservers = new HashSet<>();
 	private Timer timer = new Timer();
 	private boolean needsToUpdateWithEnoughNodes = false;
+	private volatile TransactionAdmissionPipeline transactionAdmissionPipeline; // Validates the transactions retrieved from the network
 
-	TransactionsPool(NetworkClock networkClock, NetworkInterface networkInterface, UnconfirmedTransactionsDao unconfirmedTransactionsDao) {
+	// By the fees per byte of the transaction with its descendants, the lowest
+	// first; the newest first among equals
+	private static final Comparator<PoolTransaction> EVICTION_ORDERING = (poolTransaction1, poolTransaction2) -> {
+		int result = Long.compare(poolTransaction1.descendantsFeesPerByte, poolTransaction2.descendantsFeesPerByte);
+		if (result != 0) {
+			return result;
+		}
+		return Long.compare(poolTransaction2.getSequence(), poolTransaction1.getSequence());
+	};
+
+	/**
+	 * Creates a pool which keeps its transactions sorted by the given ordering.
+	 * The ordering must be total; ties can be broken by the sequence numbers,
+	 * which are unique.
+	 *
+	 */
+	TransactionsPool(NetworkClock networkClock, NetworkInterface networkInterface, UnconfirmedTransactionsDao unconfirmedTransactionsDao,
+			Comparator<PoolTransaction> ordering) {
 
 		this.networkClock = networkClock;
 		this.networkInterface = networkInterface;
 		this.unconfirmedTransactionsDao = unconfirmedTransactionsDao;
+		this.orderedTransactions = new TreeSet<>(ordering);
 
-		Timer timer = new Timer();
 		timer.scheduleAtFixedRate(new TimerTask() {
 			@Override
 			public void run() {
@@ -94,11 +168,17 @@ public abstract class TransactionsPool implements NodeAvailabilitySubscriber {
 		}
 	}
 
+	/**
+	 * Validates the retrieved transactions through the admission pipeline, which
+	 * adds the valid ones to the pool. Without a pipeline, they are dropped.
+	 *
+	 */
 	private void finishSynchingWithNetwork(List<List<Transaction>> pendingTransactions, Callback<Void> callback) {
-		// FIXME Validate the transactions before adding them
-		Transaction[] pendingTransactionsArray = new Transaction[pendingTransactions.get(0).size()];
-		for (int i = 0; i < pendingTransactions.get(0).size(); i++) {
-			pendingTransactionsArray[i] = pendingTransactions.get(0).get(i);
+		TransactionAdmissionPipeline admissionPipeline = transactionAdmissionPipeline;
+		if (admissionPipeline != null) {
+			admissionPipeline.submitAll(pendingTransactions.get(0));
+		} else {
+			log.debug("Dropped the retrieved pending transactions, as there is no admission pipeline to validate them");
 		}
 		removeExpiredTransactions();
 
@@ -116,11 +196,20 @@ public abstract class TransactionsPool implements NodeAvailabilitySubscriber {
 		}, delay);
 	}
 
+	/**
+	 * Sets the pipeline which validates the pending transactions retrieved from
+	 * the network before they are added. Until it is set, they are dropped.
+	 *
+	 */
+	public void setTransactionAdmissionPipeline(TransactionAdmissionPipeline transactionAdmissionPipeline) {
+		this.transactionAdmissionPipeline = transactionAdmissionPipeline;
+	}
+
 	/**
 	 * Registers the given ExpiredTransactionsObserver.
 	 * 
 	 */
-	public void registerExpiredTransactionsObserver(ExpiredTransactionsObserver observer) {
+	public synchronized void registerExpiredTransactionsObserver(ExpiredTransactionsObserver observer) {
 		expiredTransactionsObservers.add(observer);
 	}
 
@@ -128,7 +217,7 @@ public abstract class TransactionsPool implements NodeAvailabilitySubscriber {
 	 * Unregisters the given ExpiredTransactionsObserver.
 	 * 
 	 */
-	public void unregisterExpiredTransactionsObserver(ExpiredTransactionsObserver observer) {
+	public synchronized void unregisterExpiredTransactionsObserver(ExpiredTransactionsObserver observer) {
 		expiredTransactionsObservers.remove(observer);
 	}
 
@@ -139,125 +228,785 @@ public abstract class TransactionsPool implements NodeAvailabilitySubscriber {
 	}
 
 	/**
-	 * Adds the given transaction to the pool.
+	 * Registers the given EvictedTransactionsObserver.
+	 * 
+	 */
+	public synchronized void registerEvictedTransactionsObserver(EvictedTransactionsObserver observer) {
+		evictedTransactionsObservers.add(observer);
+	}
+
+	/**
+	 * Unregisters the given EvictedTransactionsObserver.
+	 * 
+	 */
+	public synchronized void unregisterEvictedTransactionsObserver(EvictedTransactionsObserver observer) {
+		evictedTransactionsObservers.remove(observer);
+	}
+
+	private void notifyEvictedTransactionsObservers(Transaction evictedTransaction) {
+		for (EvictedTransactionsObserver observer : evictedTransactionsObservers) {
+			observer.transactionEvicted(evictedTransaction);
+		}
+	}
+
+	/**
+	 * Registers the given AddedTransactionsObserver.
+	 * 
+	 */
+	public synchronized void registerAddedTransactionsObserver(AddedTransactionsObserver observer) {
+		addedTransactionsObservers.add(observer);
+	}
+
+	/**
+	 * Unregisters the given AddedTransactionsObserver.
 	 * 
 	 */
-	public abstract boolean addTransaction(Transaction tx);
+	public synchronized void unregisterAddedTransactionsObserver(AddedTransactionsObserver observer) {
+		addedTransactionsObservers.remove(observer);
+	}
+
+	private void notifyAddedTransactionsObservers(Transaction addedTransaction) {
+		for (AddedTransactionsObserver observer : addedTransactionsObservers) {
+			observer.transactionAdded(addedTransaction);
+		}
+	}
 
 	/**
 	 * Adds the given transaction to the pool.
 	 * 
 	 */
-	public abstract boolean addTransaction(Transaction tx, boolean owned);
+	public synchronized boolean addTransaction(Transaction tx) {
+		return addTransaction(tx, false);
+	}
 
 	/**
 	 * Adds the given transaction to the pool.
 	 * 
 	 */
-	public abstract int addTransactions(Transaction[] transactions);
+	public synchronized boolean addTransaction(Transaction tx, boolean owned) {
+		return addTransaction(new PoolTransaction(tx, new Date(), owned));
+	}
 
 	/**
-	 * Removes the transaction with the given ID from the pool.
+	 * Adds the given new pool transaction to the pool, unless its fees per byte
+	 * are below the minimum. Its fees are calculated unless already set.
 	 * 
 	 */
-	public boolean removeTransaction(byte[] id) {
-		for (int i = 0; i < list.size(); i++) {
-			if (Arrays.equals(list.get(i).getTransaction().getId(), id)) {
-				unconfirmedTransactionsDao.delete(list.get(i));
-				list.remove(i);
+	synchronized boolean addTransaction(PoolTransaction poolTransaction) {
+		if (!admitTransaction(poolTransaction)) {
+			return false;
+		}
+		unconfirmedTransactionsDao.save(poolTransaction);
+		trimToMaxSize();
+		if (!transactionsById.containsKey(new ByteArrayKey(poolTransaction.getTransaction().getId()))) {
+			return false; // Evicted right away
+		}
+		notifyAddedTransactionsObservers(poolTransaction.getTransaction());
+		return true;
+	}
+
+	/**
+	 * Adds the given transactions to the pool, each as by addTransaction, and
+	 * returns how many were added. Parents should come before their children.
+	 * The added transactions are saved at once, and the pool is trimmed once at
+	 * the end, so a batch (e.g. the transactions of disconnected blocks) does not
+	 * hit the DAO per transaction.
+	 * 
+	 */
+	public synchronized int addTransactions(Transaction[] transactions) {
+		List<PoolTransaction> admittedTransactions = new ArrayList<>(transactions.length);
+		Date addedOn = new Date();
+		for (Transaction tx : transactions) {
+			PoolTransaction poolTransaction = new PoolTransaction(tx, addedOn, false);
+			if (admitTransaction(poolTransaction)) {
+				admittedTransactions.add(poolTransaction);
+			}
+		}
+		// Some may have been replaced by later ones in the batch
+		admittedTransactions.removeIf(poolTransaction -> !transactionsById.containsKey(new ByteArrayKey(poolTransaction.getTransaction().getId())));
+		if (admittedTransactions.isEmpty()) {
+			return 0;
+		}
+
+		unconfirmedTransactionsDao.save(admittedTransactions);
+		trimToMaxSize();
+		int count = 0;
+		for (PoolTransaction poolTransaction : admittedTransactions) {
+			if (transactionsById.containsKey(new ByteArrayKey(poolTransaction.getTransaction().getId()))) {
+				notifyAddedTransactionsObservers(poolTransaction.getTransaction());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Checks the fees of the given pool transaction, replaces the transactions it
+	 * conflicts with if allowed, and adds it to the indexes without saving it or
+	 * trimming the pool. Returns whether it was added.
+	 * 
+	 */
+	private boolean admitTransaction(PoolTransaction poolTransaction) {
+		if (!setFees(poolTransaction)) {
+			return false;
+		}
+		if (!poolTransaction.isOwned() && poolTransaction.getFeesPerByte() < getMinFeesPerByte()) {
+			log.debug("Rejected transaction with fees per byte {} below the minimum", FeeRateUtil.toSatoshisPerByte(poolTransaction.getFeesPerByte()));
+			return false;
+		}
+		Set<PoolTransaction> conflictingTransactions = findConflictingTransactions(poolTransaction.getTransaction());
+		if (!conflictingTransactions.isEmpty()) {
+			if (!replaceByFeeEnabled || transactionsById.containsKey(new ByteArrayKey(poolTransaction.getTransaction().getId()))) {
+				log.debug("Rejected transaction spending outputs spent in the pool");
+				return false;
+			}
+			if (!replaceConflictingTransactions(poolTransaction, conflictingTransactions)) {
+				return false;
+			}
+		}
+		return addPoolTransaction(poolTransaction, false);
+	}
+
+	/**
+	 * Loads the transactions saved by the DAO into the pool, then removes the
+	 * expired ones and trims it to its maximum size.
+	 * 
+	 */
+	synchronized void loadSavedTransactions() {
+		for (PoolTransaction poolTransaction : unconfirmedTransactionsDao.findAll()) {
+			addPoolTransaction(poolTransaction, false);
+		}
+		removeExpiredTransactions();
+		trimToMaxSize();
+	}
+
+	/**
+	 * Adds the given pool transaction to the indexes and, if asked for, saves it.
+	 * 
+	 */
+	synchronized boolean addPoolTransaction(PoolTransaction poolTransaction, boolean save) {
+		// TODO Validate the transaction
+
+		ByteArrayKey id = new ByteArrayKey(poolTransaction.getTransaction().getId());
+		if (transactionsById.containsKey(id)) {
+			return false;
+		}
+		if (!findConflictingTransactions(poolTransaction.getTransaction()).isEmpty()) {
+			log.debug("Rejected transaction spending outputs spent in the pool");
+			return false;
+		}
+		if (exceedsRelativesLimits(poolTransaction.getTransaction())) {
+			log.debug("Rejected transaction with too many unconfirmed ancestors or descendants");
+			return false;
+		}
+
+		if (!setFees(poolTransaction)) {
+			return false;
+		}
+		poolTransaction.sequence = nextSequence++;
+		transactionsById.put(id, poolTransaction);
+		orderedTransactions.add(poolTransaction);
+		for (Outpoint outpoint : getSpentOutpoints(poolTransaction.getTransaction())) {
+			transactionsBySpentOutpoint.put(outpoint, poolTransaction);
+		}
+		linkToRelatives(poolTransaction);
+		transactionsByExpiryBucket.computeIfAbsent(getExpiryBucket(poolTransaction.getAddedOn()), bucket -> new HashSet<>()).add(poolTransaction);
+		size += poolTransaction.getTransaction().getSize();
+		for (PoolTransaction ancestor : collectRelatives(poolTransaction, true)) {
+			updateDescendantsScore(ancestor);
+		}
+		if (save) {
+			unconfirmedTransactionsDao.save(poolTransaction);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the given pool transaction from the indexes without deleting it.
+	 * 
+	 */
+	private void removeFromIndexes(PoolTransaction poolTransaction) {
+		Set<PoolTransaction> ancestors = collectRelatives(poolTransaction, true);
+		ancestors.remove(poolTransaction);
+		transactionsById.remove(new ByteArrayKey(poolTransaction.getTransaction().getId()));
+		orderedTransactions.remove(poolTransaction);
+		evictionCandidates.remove(poolTransaction);
+		Long expiryBucket = getExpiryBucket(poolTransaction.getAddedOn());
+		Set<PoolTransaction> expiryBucketTransactions = transactionsByExpiryBucket.get(expiryBucket);
+		if (expiryBucketTransactions != null && expiryBucketTransactions.remove(poolTransaction) && expiryBucketTransactions.isEmpty()) {
+			transactionsByExpiryBucket.remove(expiryBucket);
+		}
+		size -= poolTransaction.getTransaction().getSize();
+		for (Outpoint outpoint : getSpentOutpoints(poolTransaction.getTransaction())) {
+			transactionsBySpentOutpoint.remove(outpoint, poolTransaction);
+		}
+		for (PoolTransaction parent : poolTransaction.parents) {
+			parent.children.remove(poolTransaction);
+		}
+		for (PoolTransaction child : poolTransaction.children) {
+			child.parents.remove(poolTransaction);
+		}
+		poolTransaction.parents.clear();
+		poolTransaction.children.clear();
+		for (PoolTransaction ancestor : ancestors) {
+			updateDescendantsScore(ancestor);
+		}
+	}
+
+	/**
+	 * Finds the pool transactions which spend outputs which the given transaction
+	 * spends.
+	 * 
+	 */
+	private Set<PoolTransaction> findConflictingTransactions(Transaction tx) {
+		Set<PoolTransaction> conflictingTransactions = new HashSet<>();
+		for (Outpoint outpoint : getSpentOutpoints(tx)) {
+			PoolTransaction spendingTransaction = transactionsBySpentOutpoint.get(outpoint);
+			if (spendingTransaction != null) {
+				conflictingTransactions.add(spendingTransaction);
+			}
+		}
+		return conflictingTransactions;
+	}
+
+	/**
+	 * Removes the given conflicting transactions with their descendants to make
+	 * room for the given replacement, if it is worth it: none of them is owned
+	 * (unless the replacement is), there are not too many of them, the
+	 * replacement does not spend their outputs, it pays more per byte than each
+	 * conflicting transaction, its fees cover theirs plus the incremental fees
+	 * for its own size, and it would stay within the ancestors and descendants
+	 * limits once they are removed. Returns whether they were replaced.
+	 * 
+	 */
+	private boolean replaceConflictingTransactions(PoolTransaction replacement, Set<PoolTransaction> conflictingTransactions) {
+		Set<PoolTransaction> replacedTransactions = new HashSet<>();
+		for (PoolTransaction conflictingTransaction : conflictingTransactions) {
+			replacedTransactions.addAll(collectRelatives(conflictingTransaction, false));
+		}
+		if (replacedTransactions.size() > MAX_NUMBER_OF_REPLACED_TRANSACTIONS) {
+			log.debug("Rejected replacement of too many transactions");
+			return false;
+		}
+
+		long replacedFees = 0;
+		for (PoolTransaction replacedTransaction : replacedTransactions) {
+			if (replacedTransaction.isOwned() && !replacement.isOwned()) {
+				log.debug("Rejected replacement of an owned transaction");
+				return false;
+			}
+			replacedFees += replacedTransaction.getFees();
+		}
+		for (Outpoint outpoint : getSpentOutpoints(replacement.getTransaction())) {
+			PoolTransaction parent = transactionsById.get(new ByteArrayKey(outpoint.getTransactionId()));
+			if (parent != null && replacedTransactions.contains(parent)) {
+				log.debug("Rejected replacement spending outputs of the transactions it replaces");
+				return false;
+			}
+		}
+		for (PoolTransaction conflictingTransaction : conflictingTransactions) {
+			if (replacement.getFeesPerByte() <= conflictingTransaction.getFeesPerByte()) {
+				log.debug("Rejected replacement without higher fees per byte");
+				return false;
+			}
+		}
+		long incrementalFees = FeeRateUtil.calculateFees(INCREMENTAL_FEES_PER_BYTE, replacement.getTransaction().getSize());
+		if (replacement.getFees() < replacedFees + incrementalFees) {
+			log.debug("Rejected replacement not paying for the transactions it replaces");
+			return false;
+		}
+		// Checked before removing anything, so that a rejected replacement leaves the pool as it was
+		if (exceedsRelativesLimits(replacement.getTransaction(), replacedTransactions)) {
+			log.debug("Rejected replacement with too many unconfirmed ancestors or descendants");
+			return false;
+		}
+
+		for (PoolTransaction replacedTransaction : replacedTransactions) {
+			removeFromIndexes(replacedTransaction);
+		}
+		unconfirmedTransactionsDao.delete(new ArrayList<>(replacedTransactions));
+		log.debug("Replaced {} transactions by fee", replacedTransactions.size());
+		for (PoolTransaction replacedTransaction : replacedTransactions) {
+			notifyEvictedTransactionsObservers(replacedTransaction.getTransaction());
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether adding the given transaction would give it too many
+	 * ancestors in the pool, or give one of them too many descendants.
+	 * 
+	 */
+	private boolean exceedsRelativesLimits(Transaction tx) {
+		return exceedsRelativesLimits(tx, Collections.emptySet());
+	}
+
+	/**
+	 * Returns whether adding the given transaction once the given pool
+	 * transactions are removed would give it too many ancestors in the pool, or
+	 * give one of them too many descendants.
+	 * 
+	 */
+	private boolean exceedsRelativesLimits(Transaction tx, Set<PoolTransaction> removedTransactions) {
+		Set<PoolTransaction> ancestors = new HashSet<>();
+		for (Outpoint outpoint : getSpentOutpoints(tx)) {
+			PoolTransaction parent = transactionsById.get(new ByteArrayKey(outpoint.getTransactionId()));
+			if (parent != null) {
+				ancestors.addAll(collectRelatives(parent, true));
+			}
+		}
+		ancestors.removeAll(removedTransactions);
+		if (ancestors.size() + 1 > MAX_NUMBER_OF_ANCESTORS) {
+			return true;
+		}
+		for (PoolTransaction ancestor : ancestors) {
+			int numberOfDescendants = ancestor.numberOfDescendants;
+			if (!removedTransactions.isEmpty()) {
+				Set<PoolTransaction> descendants = collectRelatives(ancestor, false);
+				descendants.removeAll(removedTransactions);
+				numberOfDescendants = descendants.size();
+			}
+			if (numberOfDescendants + 1 > MAX_NUMBER_OF_DESCENDANTS) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Sets the fees of the given pool transaction unless already set (e.g. by the
+	 * admission pipeline). Returns false if they cannot be represented, i.e. its
+	 * amounts are out of range.
+	 * 
+	 */
+	private boolean setFees(PoolTransaction poolTransaction) {
+		if (poolTransaction.hasFees()) {
+			return true;
+		}
+		try {
+			poolTransaction.setFees(calculateFees(poolTransaction.getTransaction()));
+		} catch (ArithmeticException e) {
+			log.debug("Rejected transaction with amounts out of range");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Calculates the fees of the given transaction. The amounts of outputs spent
+	 * from transactions in the pool are read from them.
+	 * 
+	 */
+	private long calculateFees(Transaction tx) {
+		if (tx.isCoinbase()) {
+			return 0;
+		}
+		long fees = 0;
+		for (TransactionInput input : tx.getInputs()) {
+			PoolTransaction parent = transactionsById.get(new ByteArrayKey(input.getTransaction().getId()));
+			Transaction spentTransaction = parent != null ? parent.getTransaction() : input.getTransaction();
+			fees = Math.addExact(fees, spentTransaction.getOutputs().get(input.getOutputIndex()).getAmountInSatoshis());
+		}
+		for (TransactionOutput output : tx.getOutputs()) {
+			fees = Math.subtractExact(fees, output.getAmountInSatoshis());
+		}
+		return fees;
+	}
+
+	/**
+	 * Recomputes the fees and size of the given transaction with its descendants,
+	 * and re-sorts it for eviction. A transaction with an owned descendant cannot
+	 * be evicted.
+	 * 
+	 */
+	private void updateDescendantsScore(PoolTransaction poolTransaction) {
+		evictionCandidates.remove(poolTransaction); // Before its sort keys change
+		long descendantsFees = 0;
+		long descendantsSize = 0;
+		boolean hasOwnedDescendant = false;
+		Set<PoolTransaction> descendants = collectRelatives(poolTransaction, false);
+		for (PoolTransaction descendant : descendants) {
+			descendantsFees += descendant.getFees();
+			descendantsSize += descendant.getTransaction().getSize();
+			hasOwnedDescendant |= descendant.isOwned();
+		}
+		poolTransaction.descendantsFees = descendantsFees;
+		poolTransaction.descendantsSize = descendantsSize;
+		poolTransaction.descendantsFeesPerByte = FeeRateUtil.calculateFeeRate(descendantsFees, descendantsSize);
+		poolTransaction.numberOfDescendants = descendants.size();
+		if (!hasOwnedDescendant) {
+			evictionCandidates.add(poolTransaction);
+		}
+	}
+
+	/**
+	 * Evicts the transactions with the lowest fees per byte, counted with their
+	 * descendants, until the pool is within its maximum size. The minimum fees
+	 * per byte is raised above the evicted ones.
+	 * 
+	 */
+	synchronized void trimToMaxSize() {
+		List<PoolTransaction> evictedTransactions = new ArrayList<>();
+		while (size > maxSize && !evictionCandidates.isEmpty()) {
+			PoolTransaction worst = evictionCandidates.first();
+			raiseMinFeesPerByte(worst.descendantsFeesPerByte + INCREMENTAL_FEES_PER_BYTE);
+			for (PoolTransaction descendant : collectRelatives(worst, false)) {
+				removeFromIndexes(descendant);
+				evictedTransactions.add(descendant);
+			}
+		}
+		if (evictedTransactions.isEmpty()) {
+			return;
+		}
+		unconfirmedTransactionsDao.delete(evictedTransactions);
+		log.info("Evicted {} transactions to keep the pool within {} bytes", evictedTransactions.size(), maxSize);
+		for (PoolTransaction poolTransaction : evictedTransactions) {
+			notifyEvictedTransactionsObservers(poolTransaction.getTransaction());
+		}
+	}
+
+	private void raiseMinFeesPerByte(long feesPerByte) {
+		if (feesPerByte > getMinFeesPerByte()) {
+			minFeesPerByte = feesPerByte;
+			minFeesPerByteRaisedOn = networkClock.getNetworkTime().getTime();
+		}
+	}
+
+	/**
+	 * Gets the minimum fees per byte for a transaction to be added, after decaying
+	 * it by half every half-life since it was raised. The half-life is shorter
+	 * while the pool is far below its maximum size. Once the minimum falls below
+	 * half the incremental fees per byte, it is dropped to zero. The minimum is a
+	 * fee rate as defined by FeeRateUtil.
+	 * 
+	 */
+	public synchronized long getMinFeesPerByte() {
+		if (minFeesPerByte == 0) {
+			return 0;
+		}
+
+		long now = networkClock.getNetworkTime().getTime();
+		long halfLife = MIN_FEES_PER_BYTE_HALF_LIFE;
+		if (size < maxSize / 4) {
+			halfLife /= 4;
+		} else if (size < maxSize / 2) {
+			halfLife /= 2;
+		}
+		// Decayed from the value and time of the last raise, which are not written
+		// back, so that frequent calls do not round the decay away
+		long decayedMinFeesPerByte = Math.round(minFeesPerByte / Math.pow(2, (double) Math.max(0, now - minFeesPerByteRaisedOn) / halfLife));
+		if (decayedMinFeesPerByte < INCREMENTAL_FEES_PER_BYTE / 2) {
+			minFeesPerByte = 0;
+			return 0;
+		}
+		return decayedMinFeesPerByte;
+	}
+
+	/**
+	 * Collects the given pool transaction with all its ancestors (or descendants)
+	 * in the pool.
+	 * 
+	 */
+	static Set<PoolTransaction> collectRelatives(PoolTransaction poolTransaction, boolean ancestors) {
+		Set<PoolTransaction> relatives = new HashSet<>();
+		Deque<PoolTransaction> toVisit = new ArrayDeque<>();
+		toVisit.push(poolTransaction);
+		while (!toVisit.isEmpty()) {
+			PoolTransaction relative = toVisit.pop();
+			if (relatives.add(relative)) {
+				toVisit.addAll(ancestors ? relative.parents : relative.children);
+			}
+		}
+		return relatives;
+	}
+
+	/**
+	 * Links the given pool transaction to the pool transactions whose outputs it
+	 * spends (its parents) and to those which spend its outputs (its children,
+	 * which may have arrived first).
+	 * 
+	 */
+	private void linkToRelatives(PoolTransaction poolTransaction) {
+		Transaction tx = poolTransaction.getTransaction();
+		for (Outpoint outpoint : getSpentOutpoints(tx)) {
+			PoolTransaction parent = transactionsById.get(new ByteArrayKey(outpoint.getTransactionId()));
+			if (parent != null) {
+				parent.children.add(poolTransaction);
+				poolTransaction.parents.add(parent);
+			}
+		}
+		for (int i = 0; i < tx.getOutputs().size(); i++) {
+			PoolTransaction child = transactionsBySpentOutpoint.get(new Outpoint(tx.getId(), i));
+			if (child != null) {
+				poolTransaction.children.add(child);
+				child.parents.add(poolTransaction);
+			}
+		}
+	}
+
+	private static List<Outpoint> getSpentOutpoints(Transaction tx) {
+		if (tx.isCoinbase()) {
+			return new ArrayList<>(0);
+		}
+		List<Outpoint> outpoints = new ArrayList<>(tx.getInputs().size());
+		for (TransactionInput input : tx.getInputs()) {
+			outpoints.add(Outpoint.of(input));
+		}
+		return outpoints;
+	}
+
+	/**
+	 * Removes the transaction with the given ID from the pool.
+	 * 
+	 */
+	public synchronized boolean removeTransaction(byte[] id) {
+		PoolTransaction poolTransaction = transactionsById.get(new ByteArrayKey(id));
+		if (poolTransaction == null) {
+			return false;
+		}
+		removeFromIndexes(poolTransaction);
+		unconfirmedTransactionsDao.delete(poolTransaction);
+		return true;
+	}
+
 	/**
 	 * Removes the given transaction from the pool.
 	 * 
 	 */
-	public boolean removeTransaction(Transaction tx) {
+	public synchronized boolean removeTransaction(Transaction tx) {
 		return removeTransaction(tx.getId());
 	}
 
 	/**
-	 * Removes the given transactions from the pool.
+	 * Removes the given transactions (e.g. confirmed by a block) from the pool,
+	 * along with the pool transactions which conflict with them and their
+	 * descendants, as they can no longer be confirmed. The removed transactions
+	 * are deleted from the DAO at once.
 	 * 
 	 */
-	public void removeTransactions(Transaction[] transactions) {
+	public synchronized void removeTransactions(Transaction[] transactions) {
+		List<PoolTransaction> removedTransactions = new ArrayList<>();
 		for (Transaction tx : transactions) {
-			removeTransaction(tx);
+			PoolTransaction poolTransaction = transactionsById.get(new ByteArrayKey(tx.getId()));
+			if (poolTransaction != null) {
+				removeFromIndexes(poolTransaction);
+				removedTransactions.add(poolTransaction);
+			}
+		}
+		int numberOfRemovedTransactions = removedTransactions.size();
+		for (Transaction tx : transactions) {
+			for (PoolTransaction conflictingTransaction : findConflictingTransactions(tx)) {
+				if (!transactionsById.containsKey(new ByteArrayKey(conflictingTransaction.getTransaction().getId()))) {
+					continue; // Already removed as a descendant of another one
+				}
+				for (PoolTransaction descendant : collectRelatives(conflictingTransaction, false)) {
+					removeFromIndexes(descendant);
+					removedTransactions.add(descendant);
+				}
+			}
 		}
+		if (removedTransactions.size() > numberOfRemovedTransactions) {
+			log.info("Removed {} transactions conflicting with the removed ones", removedTransactions.size() - numberOfRemovedTransactions);
+		}
+		if (!removedTransactions.isEmpty()) {
+			unconfirmedTransactionsDao.delete(removedTransactions);
+		}
+	}
+
+	/**
+	 * Gets the expiry bucket of a transaction added on the given date: the index
+	 * of the check interval it falls in.
+	 * 
+	 */
+	private static long getExpiryBucket(Date addedOn) {
+		return Math.floorDiv(addedOn.getTime(), TRANSACTION_EXPIRY_CHECK_INTERVAL);
 	}
 
 	/**
-	 * Removes expired transactions from the pool.
+	 * Removes expired transactions from the pool with their descendants, which
+	 * would otherwise be left spending outputs no longer in the pool. Only the
+	 * buckets which are due are visited; every transaction in them is expired
+	 * except in the last one, which may be partly due. The expired transactions
+	 * are deleted in one batch.
 	 * 
 	 */
-	void removeExpiredTransactions() {
+	synchronized void removeExpiredTransactions() {
 		Date networkTime = networkClock.getNetworkTime();
-		ListIterator<PoolTransaction> iterator = list.listIterator();
-		while (iterator.hasNext()) {
-			PoolTransaction poolTransaction = iterator.next();
-			if (poolTransaction.isExpired(networkTime)) {
-				unconfirmedTransactionsDao.delete(poolTransaction);
-				iterator.remove();
-				notifyExpiredTransactionsObservers(poolTransaction.getTransaction());
+		long lastDueBucket = getExpiryBucket(new Date(networkTime.getTime() - TRANSACTION_EXPIRY_PERIOD));
+		Set<PoolTransaction> expiredTransactionsSet = new LinkedHashSet<>();
+		for (Set<PoolTransaction> bucketTransactions : transactionsByExpiryBucket.headMap(lastDueBucket, true).values()) {
+			for (PoolTransaction poolTransaction : bucketTransactions) {
+				if (poolTransaction.isExpired(networkTime) && !expiredTransactionsSet.contains(poolTransaction)) {
+					expiredTransactionsSet.addAll(collectRelatives(poolTransaction, false));
+				}
 			}
 		}
+		if (expiredTransactionsSet.isEmpty()) {
+			return;
+		}
+
+		List<PoolTransaction> expiredTransactions = new ArrayList<>(expiredTransactionsSet);
+		for (PoolTransaction poolTransaction : expiredTransactions) {
+			removeFromIndexes(poolTransaction);
+		}
+		unconfirmedTransactionsDao.delete(expiredTransactions);
+		for (PoolTransaction poolTransaction : expiredTransactions) {
+			notifyExpiredTransactionsObservers(poolTransaction.getTransaction());
+		}
 	}
 
 	/**
 	 * Gets all candidate transactions.
 	 * 
 	 */
-	public List<Transaction> getAllCandidateTransactions() {
-		List<Transaction> candidateTxsList = new ArrayList<>(list.size());
-		for (PoolTransaction poolTransaction : list) {
+	public synchronized List<Transaction> getAllCandidateTransactions() {
+		List<Transaction> candidateTxsList = new ArrayList<>(orderedTransactions.size());
+		for (PoolTransaction poolTransaction : orderedTransactions) {
 			candidateTxsList.add(poolTransaction.getTransaction());
 		}
 		return candidateTxsList;
 	}
 
 	/**
-	 * Gets candidate transactions with the given maximum size.
+	 * Gets candidate transactions with the given maximum size. The transactions
+	 * are taken in the order of the pool; one which does not fit is skipped.
 	 * 
 	 */
-	public List<Transaction> getCandidateTransactions(int maxSize) {
+	public synchronized List<Transaction> getCandidateTransactions(int maxSize) {
 		if (maxSize < 1) {
 			throw new RuntimeException("Invalid Coinbase Size");
 		}
 
 		int accumulatedSize = 0;
 		List<Transaction> candidateTxsList = new ArrayList<>();
-		for (PoolTransaction poolTransaction : list) {
+		for (PoolTransaction poolTransaction : orderedTransactions) {
 			Transaction tx = poolTransaction.getTransaction();
 			if (accumulatedSize + tx.getSize() <= maxSize) {
 				candidateTxsList.add(tx);
 				accumulatedSize += tx.getSize();
+				if (accumulatedSize == maxSize) {
+					break;
+				}
 			}
 		}
 		return candidateTxsList;
 	}
 
 	/**
-	 * Gets the count of transactions.
+	 * Gets candidate transactions with the given maximum size, selected as
+	 * packages (a transaction with its unconfirmed ancestors in the pool) by their
+	 * fees per byte, so that a child paying for its parents is taken with them.
+	 * Owned transactions are taken first. The transactions are returned in an
+	 * order where parents come before their children.
 	 * 
 	 */
-	public int getCount() {
-		return list.size();
+	public synchronized List<Transaction> getCandidatePackages(int maxSize) {
+		return getCandidatePackages(maxSize, Collections.emptySet());
 	}
 
-	PoolTransaction getPoolTransaction(byte[] txId) {
-		for (PoolTransaction poolTransaction : list) {
-			if (Arrays.equals(poolTransaction.getTransaction().getId(), txId)) {
-				return poolTransaction;
+	/**
+	 * Gets candidate transactions as getCandidatePackages(int) does, treating the
+	 * transactions with the given IDs as already selected (e.g. they are in the
+	 * block being topped up): they are not returned, and they no longer count in
+	 * the packages of their descendants. The given maximum size is the room left
+	 * besides them.
+	 *
+	 */
+	public synchronized List<Transaction> getCandidatePackages(int maxSize, Set<ByteArrayKey> selectedIds) {
+		if (maxSize < 1) {
+			throw new RuntimeException("Invalid Coinbase Size");
+		}
+
+		List<PoolTransaction> selectedTransactions = new ArrayList<>(selectedIds.size());
+		for (ByteArrayKey id : selectedIds) {
+			PoolTransaction poolTransaction = transactionsById.get(id);
+			if (poolTransaction != null) {
+				selectedTransactions.add(poolTransaction);
 			}
 		}
-		return null;
+		return new AncestorPackageSelector(orderedTransactions, selectedTransactions).select(maxSize);
+	}
+
+	/**
+	 * Gets the total size of the transactions in bytes.
+	 * 
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the maximum total size of the transactions in bytes.
+	 * 
+	 */
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Sets the maximum total size of the transactions in bytes, evicting
+	 * transactions if the pool is larger.
+	 * 
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("The maximum size must be positive");
+		}
+		this.maxSize = maxSize;
+		trimToMaxSize();
 	}
 
-	Transaction getTransaction(int index) {
-		return list.get(index).getTransaction();
+	public synchronized boolean isReplaceByFeeEnabled() {
+		return replaceByFeeEnabled;
+	}
+
+	/**
+	 * Sets whether a transaction may replace the pool transactions spending the
+	 * same outputs by paying more.
+	 * 
+	 */
+	public synchronized void setReplaceByFeeEnabled(boolean replaceByFeeEnabled) {
+		this.replaceByFeeEnabled = replaceByFeeEnabled;
+	}
+
+	/**
+	 * Gets the count of transactions.
+	 * 
+	 */
+	public synchronized int getCount() {
+		return transactionsById.size();
+	}
+
+	/**
+	 * Returns whether the transaction with the given ID is in the pool.
+	 * 
+	 */
+	public synchronized boolean containsTransaction(byte[] txId) {
+		return transactionsById.containsKey(new ByteArrayKey(txId));
+	}
+
+	/**
+	 * Gets the pool transaction which spends the given outpoint, or null if none
+	 * does.
+	 * 
+	 */
+	public synchronized Transaction getSpendingTransaction(Outpoint outpoint) {
+		PoolTransaction poolTransaction = transactionsBySpentOutpoint.get(outpoint);
+		return poolTransaction != null ? poolTransaction.getTransaction() : null;
+	}
+
+	/**
+	 * Gets the fees of the transaction with the given ID, or null if it is not in
+	 * the pool.
+	 * 
+	 */
+	public synchronized Long getTransactionFees(byte[] txId) {
+		PoolTransaction poolTransaction = transactionsById.get(new ByteArrayKey(txId));
+		return poolTransaction != null ? poolTransaction.getFees() : null;
+	}
+
+	synchronized PoolTransaction getPoolTransaction(byte[] txId) {
+		return transactionsById.get(new ByteArrayKey(txId));
 	}
 
 	@Override
@@ -274,6 +1023,16 @@ public abstract class TransactionsPool implements NodeAvailabilitySubscriber {
 		private Date addedOn;
 		// FIXME There will be inconsistency if the owning account is deleted
 		private boolean owned; // Specifies if the transaction is owned by one of the user accounts
+		private long sequence; // The order in which the transaction was added to the pool
+		private boolean feesSet = false;
+		private long fees; // Set by the pool, or cached on first use, as computing them loads the input transactions
+		private long feesPerByte; // A fee rate, see FeeRateUtil; set with the fees
+		Set<PoolTransaction> parents = new HashSet<>(); // The pool transactions whose outputs this one spends
+		Set<PoolTransaction> children = new HashSet<>(); // The pool transactions which spend outputs of this one
+		long descendantsFees = 0; // Of this transaction with its descendants
+		long descendantsSize = 0; // Of this transaction with its descendants
+		long descendantsFeesPerByte = 0; // A fee rate, see FeeRateUtil; set with the two above
+		int numberOfDescendants = 0; // Including this transaction
 
 		public PoolTransaction(Transaction transaction, Date addedOn, boolean owned) {
 			this.transaction = transaction;
@@ -301,5 +1060,42 @@ public abstract class TransactionsPool implements NodeAvailabilitySubscriber {
 		public boolean isOwned() {
 			return owned;
 		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		boolean hasFees() {
+			return feesSet;
+		}
+
+		/**
+		 * Sets the fees, and computes the fees per byte from them once.
+		 * 
+		 */
+		void setFees(long fees) {
+			this.fees = fees;
+			this.feesPerByte = FeeRateUtil.calculateFeeRate(fees, transaction.getSize());
+			this.feesSet = true;
+		}
+
+		public long getFees() {
+			if (!feesSet) {
+				setFees(transaction.getFeesInSatoshis());
+			}
+			return fees;
+		}
+
+		/**
+		 * Gets the fees per byte as a fee rate (see FeeRateUtil), exact so that
+		 * ordering by it is stable.
+		 * 
+		 */
+		public long getFeesPerByte() {
+			if (!feesSet) {
+				setFees(transaction.getFeesInSatoshis());
+			}
+			return feesPerByte;
+		}
 	}
 }
@@ -14,6 +14,7 @@ public class UnspentTransactionOutput {
 	private Transaction transaction;
 	private int outputIndex;
 	private BigInteger amount;
+	private byte[] scriptPubKey; // Read from the transaction if null
 
 	public UnspentTransactionOutput(Transaction transaction, int outputIndex, BigInteger amount) {
 		this.transaction = transaction;
@@ -21,9 +22,31 @@ public class UnspentTransactionOutput {
 		this.amount = amount;
 	}
 
+	/**
+	 * Creates an output which carries its scriptPubKey, so that the transaction
+	 * (e.g. one which is not loaded) does not need to be read.
+	 *
+	 */
+	public UnspentTransactionOutput(Transaction transaction, int outputIndex, BigInteger amount, byte[] scriptPubKey) {
+		this(transaction, outputIndex, amount);
+		this.scriptPubKey = scriptPubKey;
+	}
+
+	/**
+	 * Gets the scriptPubKey of the output, from the transaction unless it was
+	 * given.
+	 *
+	 */
+	public byte[] getScriptPubKey() {
+		if (scriptPubKey != null) {
+			return scriptPubKey;
+		}
+		return transaction.getOutputs().get(outputIndex).getScriptPubKey();
+	}
+
 	public boolean isForwardedToAddress(Address address, PublicKey publicKey) {
 		byte[] encodedPublicKey = publicKey.getEncoded();
-		byte[] scriptPubKey = this.transaction.getOutputs().get(this.outputIndex).getScriptPubKey();
+		byte[] scriptPubKey = getScriptPubKey();
 		// FIXME Not the optimal way to check
 		if (ByteUtil.contains(scriptPubKey, address.getRipeMD160Hash()) || ByteUtil.contains(scriptPubKey, encodedPublicKey)) {
 			return true;
@@ -48,7 +71,7 @@ public class UnspentTransactionOutput {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + outputIndex;
-		result = prime * result + ((transaction.getId() == null) ? 0 : transaction.getId().hashCode());
+		result = prime * result + Arrays.hashCode(transaction.getId()); // By content, as in equals
 		return result;
 	}
 
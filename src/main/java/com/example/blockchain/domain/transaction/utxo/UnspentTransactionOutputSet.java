@@ -0,0 +1,447 @@
+package com.example.blockchain.domain.transaction.utxo;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.example.blockchain.domain.transaction.Transaction;
+import com.example.blockchain.util.ByteUtil;
+
+/**
+ * A set of unspent transaction outputs kept off the heap, so that millions of
+ * them take a predictable amount of memory and are not scanned by the garbage
+ * collector.
+ *
+ * Each output is an entry appended to a buffer (direct, or mapped from a file):
+ * a live flag, the packed outpoint (the 32-byte transaction ID and the 1-byte
+ * output index, as in serialized transactions), the amount as an unsigned long, and the scriptPubKey inline. The entries
+ * are found through an open-addressing table with linear probing, itself a
+ * direct buffer of slots holding the hash of the outpoint and the offset of the
+ * entry. Removing an output marks its entry dead and shifts back the slots
+ * which follow, so no tombstones are left in the table. The space of dead
+ * entries is reclaimed by compacting the entries in place before the buffer
+ * would grow.
+ *
+ * An instance is not thread safe.
+ *
+ */
+public class UnspentTransactionOutputSet {
+
+	public static final int TRANSACTION_ID_SIZE = 32; // In bytes
+	public static final int MAX_OUTPUT_INDEX = 0xff; // Serialized transactions give the output index one byte
+	public static final int DEFAULT_EXPECTED_NUMBER_OF_OUTPUTS = 1 << 16;
+
+	private static final int SLOT_SIZE = 8; // The hash of the outpoint, then the offset of the entry plus one (zero if the slot is empty)
+	private static final int SLOT_OFFSET_POSITION = 4;
+	private static final float MAX_LOAD_FACTOR = 0.75f;
+	private static final int MIN_NUMBER_OF_SLOTS = 16;
+	private static final int MAX_NUMBER_OF_SLOTS = 1 << 27; // The slots take up to 1 GiB, so their size in bytes fits in an int
+	private static final int MAX_ENTRIES_CAPACITY = Integer.MAX_VALUE - 1; // In bytes; offsets are stored plus one in an int
+	private static final int EXPECTED_SCRIPT_SIZE = 64; // In bytes; to size the entries buffer
+
+	private static final byte DEAD_ENTRY = 0;
+	private static final byte LIVE_ENTRY = 1;
+	private static final int ENTRY_TRANSACTION_ID_POSITION = 1;
+	private static final int ENTRY_OUTPUT_INDEX_POSITION = ENTRY_TRANSACTION_ID_POSITION + TRANSACTION_ID_SIZE;
+	private static final int ENTRY_AMOUNT_POSITION = ENTRY_OUTPUT_INDEX_POSITION + 1;
+	private static final int ENTRY_SCRIPT_SIZE_POSITION = ENTRY_AMOUNT_POSITION + 8;
+	private static final int ENTRY_SCRIPT_POSITION = ENTRY_SCRIPT_SIZE_POSITION + 4;
+
+	private FileChannel fileChannel; // Null if the entries are not mapped from a file
+	private ByteBuffer slots;
+	private int slotMask;
+	private ByteBuffer entries;
+	private int entriesEnd = 0; // In bytes; where the next entry is appended
+	private long deadEntriesSize = 0; // In bytes
+	private int size = 0;
+
+	public UnspentTransactionOutputSet() {
+		this(DEFAULT_EXPECTED_NUMBER_OF_OUTPUTS);
+	}
+
+	/**
+	 * Creates a set in direct buffers sized for the given number of outputs.
+	 *
+	 */
+	public UnspentTransactionOutputSet(int expectedNumberOfOutputs) {
+		this.slots = allocateSlots(calculateNumberOfSlots(expectedNumberOfOutputs));
+		this.slotMask = slots.capacity() / SLOT_SIZE - 1;
+		this.entries = ByteBuffer.allocateDirect(calculateEntriesCapacity(expectedNumberOfOutputs));
+	}
+
+	/**
+	 * Creates a set whose entries are mapped from the given file, which is
+	 * emptied. The table of slots stays in a direct buffer.
+	 *
+	 */
+	public UnspentTransactionOutputSet(Path file, int expectedNumberOfOutputs) {
+		this.slots = allocateSlots(calculateNumberOfSlots(expectedNumberOfOutputs));
+		this.slotMask = slots.capacity() / SLOT_SIZE - 1;
+		try {
+			this.fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open the unspent transaction outputs file", e);
+		}
+		this.entries = mapEntries(calculateEntriesCapacity(expectedNumberOfOutputs));
+	}
+
+	/**
+	 * Adds the given output unless the set has it already. Returns whether it was
+	 * added. The amount is read as an unsigned 64-bit number, since amounts may
+	 * exceed Long.MAX_VALUE.
+	 *
+	 */
+	public boolean add(byte[] txId, int outputIndex, long amount, byte[] scriptPubKey) {
+		checkOutpoint(txId, outputIndex);
+		int hash = hash(txId, outputIndex);
+		int slot = findSlot(txId, outputIndex, hash);
+		if (getEntryOffset(slot) >= 0) {
+			return false;
+		}
+		if (size + 1 >= slotMask + 1) {
+			throw new IllegalStateException("The unspent transaction outputs set is full");
+		}
+
+		// Compacting the entries moves them but not the slots, so the free slot stays
+		int offset = appendEntry(txId, outputIndex, amount, scriptPubKey);
+		slots.putInt(slot * SLOT_SIZE, hash);
+		slots.putInt(slot * SLOT_SIZE + SLOT_OFFSET_POSITION, offset + 1);
+		size++;
+		if (size > (slotMask + 1) * MAX_LOAD_FACTOR && slotMask + 1 < MAX_NUMBER_OF_SLOTS) {
+			resizeSlots((slotMask + 1) * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the given output unless the set has it already. Returns whether it was
+	 * added.
+	 *
+	 */
+	public boolean add(UnspentTransactionOutput unspentTransactionOutput) {
+		BigInteger amount = unspentTransactionOutput.getAmount();
+		if (amount.signum() < 0 || amount.bitLength() > Long.SIZE) {
+			throw new IllegalArgumentException("The amount must fit in an unsigned 64-bit number");
+		}
+		return add(unspentTransactionOutput.getTransaction().getId(), unspentTransactionOutput.getOutputIndex(), amount.longValue(),
+				unspentTransactionOutput.getScriptPubKey());
+	}
+
+	/**
+	 * Removes the given output. Returns whether the set had it.
+	 *
+	 */
+	public boolean remove(byte[] txId, int outputIndex) {
+		checkOutpoint(txId, outputIndex);
+		int slot = findSlot(txId, outputIndex, hash(txId, outputIndex));
+		int offset = getEntryOffset(slot);
+		if (offset < 0) {
+			return false;
+		}
+
+		entries.put(offset, DEAD_ENTRY);
+		deadEntriesSize += getEntrySize(offset);
+		clearSlot(slot);
+		size--;
+		return true;
+	}
+
+	public boolean remove(UnspentTransactionOutput unspentTransactionOutput) {
+		return remove(unspentTransactionOutput.getTransaction().getId(), unspentTransactionOutput.getOutputIndex());
+	}
+
+	public boolean contains(byte[] txId, int outputIndex) {
+		checkOutpoint(txId, outputIndex);
+		return getEntryOffset(findSlot(txId, outputIndex, hash(txId, outputIndex))) >= 0;
+	}
+
+	/**
+	 * Gets the amount of the given output, or null if the set does not have it.
+	 *
+	 */
+	public BigInteger getAmount(byte[] txId, int outputIndex) {
+		checkOutpoint(txId, outputIndex);
+		int offset = getEntryOffset(findSlot(txId, outputIndex, hash(txId, outputIndex)));
+		return offset >= 0 ? ByteUtil.toUnsignedBigInteger(entries.getLong(offset + ENTRY_AMOUNT_POSITION)) : null;
+	}
+
+	/**
+	 * Finds the given output, or returns null if the set does not have it. The
+	 * transaction of the returned output is not loaded; the output carries its
+	 * amount and scriptPubKey.
+	 *
+	 */
+	public UnspentTransactionOutput find(byte[] txId, int outputIndex) {
+		checkOutpoint(txId, outputIndex);
+		int offset = getEntryOffset(findSlot(txId, outputIndex, hash(txId, outputIndex)));
+		if (offset < 0) {
+			return null;
+		}
+
+		byte[] scriptPubKey = new byte[entries.getInt(offset + ENTRY_SCRIPT_SIZE_POSITION)];
+		for (int i = 0; i < scriptPubKey.length; i++) {
+			scriptPubKey[i] = entries.get(offset + ENTRY_SCRIPT_POSITION + i);
+		}
+		long amount = entries.getLong(offset + ENTRY_AMOUNT_POSITION);
+		return new UnspentTransactionOutput(new Transaction(txId.clone()), outputIndex, ByteUtil.toUnsignedBigInteger(amount), scriptPubKey);
+	}
+
+	/**
+	 * Releases the file the entries are mapped from, if any. The set cannot be
+	 * used afterwards.
+	 *
+	 */
+	public void close() {
+		if (fileChannel == null) {
+			return;
+		}
+		try {
+			fileChannel.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not close the unspent transaction outputs file", e);
+		}
+	}
+
+	/**
+	 * Probes from the home slot of the given outpoint until the slot holding it,
+	 * or the empty slot where it would be added.
+	 *
+	 */
+	private int findSlot(byte[] txId, int outputIndex, int hash) {
+		int slot = hash & slotMask;
+		while (true) {
+			int offset = getEntryOffset(slot);
+			if (offset < 0 || (slots.getInt(slot * SLOT_SIZE) == hash && entryMatches(offset, txId, outputIndex))) {
+				return slot;
+			}
+			slot = (slot + 1) & slotMask;
+		}
+	}
+
+	/**
+	 * Gets the offset of the entry of the given slot, or -1 if it is empty.
+	 *
+	 */
+	private int getEntryOffset(int slot) {
+		return slots.getInt(slot * SLOT_SIZE + SLOT_OFFSET_POSITION) - 1;
+	}
+
+	private boolean entryMatches(int offset, byte[] txId, int outputIndex) {
+		if ((entries.get(offset + ENTRY_OUTPUT_INDEX_POSITION) & 0xff) != outputIndex) {
+			return false;
+		}
+		for (int i = 0; i < TRANSACTION_ID_SIZE; i++) {
+			if (entries.get(offset + ENTRY_TRANSACTION_ID_POSITION + i) != txId[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Empties the given slot, then moves back the slots which follow it in the
+	 * same run unless that would put them before their home slot, so that
+	 * probing never stops early.
+	 *
+	 */
+	private void clearSlot(int slot) {
+		int hole = slot;
+		int next = slot;
+		while (true) {
+			next = (next + 1) & slotMask;
+			if (getEntryOffset(next) < 0) {
+				break;
+			}
+			int home = slots.getInt(next * SLOT_SIZE) & slotMask;
+			if (((next - home) & slotMask) >= ((next - hole) & slotMask)) {
+				slots.putLong(hole * SLOT_SIZE, slots.getLong(next * SLOT_SIZE));
+				hole = next;
+			}
+		}
+		slots.putLong(hole * SLOT_SIZE, 0);
+	}
+
+	private void resizeSlots(int numberOfSlots) {
+		ByteBuffer previousSlots = slots;
+		slots = allocateSlots(numberOfSlots);
+		slotMask = numberOfSlots - 1;
+		for (int position = 0; position < previousSlots.capacity(); position += SLOT_SIZE) {
+			if (previousSlots.getInt(position + SLOT_OFFSET_POSITION) == 0) {
+				continue;
+			}
+			int slot = previousSlots.getInt(position) & slotMask;
+			while (getEntryOffset(slot) >= 0) {
+				slot = (slot + 1) & slotMask;
+			}
+			slots.putLong(slot * SLOT_SIZE, previousSlots.getLong(position));
+		}
+	}
+
+	private int appendEntry(byte[] txId, int outputIndex, long amount, byte[] scriptPubKey) {
+		int entrySize = ENTRY_SCRIPT_POSITION + scriptPubKey.length;
+		ensureEntriesCapacity(entrySize);
+		int offset = entriesEnd;
+		entries.put(offset, LIVE_ENTRY);
+		for (int i = 0; i < TRANSACTION_ID_SIZE; i++) {
+			entries.put(offset + ENTRY_TRANSACTION_ID_POSITION + i, txId[i]);
+		}
+		entries.put(offset + ENTRY_OUTPUT_INDEX_POSITION, (byte) outputIndex);
+		entries.putLong(offset + ENTRY_AMOUNT_POSITION, amount);
+		entries.putInt(offset + ENTRY_SCRIPT_SIZE_POSITION, scriptPubKey.length);
+		for (int i = 0; i < scriptPubKey.length; i++) {
+			entries.put(offset + ENTRY_SCRIPT_POSITION + i, scriptPubKey[i]);
+		}
+		entriesEnd += entrySize;
+		return offset;
+	}
+
+	private int getEntrySize(int offset) {
+		return ENTRY_SCRIPT_POSITION + entries.getInt(offset + ENTRY_SCRIPT_SIZE_POSITION);
+	}
+
+	/**
+	 * Makes room for an entry of the given size: compacts the entries if at
+	 * least half of them are dead, and grows the buffer if still needed.
+	 *
+	 */
+	private void ensureEntriesCapacity(int entrySize) {
+		if ((long) entriesEnd + entrySize <= entries.capacity()) {
+			return;
+		}
+		if (deadEntriesSize >= entriesEnd / 2) {
+			compactEntries();
+			if ((long) entriesEnd + entrySize <= entries.capacity()) {
+				return;
+			}
+		}
+
+		long capacity = Math.min(Math.max(2L * entries.capacity(), (long) entriesEnd + entrySize), MAX_ENTRIES_CAPACITY);
+		if (entriesEnd + entrySize > capacity) {
+			throw new IllegalStateException("The unspent transaction outputs set is full");
+		}
+		if (fileChannel != null) {
+			entries = mapEntries((int) capacity);
+		} else {
+			ByteBuffer previousEntries = entries;
+			entries = ByteBuffer.allocateDirect((int) capacity);
+			// Copies through duplicates, so the positions of the buffers stay at zero
+			entries.duplicate().put(previousEntries.duplicate());
+		}
+	}
+
+	/**
+	 * Moves the live entries over the dead ones, in place, in the order they were
+	 * appended. An entry only moves towards the start, so it is never overwritten
+	 * before being moved.
+	 *
+	 */
+	private void compactEntries() {
+		int readOffset = 0;
+		int writeOffset = 0;
+		while (readOffset < entriesEnd) {
+			int entrySize = getEntrySize(readOffset);
+			if (entries.get(readOffset) == LIVE_ENTRY) {
+				if (writeOffset != readOffset) {
+					int slot = findSlotOfEntry(readOffset);
+					copyWithinEntries(readOffset, writeOffset, entrySize);
+					slots.putInt(slot * SLOT_SIZE + SLOT_OFFSET_POSITION, writeOffset + 1);
+				}
+				writeOffset += entrySize;
+			}
+			readOffset += entrySize;
+		}
+		entriesEnd = writeOffset;
+		deadEntriesSize = 0;
+	}
+
+	private int findSlotOfEntry(int offset) {
+		int hash = hash(entries.getInt(offset + ENTRY_TRANSACTION_ID_POSITION), entries.get(offset + ENTRY_OUTPUT_INDEX_POSITION) & 0xff);
+		int slot = hash & slotMask;
+		while (getEntryOffset(slot) != offset) {
+			slot = (slot + 1) & slotMask;
+		}
+		return slot;
+	}
+
+	private void copyWithinEntries(int from, int to, int length) {
+		int copied = 0;
+		for (; copied + 8 <= length; copied += 8) {
+			entries.putLong(to + copied, entries.getLong(from + copied));
+		}
+		for (; copied < length; copied++) {
+			entries.put(to + copied, entries.get(from + copied));
+		}
+	}
+
+	private ByteBuffer mapEntries(int capacity) {
+		try {
+			return fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not map the unspent transaction outputs file", e);
+		}
+	}
+
+	private static ByteBuffer allocateSlots(int numberOfSlots) {
+		return ByteBuffer.allocateDirect(Math.multiplyExact(numberOfSlots, SLOT_SIZE));
+	}
+
+	private static int calculateNumberOfSlots(int expectedNumberOfOutputs) {
+		if (expectedNumberOfOutputs < 0) {
+			throw new IllegalArgumentException("The expected number of outputs cannot be negative");
+		}
+		long minNumberOfSlots = (long) Math.ceil(expectedNumberOfOutputs / MAX_LOAD_FACTOR);
+		int numberOfSlots = MIN_NUMBER_OF_SLOTS;
+		while (numberOfSlots < minNumberOfSlots && numberOfSlots < MAX_NUMBER_OF_SLOTS) {
+			numberOfSlots *= 2;
+		}
+		return numberOfSlots;
+	}
+
+	private static int calculateEntriesCapacity(int expectedNumberOfOutputs) {
+		long capacity = (long) Math.max(expectedNumberOfOutputs, MIN_NUMBER_OF_SLOTS) * (ENTRY_SCRIPT_POSITION + EXPECTED_SCRIPT_SIZE);
+		return (int) Math.min(capacity, MAX_ENTRIES_CAPACITY);
+	}
+
+	/**
+	 * Hashes the given outpoint from the first four bytes of the transaction ID,
+	 * which are already evenly distributed as the ID is a hash.
+	 *
+	 */
+	private static int hash(byte[] txId, int outputIndex) {
+		int idPrefix = ((txId[0] & 0xff) << 24) | ((txId[1] & 0xff) << 16) | ((txId[2] & 0xff) << 8) | (txId[3] & 0xff);
+		return hash(idPrefix, outputIndex);
+	}
+
+	private static int hash(int idPrefix, int outputIndex) {
+		int hash = idPrefix ^ (outputIndex * 0x9E3779B9);
+		return hash ^ (hash >>> 16);
+	}
+
+	private static void checkOutpoint(byte[] txId, int outputIndex) {
+		if (txId == null || txId.length != TRANSACTION_ID_SIZE) {
+			throw new IllegalArgumentException("The transaction ID must be " + TRANSACTION_ID_SIZE + " bytes long");
+		}
+		if (outputIndex < 0 || outputIndex > MAX_OUTPUT_INDEX) {
+			throw new IllegalArgumentException("The output index must be between 0 and " + MAX_OUTPUT_INDEX);
+		}
+	}
+
+	// GETTERS & SETTERS // -----------------------------------------
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the memory taken off the heap by the table and the entries (mapped
+	 * from the file, if any), in bytes.
+	 *
+	 */
+	public long getMemoryUsage() {
+		return (long) slots.capacity() + entries.capacity();
+	}
+}
@@ -28,4 +28,15 @@ public interface NetworkInterface {
 	boolean getBlocks(int height, int preferredNumberOfNodes, int minNumberOfNodes, NetworkCallback<GetResponse<List<Block>>> networkCallback);
 
 	boolean getBlocks(Range<Integer> heightRange, int preferredNumberOfNodes, int minNumberOfNodes, NetworkCallback<GetResponse<List<Block>>> networkCallback);
+
+	/**
+	 * Gets the headers of the blocks in the given height range. Returns false if
+	 * the request was not sent, which is always the case for implementations
+	 * which do not support it.
+	 * 
+	 */
+	default boolean getBlockHeaders(Range<Integer> heightRange, int preferredNumberOfNodes, int minNumberOfNodes,
+			NetworkCallback<GetResponse<List<Block>>> networkCallback) {
+		return false;
+	}
 }
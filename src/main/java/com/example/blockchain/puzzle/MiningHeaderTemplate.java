@@ -0,0 +1,69 @@
+package com.example.blockchain.puzzle;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import com.example.blockchain.domain.block.Bits;
+import com.example.blockchain.domain.block.Block;
+import com.example.blockchain.util.ByteUtil;
+import com.example.blockchain.util.Sha256Util;
+
+/**
+ * The serialized header of a candidate block prepared for trying nonces. The
+ * header is serialized once, and the complete 64-byte blocks before the nonce
+ * are compressed once into a midstate digest. Trying a nonce only patches the
+ * nonce bytes in place, resumes a clone of the midstate with the rest of the
+ * header, hashes the result again into a reused buffer and compares it with the
+ * target bytes. An instance should be used by one thread only.
+ *
+ */
+class MiningHeaderTemplate {
+
+	private static final int NONCE_SIZE = 4; // In bytes
+
+	private byte[] header;
+	private int nonceIndex;
+	private int midstateLength; // The number of header bytes compressed into the midstate
+	private MessageDigest midstate;
+	private byte[] target;
+	private byte[] hash = new byte[Sha256Util.HASH_SIZE];
+
+	MiningHeaderTemplate(Block candidateBlock, BigInteger target) {
+		this.header = candidateBlock.serialize(false);
+		this.nonceIndex = header.length - NONCE_SIZE; // The nonce is the last field of the header
+		this.midstateLength = nonceIndex / Sha256Util.BLOCK_SIZE * Sha256Util.BLOCK_SIZE;
+		this.midstate = Sha256Util.createMidstate(header, 0, midstateLength);
+		// The target as encoded in the bits of a header, which is rounded down and is
+		// what the other nodes check the hash against
+		this.target = ByteUtil.convertToByteArray(new Bits(target).toTargetValue(), Sha256Util.HASH_SIZE);
+	}
+
+	/**
+	 * Hashes the header with the given nonce and returns whether the hash does not
+	 * exceed the target.
+	 *
+	 */
+	boolean tryNonce(long nonce) {
+		header[nonceIndex] = (byte) (nonce >>> 24);
+		header[nonceIndex + 1] = (byte) (nonce >>> 16);
+		header[nonceIndex + 2] = (byte) (nonce >>> 8);
+		header[nonceIndex + 3] = (byte) nonce;
+		Sha256Util.doubleHash(midstate, header, midstateLength, header.length - midstateLength, hash, 0);
+		return isHashWithinTarget();
+	}
+
+	/**
+	 * Compares the hash and the target as unsigned big-endian numbers.
+	 *
+	 */
+	private boolean isHashWithinTarget() {
+		for (int i = 0; i < Sha256Util.HASH_SIZE; i++) {
+			int hashByte = hash[i] & 0xff;
+			int targetByte = target[i] & 0xff;
+			if (hashByte != targetByte) {
+				return hashByte < targetByte;
+			}
+		}
+		return true;
+	}
+}
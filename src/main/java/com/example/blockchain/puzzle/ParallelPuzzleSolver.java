@@ -0,0 +1,120 @@
+package com.example.blockchain.puzzle;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.example.blockchain.difficulty.TargetCalculator;
+import com.example.blockchain.domain.block.Bits;
+import com.example.blockchain.domain.block.Block;
+
+/**
+ * Solves the nonce using several threads. The nonce space (four bytes in the
+ * block header) is split into contiguous ranges, one per thread, and each
+ * thread works on its own header template. All the threads stop as
+ * soon as one of them finds a solution or when the solver is stopped. When the
+ * candidate block is updated, each thread switches to it and starts its range
+ * over.
+ *
+ */
+public class ParallelPuzzleSolver extends PuzzleSolver {
+
+	private static final long NONCE_SPACE_SIZE = 0x100000000L; // The nonce is serialized in four bytes
+
+	private int numberOfThreads;
+
+	public ParallelPuzzleSolver(TargetCalculator targetCalculator, int numberOfThreads) {
+		super(targetCalculator);
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least one");
+		}
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * Solves the puzzle by running the workers and waiting for them to finish.
+	 *
+	 */
+	@Override
+	boolean solvePuzzle(Block candidateBlock) {
+		isRunning = true;
+		BigInteger target = targetCalculator.calculateTarget().getValue();
+		this.target = target;
+		candidateBlock.setBits(new Bits(target));
+
+		AtomicReference<Solution> solution = new AtomicReference<>();
+		long rangeSize = (NONCE_SPACE_SIZE + numberOfThreads - 1) / numberOfThreads;
+		Thread[] workers = new Thread[numberOfThreads];
+		for (int i = 0; i < numberOfThreads; i++) {
+			long fromNonce = i * rangeSize;
+			long toNonce = Math.min(NONCE_SPACE_SIZE, fromNonce + rangeSize);
+			workers[i] = new Thread() {
+				public void run() {
+					searchNonce(target, fromNonce, toNonce, solution);
+				}
+			};
+			workers[i].start();
+		}
+
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			isRunning = false;
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		if (!isRunning || solution.get() == null) { // Stopped or the nonce space is exhausted
+			isRunning = false;
+			return false;
+		}
+		Block solvedBlock = solution.get().block;
+		solvedBlock.setNonce(solution.get().nonce);
+		solvedBlock.setHash(true);
+		isRunning = false;
+		notifySubscribers(solvedBlock);
+		return true;
+	}
+
+	/**
+	 * Searches the nonces starting with 'fromNonce' (inclusive) and ending with
+	 * 'toNonce' (exclusive) until a solution is found by this or another worker,
+	 * or the solver is stopped. The range starts over if the candidate block is
+	 * updated.
+	 *
+	 */
+	private void searchNonce(BigInteger target, long fromNonce, long toNonce, AtomicReference<Solution> solution) {
+		Block block = candidateBlock;
+		MiningHeaderTemplate headerTemplate = new MiningHeaderTemplate(block, target);
+		for (long nonce = fromNonce; nonce < toNonce; nonce++) {
+			if (!isRunning || solution.get() != null) {
+				return;
+			}
+			if (((nonce - fromNonce) & (NONCES_BETWEEN_UPDATE_CHECKS - 1)) == 0 && candidateBlock != block) {
+				block = candidateBlock;
+				headerTemplate = new MiningHeaderTemplate(block, target);
+				nonce = fromNonce;
+			}
+			if (headerTemplate.tryNonce(nonce)) {
+				solution.compareAndSet(null, new Solution(block, nonce));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A solved nonce with the candidate block it was found for.
+	 *
+	 */
+	private static class Solution {
+
+		private Block block;
+		private long nonce;
+
+		private Solution(Block block, long nonce) {
+			this.block = block;
+			this.nonce = nonce;
+		}
+	}
+}
@@ -10,9 +10,13 @@ import com.example.blockchain.domain.block.Block;
 
 public class PuzzleSolver {
 
-	private boolean isRunning = false;
+	static final int NONCES_BETWEEN_UPDATE_CHECKS = 1 << 16; // A power of two
+
+	volatile boolean isRunning = false; // Volatile since it is read by the solving thread(s) and set by stop()
+	volatile Block candidateBlock; // The block being solved; replaced by update()
+	volatile BigInteger target;
 	private Set<PuzzleSolvedSubscriber> subscribers = new HashSet<>();
-	private TargetCalculator targetCalculator;
+	TargetCalculator targetCalculator;
 
 	public PuzzleSolver(TargetCalculator targetCalculator) {
 		this.targetCalculator = targetCalculator;
@@ -43,6 +47,7 @@ public class PuzzleSolver {
 			throw new IllegalStateException("Puzzle solver already started");
 		}
 
+		this.candidateBlock = candidateBlock;
 		Thread thread = new Thread() {
 			public void run() {
 				solvePuzzle(candidateBlock);
@@ -51,6 +56,18 @@ public class PuzzleSolver {
 		thread.start();
 	}
 
+	/**
+	 * Replaces the block being solved with the given one (e.g. with more
+	 * transactions on the same previous block). The solving thread(s) switch to it
+	 * within a few thousand nonces, starting their nonces over.
+	 * 
+	 */
+	public void update(Block candidateBlock) {
+		BigInteger target = this.target;
+		candidateBlock.setBits(new Bits(target != null ? target : targetCalculator.calculateTarget().getValue()));
+		this.candidateBlock = candidateBlock;
+	}
+
 	/**
 	 * Solves the puzzle.
 	 * 
@@ -59,18 +76,29 @@ public class PuzzleSolver {
 		// TODO Is it possible that the nonce exceeds Long.MAX_VALUE ?
 		isRunning = true;
 		BigInteger target = targetCalculator.calculateTarget().getValue();
+		this.target = target;
 		candidateBlock.setBits(new Bits(target));
-		long counter = 0;
-		do {
+		Block solvedBlock = candidateBlock;
+		MiningHeaderTemplate headerTemplate = new MiningHeaderTemplate(solvedBlock, target);
+		long nonce = 0;
+		while (true) {
 			if (!isRunning) {
 				return false;
 			}
-			candidateBlock.setNonce(counter);
-			candidateBlock.setHash(true);
-			counter++;
-		} while (new BigInteger(1, candidateBlock.getHash()).compareTo(target) == 1);
+			if ((nonce & (NONCES_BETWEEN_UPDATE_CHECKS - 1)) == 0 && this.candidateBlock != solvedBlock) {
+				solvedBlock = this.candidateBlock;
+				headerTemplate = new MiningHeaderTemplate(solvedBlock, target);
+				nonce = 0;
+			}
+			if (headerTemplate.tryNonce(nonce)) {
+				break;
+			}
+			nonce++;
+		}
+		solvedBlock.setNonce(nonce);
+		solvedBlock.setHash(true);
 		isRunning = false;
-		notifySubscribers(candidateBlock);
+		notifySubscribers(solvedBlock);
 		return true;
 	}
 
@@ -78,7 +106,7 @@ public class PuzzleSolver {
 	 * Notifies the subscribers of solving the block.
 	 * 
 	 */
-	private void notifySubscribers(Block block) {
+	void notifySubscribers(Block block) {
 		for (PuzzleSolvedSubscriber subscriber : subscribers) {
 			subscriber.puzzleSolved(block);
 		}
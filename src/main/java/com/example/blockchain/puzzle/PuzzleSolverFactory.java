@@ -4,12 +4,34 @@ import com.example.blockchain.difficulty.TargetCalculator;
 
 public class PuzzleSolverFactory {
 
+	private static int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
 	// Non usable constructor
 	private PuzzleSolverFactory() {
 
 	}
 
+	/**
+	 * Sets the number of threads used by the created solvers. One thread creates
+	 * the single-threaded solver. The default is the number of available
+	 * processors.
+	 * 
+	 */
+	public static void setNumberOfThreads(int numberOfThreads) {
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("The number of threads must be at least one");
+		}
+		PuzzleSolverFactory.numberOfThreads = numberOfThreads;
+	}
+
+	public static int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
 	public static PuzzleSolver createPuzzleSolver(TargetCalculator targetCalculator) {
-		return new PuzzleSolver(targetCalculator);
+		if (numberOfThreads == 1) {
+			return new PuzzleSolver(targetCalculator);
+		}
+		return new ParallelPuzzleSolver(targetCalculator, numberOfThreads);
 	}
 }
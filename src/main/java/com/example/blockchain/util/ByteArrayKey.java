@@ -0,0 +1,55 @@
+package com.example.blockchain.util;
+
+import java.util.Arrays;
+
+/**
+ * Wraps a byte array (e.g. a block hash or a transaction ID) so that it can be
+ * used as a key in hash based collections. The wrapped array should not be
+ * modified afterwards.
+ *
+ */
+public final class ByteArrayKey {
+
+	private final byte[] value;
+	private final int hashCode;
+
+	public ByteArrayKey(byte[] value) {
+		if (value == null) {
+			throw new IllegalArgumentException("The value cannot be null");
+		}
+		this.value = value;
+		this.hashCode = Arrays.hashCode(value);
+	}
+
+	// Object METHODS // --------------------------------------------
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ByteArrayKey other = (ByteArrayKey) obj;
+		if (hashCode != other.hashCode)
+			return false;
+		return Arrays.equals(value, other.value);
+	}
+
+	@Override
+	public String toString() {
+		return ConvertUtil.byteArrayToHexString(value);
+	}
+
+	// GETTERS & SETTERS // -----------------------------------------
+
+	public byte[] getValue() {
+		return value;
+	}
+}
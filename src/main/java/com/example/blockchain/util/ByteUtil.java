@@ -4,6 +4,8 @@ import java.math.BigInteger;
 
 public class ByteUtil {
 
+	private static final BigInteger TWO_TO_THE_64 = BigInteger.ONE.shiftLeft(64);
+
 	// Non usable constructor
 	private ByteUtil() {
 
@@ -46,6 +48,15 @@ public class ByteUtil {
 		return value;
 	}
 
+	/**
+	 * Converts the given long, read as an unsigned 64-bit number, to a BigInteger.
+	 *
+	 */
+	public static BigInteger toUnsignedBigInteger(long value) {
+		BigInteger bigInteger = BigInteger.valueOf(value);
+		return value >= 0 ? bigInteger : bigInteger.add(TWO_TO_THE_64);
+	}
+
 	public static BigInteger getBigInteger(byte[] array, int index, int length) {
 		int counter = 0;
 		BigInteger value = BigInteger.ZERO;
@@ -0,0 +1,53 @@
+package com.example.blockchain.util;
+
+/**
+ * Fee rates as fixed-point numbers: satoshis per byte scaled by a thousand
+ * (i.e. millisatoshis per byte) in a long, so that they are computed and
+ * compared without BigDecimal.
+ *
+ */
+public class FeeRateUtil {
+
+	public static final long SCALE = 1000; // Three decimal places
+
+	// Non usable constructor
+	private FeeRateUtil() {
+
+	}
+
+	/**
+	 * Calculates the fee rate of the given fees in satoshis over the given size in
+	 * bytes, rounded half up.
+	 *
+	 */
+	public static long calculateFeeRate(long fees, long size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("The size must be positive");
+		}
+		long scaledFees = Math.multiplyExact(fees, SCALE);
+		long feeRate = scaledFees / size;
+		long remainder = Math.abs(scaledFees % size);
+		if (remainder * 2 >= size) {
+			feeRate += scaledFees < 0 ? -1 : 1;
+		}
+		return feeRate;
+	}
+
+	/**
+	 * Calculates the fees in satoshis which the given fee rate requires for the
+	 * given size in bytes, rounded up.
+	 *
+	 */
+	public static long calculateFees(long feeRate, long size) {
+		long scaledFees = Math.multiplyExact(feeRate, size);
+		return scaledFees / SCALE + (scaledFees % SCALE > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Converts the given fee rate to satoshis per byte.
+	 *
+	 */
+	public static double toSatoshisPerByte(long feeRate) {
+		return (double) feeRate / SCALE;
+	}
+}
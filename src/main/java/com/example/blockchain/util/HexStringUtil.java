@@ -1,6 +1,7 @@
 package com.example.blockchain.util;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 public class HexStringUtil {
 
@@ -274,4 +275,57 @@ public class HexStringUtil {
 			throw new RuntimeException("Invalid VarInt value");
 		}
 	}
+
+	/**
+	 * Gets the size in bytes of the VarInt of the given value.
+	 * 
+	 */
+	public static int getSizeOfVarInt(long value) {
+		if (value >= 0 && value <= 252) {
+			return 1;
+		} else if (value >= 0 && value <= 0xffffL) {
+			return 3;
+		} else if (value >= 0 && value <= 0xffffffffL) {
+			return 5;
+		} else {
+			return 9;
+		}
+	}
+
+	/**
+	 * Writes the VarInt of the given value to the given buffer. The value is
+	 * treated as unsigned.
+	 * 
+	 */
+	public static void putVarInt(ByteBuffer buffer, long value) {
+		int size = getSizeOfVarInt(value);
+		if (size == 1) {
+			buffer.put((byte) value);
+		} else if (size == 3) {
+			buffer.put(FD_BYTE).putShort((short) value);
+		} else if (size == 5) {
+			buffer.put(FE_BYTE).putInt((int) value);
+		} else {
+			buffer.put(FF_BYTE).putLong(value);
+		}
+	}
+
+	/**
+	 * Reads the VarInt of the given byte array starting the given index without
+	 * copying it. An eight-byte value is returned as it is, so a value larger than
+	 * Long.MAX_VALUE is negative.
+	 * 
+	 */
+	public static long getVarInt(byte[] data, int startIndex) {
+		byte firstByte = data[startIndex];
+		if (firstByte == FD_BYTE) {
+			return ByteUtil.getLong(data, startIndex + 1, 2);
+		} else if (firstByte == FE_BYTE) {
+			return ByteUtil.getLong(data, startIndex + 1, 4);
+		} else if (firstByte == FF_BYTE) {
+			return ByteUtil.getLong(data, startIndex + 1, 8);
+		} else {
+			return firstByte & 0xff;
+		}
+	}
 }
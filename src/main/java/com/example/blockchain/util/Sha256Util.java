@@ -1,10 +1,28 @@
 package com.example.blockchain.util;
 
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class Sha256Util {
 
+	public static final int HASH_SIZE = 32; // In bytes
+	public static final int BLOCK_SIZE = 64; // In bytes; the digest compresses its input in blocks of this size
+
+	// One digest per thread; a digest is reset after each digest() call, so it can
+	// be reused by every method of this class
+	private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("SHA-256 algorith not found");
+			}
+		}
+	};
+
 	// Non usable constructor
 	private Sha256Util() {
 
@@ -15,13 +33,28 @@ public class Sha256Util {
 	 *
 	 */
 	public static byte[] hash(byte[] array) {
-		try {
-			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-			byte[] hash = messageDigest.digest(array);
-			return hash;
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("SHA-256 algorith not found");
-		}
+		return hash(array, 0, array.length);
+	}
+
+	/**
+	 * Hashes 'length' bytes of the given byte array starting with 'offset'.
+	 *
+	 */
+	public static byte[] hash(byte[] array, int offset, int length) {
+		MessageDigest messageDigest = digests.get();
+		messageDigest.update(array, offset, length);
+		return messageDigest.digest();
+	}
+
+	/**
+	 * Hashes the remaining bytes of the given buffer. The position of the buffer
+	 * is moved to its limit.
+	 *
+	 */
+	public static byte[] hash(ByteBuffer buffer) {
+		MessageDigest messageDigest = digests.get();
+		messageDigest.update(buffer);
+		return messageDigest.digest();
 	}
 
 	/**
@@ -29,42 +62,119 @@ public class Sha256Util {
 	 *
 	 */
 	public static byte[] doubleHash(byte[] array) {
+		return doubleHash(array, 0, array.length);
+	}
+
+	/**
+	 * Hashes 'length' bytes of the given byte array starting with 'offset' twice.
+	 *
+	 */
+	public static byte[] doubleHash(byte[] array, int offset, int length) {
+		byte[] hash = new byte[HASH_SIZE];
+		doubleHash(array, offset, length, hash, 0);
+		return hash;
+	}
+
+	/**
+	 * Hashes 'length' bytes of the given byte array starting with 'offset' twice,
+	 * and writes the result to 'out' starting with 'outOffset'.
+	 *
+	 */
+	public static void doubleHash(byte[] array, int offset, int length, byte[] out, int outOffset) {
+		MessageDigest messageDigest = digests.get();
+		messageDigest.update(array, offset, length);
+		digestTwice(messageDigest, out, outOffset);
+	}
+
+	/**
+	 * Hashes the remaining bytes of the given buffer twice. The position of the
+	 * buffer is moved to its limit.
+	 *
+	 */
+	public static byte[] doubleHash(ByteBuffer buffer) {
+		byte[] hash = new byte[HASH_SIZE];
+		doubleHash(buffer, hash, 0);
+		return hash;
+	}
+
+	/**
+	 * Hashes the remaining bytes of the given buffer twice, and writes the result
+	 * to 'out' starting with 'outOffset'. The position of the buffer is moved to
+	 * its limit.
+	 *
+	 */
+	public static void doubleHash(ByteBuffer buffer, byte[] out, int outOffset) {
+		MessageDigest messageDigest = digests.get();
+		messageDigest.update(buffer);
+		digestTwice(messageDigest, out, outOffset);
+	}
+
+	/**
+	 * Creates a digest which has already been updated with 'length' bytes of the
+	 * given byte array starting with 'offset'. The digest of the current thread is
+	 * updated once and cloned, so the returned digest holds the state after the
+	 * complete blocks of those bytes and only the remaining bytes are compressed
+	 * again by each hash resumed from it.
+	 *
+	 */
+	public static MessageDigest createMidstate(byte[] array, int offset, int length) {
+		MessageDigest messageDigest = digests.get();
+		messageDigest.update(array, offset, length);
 		try {
-			MessageDigest messageDigest1 = MessageDigest.getInstance("SHA-256");
-			MessageDigest messageDigest2 = MessageDigest.getInstance("SHA-256");
-			byte[] hash = messageDigest1.digest(messageDigest2.digest(array));
-			return hash;
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("SHA-256 algorith not found");
+			return cloneDigest(messageDigest);
+		} finally {
+			messageDigest.reset();
 		}
 	}
 
 	/**
-	 * Hashes the given byte array to a result of type String.
+	 * Resumes a clone of the given midstate with 'length' bytes of the given byte
+	 * array starting with 'offset', hashes the result again and writes it to 'out'
+	 * starting with 'outOffset'. The midstate itself is left unchanged.
 	 *
 	 */
-	public static String hashToString(byte[] array) {
+	public static void doubleHash(MessageDigest midstate, byte[] array, int offset, int length, byte[] out, int outOffset) {
+		MessageDigest messageDigest = cloneDigest(midstate);
+		messageDigest.update(array, offset, length);
+		digestTwice(messageDigest, out, outOffset);
+	}
+
+	private static MessageDigest cloneDigest(MessageDigest messageDigest) {
 		try {
-			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-			byte[] hash = messageDigest.digest(array);
-			return ConvertUtil.byteArrayToHexString(hash);
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("SHA-256 algorith not found");
+			return (MessageDigest) messageDigest.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException("The SHA-256 digest cannot be cloned", e);
 		}
 	}
 
 	/**
-	 * Hashes the given byte array to a result of type String twice.
+	 * Completes the first hash into 'out', then hashes it again in place.
 	 *
 	 */
-	public static String doubleHashToString(byte[] array) {
+	private static void digestTwice(MessageDigest messageDigest, byte[] out, int outOffset) {
 		try {
-			MessageDigest messageDigest1 = MessageDigest.getInstance("SHA-256");
-			MessageDigest messageDigest2 = MessageDigest.getInstance("SHA-256");
-			byte[] hash = messageDigest1.digest(messageDigest2.digest(array));
-			return ConvertUtil.byteArrayToHexString(hash);
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("SHA-256 algorith not found");
+			messageDigest.digest(out, outOffset, HASH_SIZE);
+			messageDigest.update(out, outOffset, HASH_SIZE);
+			messageDigest.digest(out, outOffset, HASH_SIZE);
+		} catch (DigestException e) {
+			messageDigest.reset();
+			throw new IllegalArgumentException("The output buffer is too small", e);
 		}
 	}
+
+	/**
+	 * Hashes the given byte array to a result of type String.
+	 *
+	 */
+	public static String hashToString(byte[] array) {
+		return ConvertUtil.byteArrayToHexString(hash(array));
+	}
+
+	/**
+	 * Hashes the given byte array to a result of type String twice.
+	 *
+	 */
+	public static String doubleHashToString(byte[] array) {
+		return ConvertUtil.byteArrayToHexString(doubleHash(array));
+	}
 }